@@ -0,0 +1,108 @@
+package com.buildmuse.concurrency.benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.BenchmarkList;
+import org.openjdk.jmh.runner.BenchmarkListEntry;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.format.OutputFormatFactory;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Entry point of benchmarks.jar.
+ *
+ * Accepts the usual JMH command line, but runs the selected benchmarks once
+ * per thread count and merges everything into a single JSON file, so results
+ * can be committed / diffed across revisions.
+ *
+ * Usage:
+ *   java -Dbench.threads=1,2,4,8,16,32,64 -Dbench.out=results.json \
+ *        -jar benchmarks/target/benchmarks.jar [JMH options] [regexp]
+ *
+ * - bench.threads: thread counts to sweep (default 1,4,16). Ignored if -t is given.
+ *   Benchmarks whose class or method is annotated @Threads are not swept:
+ *   they run once, with the annotated count (e.g. @Threads(1) for benchmarks
+ *   that start their own threads, where more callers only oversubscribe).
+ * - bench.out:     merged JSON result file (default jmh-results.json)
+ */
+public class BenchmarkMain {
+    
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        if (cli.shouldHelp() || cli.shouldList() || cli.shouldListWithParams()
+                || cli.shouldListProfilers() || cli.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+        
+        List<Integer> threadCounts = new ArrayList<>();
+        if (cli.getThreads().hasValue()) {
+            threadCounts.add(cli.getThreads().get());
+        } else {
+            for (String t : System.getProperty("bench.threads", "1,4,16").split(",")) {
+                threadCounts.add(Integer.parseInt(t.trim()));
+            }
+        }
+        String out = System.getProperty("bench.out", "jmh-results.json");
+        
+        // Split the selection: an explicit -t applies to everything, otherwise
+        // benchmarks that pin their thread count with @Threads are not swept
+        Set<String> swept = new TreeSet<>();
+        Set<String> pinned = new TreeSet<>();
+        List<String> includes = cli.getIncludes().isEmpty() ? List.of(".*") : cli.getIncludes();
+        for (BenchmarkListEntry entry : BenchmarkList.defaultList().find(
+                OutputFormatFactory.createFormatInstance(System.out, VerboseMode.SILENT), includes, cli.getExcludes())) {
+            if (entry.getThreads().hasValue() && !cli.getThreads().hasValue()) {
+                pinned.add(entry.getUsername());
+            } else {
+                swept.add(entry.getUsername());
+            }
+        }
+        
+        List<RunResult> results = new ArrayList<>();
+        if (!swept.isEmpty()) {
+            for (int threads : threadCounts) {
+                results.addAll(run(excluding(new OptionsBuilder().parent(cli), pinned).threads(threads),
+                        Path.of(out + ".t" + threads)));
+            }
+        }
+        if (!pinned.isEmpty()) {
+            results.addAll(run(excluding(new OptionsBuilder().parent(cli), swept), Path.of(out + ".pinned")));
+            System.out.println("Not swept (@Threads): " + pinned);
+        }
+        
+        ResultFormatFactory.getInstance(ResultFormatType.JSON, out).writeOut(results);
+        System.out.println("Results for threads " + threadCounts + " written to " + out);
+    }
+    
+    private static ChainedOptionsBuilder excluding(ChainedOptionsBuilder options, Collection<String> benchmarks) {
+        for (String benchmark : benchmarks) {
+            options.exclude("^" + Pattern.quote(benchmark) + "$");
+        }
+        return options;
+    }
+    
+    private static Collection<RunResult> run(ChainedOptionsBuilder options, Path part) throws Exception {
+        // Per-run file is only a by-product; the merged file is the result
+        Collection<RunResult> results = new Runner(options
+                .resultFormat(ResultFormatType.JSON)
+                .result(part.toString())
+                .build()).run();
+        Files.deleteIfExists(part);
+        return results;
+    }
+}
@@ -0,0 +1,27 @@
+package com.buildmuse.concurrency.benchmarks;
+
+/**
+ * Contention level shared by all benchmarks (a JMH @Param).
+ *
+ * HIGH: every benchmark thread hits the same instance.
+ * LOW:  threads are spread over many independent instances.
+ */
+public enum Contention {
+    HIGH(1),
+    LOW(64);
+    
+    private final int instances;
+    
+    Contention(int instances) {
+        this.instances = instances;
+    }
+    
+    public int instances() {
+        return instances;
+    }
+    
+    /** Instance a given JMH thread index should use. */
+    public int slot(int threadIndex) {
+        return threadIndex % instances;
+    }
+}
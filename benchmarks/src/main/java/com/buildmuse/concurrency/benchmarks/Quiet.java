@@ -0,0 +1,25 @@
+package com.buildmuse.concurrency.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * The exercises trace with System.out.println. Printing would dominate every
+ * measurement (and PrintStream synchronizes), so benchmarks silence stdout
+ * for the duration of a trial.
+ */
+public final class Quiet {
+    
+    private static final PrintStream ORIGINAL = System.out;
+    
+    private Quiet() {
+    }
+    
+    public static void silence() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+    
+    public static void restore() {
+        System.setOut(ORIGINAL);
+    }
+}
@@ -0,0 +1,69 @@
+package com.buildmuse.concurrency.level2_synchronization;
+
+import com.buildmuse.concurrency.benchmarks.Contention;
+import com.buildmuse.concurrency.benchmarks.Quiet;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Q03_SynchronizedBlock.BankAccount.
+ *
+ * deposit/withdraw include the exercise's 10ms "processing" sleep, so this
+ * checks the claim that keeping the sleep outside the synchronized block
+ * lets throughput grow with the thread count.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BankAccountBenchmark {
+    
+    @Param({"HIGH", "LOW"})
+    public Contention contention;
+    
+    Q03_SynchronizedBlock.BankAccount[] accounts;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        Quiet.silence();
+        accounts = new Q03_SynchronizedBlock.BankAccount[contention.instances()];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = new Q03_SynchronizedBlock.BankAccount(1000);
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Quiet.restore();
+    }
+    
+    @State(Scope.Thread)
+    public static class Slot {
+        Q03_SynchronizedBlock.BankAccount account;
+        
+        @Setup(Level.Trial)
+        public void setUp(BankAccountBenchmark bench, ThreadParams params) {
+            account = bench.accounts[bench.contention.slot(params.getThreadIndex())];
+        }
+    }
+    
+    @Benchmark
+    public void deposit(Slot slot) {
+        slot.account.deposit(50);
+    }
+    
+    @Benchmark
+    public void withdraw(Slot slot) {
+        slot.account.withdraw(30);
+    }
+    
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int getBalance(Slot slot) {
+        return slot.account.getBalance();
+    }
+}
@@ -0,0 +1,81 @@
+package com.buildmuse.concurrency.level2_synchronization;
+
+import com.buildmuse.concurrency.benchmarks.Contention;
+import com.buildmuse.concurrency.benchmarks.Quiet;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counters from Q02_SynchronizedMethod and Q06_StripedCounter.
+ *
+ * Q02 is the exercise's own synchronized Counter; SYNCHRONIZED, ATOMIC and
+ * STRIPED are the Q06 variants.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CounterBenchmark {
+    
+    @Param({"Q02", "SYNCHRONIZED", "ATOMIC", "STRIPED"})
+    public String counter;
+    
+    @Param({"HIGH", "LOW"})
+    public Contention contention;
+    
+    Q06_StripedCounter.Counter[] counters;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        Quiet.silence();
+        counters = new Q06_StripedCounter.Counter[contention.instances()];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = create();
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Quiet.restore();
+    }
+    
+    private Q06_StripedCounter.Counter create() {
+        if (counter.equals("Q02")) {
+            Q02_SynchronizedMethod.Counter q02 = new Q02_SynchronizedMethod.Counter();
+            return new Q06_StripedCounter.Counter() {
+                public void increment() {
+                    q02.increment();
+                }
+                
+                public int getCount() {
+                    return q02.getCount();
+                }
+            };
+        }
+        return Q06_StripedCounter.CounterType.valueOf(counter).create();
+    }
+    
+    @State(Scope.Thread)
+    public static class Slot {
+        Q06_StripedCounter.Counter counter;
+        
+        @Setup(Level.Trial)
+        public void setUp(CounterBenchmark bench, ThreadParams params) {
+            counter = bench.counters[bench.contention.slot(params.getThreadIndex())];
+        }
+    }
+    
+    @Benchmark
+    public void increment(Slot slot) {
+        slot.counter.increment();
+    }
+    
+    @Benchmark
+    public int getCount(Slot slot) {
+        return slot.counter.getCount();
+    }
+}
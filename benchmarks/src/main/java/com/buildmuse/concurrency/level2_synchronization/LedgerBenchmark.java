@@ -0,0 +1,46 @@
+package com.buildmuse.concurrency.level2_synchronization;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Q07_Ledger random transfers across 1M accounts.
+ *
+ * The headline configuration is 32 threads:
+ *   java -jar benchmarks.jar LedgerBenchmark -t 32
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LedgerBenchmark {
+    
+    @Param({"GLOBAL_LOCK", "STRIPED"})
+    public String ledgerType;
+    
+    @Param({"1000000"})
+    public int accounts;
+    
+    Q07_Ledger.Ledger ledger;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        ledger = Q07_Ledger.LedgerType.valueOf(ledgerType).create(accounts, 1_000);
+    }
+    
+    /** Transfers conserve money: anything else means a lost update. */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Q07_Ledger.verify(ledger, accounts * 1_000L);
+    }
+    
+    @Benchmark
+    public boolean transfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return ledger.transfer(random.nextInt(accounts), random.nextInt(accounts), 1 + random.nextInt(100));
+    }
+}
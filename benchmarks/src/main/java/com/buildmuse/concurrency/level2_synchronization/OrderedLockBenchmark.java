@@ -0,0 +1,46 @@
+package com.buildmuse.concurrency.level2_synchronization;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Q08_DeadlockDetector.OrderedLock overhead: a nested lock/unlock pair on
+ * plain ReentrantLocks vs order-checked locks (edge already known, so this
+ * is the steady-state cost of leaving the detector on).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OrderedLockBenchmark {
+    
+    Lock plainOuter;
+    Lock plainInner;
+    Lock orderedOuter;
+    Lock orderedInner;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        plainOuter = new ReentrantLock();
+        plainInner = new ReentrantLock();
+        Q08_DeadlockDetector.LockOrderGraph graph = new Q08_DeadlockDetector.LockOrderGraph(
+                Q08_DeadlockDetector.Mode.REPORT, message -> { });
+        orderedOuter = new Q08_DeadlockDetector.OrderedLock(graph, "outer");
+        orderedInner = new Q08_DeadlockDetector.OrderedLock(graph, "inner");
+    }
+    
+    @Benchmark
+    public void reentrantLock() {
+        Q08_DeadlockDetector.lockBoth(plainOuter, plainInner);
+    }
+    
+    @Benchmark
+    public void orderedLock() {
+        Q08_DeadlockDetector.lockBoth(orderedOuter, orderedInner);
+    }
+}
@@ -0,0 +1,68 @@
+package com.buildmuse.concurrency.level3_communication;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batch handoff (Q06_BatchedProducerConsumer, Q05_RingBuffer): produceAll /
+ * consumeBatch with one producer and one consumer per group.
+ *
+ * Scores are batches per microsecond; multiply by batch for items. batch=1
+ * is the per-item baseline.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Timeout(time = 10)
+@Fork(1)
+@State(Scope.Group)
+public class BatchingQueueBenchmark {
+    
+    @Param({"LOCKED", "SPSC", "MPMC"})
+    public String queue;
+    
+    @Param({"1", "16", "256"})
+    public int batch;
+    
+    Q05_RingBuffer.IntQueue target;
+    
+    @Setup(Level.Iteration)
+    public void setUp() {
+        switch (queue) {
+            case "LOCKED":
+                target = new Q06_BatchedProducerConsumer.BatchingSharedQueue(1024);
+                break;
+            case "SPSC":
+                target = new Q05_RingBuffer.SpscRingBuffer(1024, Q05_RingBuffer.WaitStrategy.PARK);
+                break;
+            default:
+                target = new Q05_RingBuffer.MpmcRingBuffer(1024, Q05_RingBuffer.WaitStrategy.PARK);
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class Buffer {
+        int[] items;
+        
+        @Setup(Level.Trial)
+        public void setUp(BatchingQueueBenchmark bench) {
+            items = new int[bench.batch];
+        }
+    }
+    
+    @Benchmark
+    @Group("batch")
+    @GroupThreads(1)
+    public void produceAll(Buffer buffer) throws InterruptedException {
+        target.produceAll(buffer.items, 0, batch);
+    }
+    
+    @Benchmark
+    @Group("batch")
+    @GroupThreads(1)
+    public int consumeBatch(Buffer buffer) throws InterruptedException {
+        return target.consumeBatch(buffer.items, batch);
+    }
+}
@@ -0,0 +1,109 @@
+package com.buildmuse.concurrency.level3_communication;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publish throughput into Q09_BroadcastRing's three-handler pipeline
+ * (journal + replicate in parallel, then business) against the same
+ * pipeline built from one ArrayBlockingQueue per stage. Both are bounded,
+ * so once full the producers run at the speed of the slowest stage.
+ * Pinned with @Threads(1), so BenchmarkMain's sweep runs one producer;
+ * pass -t 3 for several producers (CAS on claim) - -t overrides it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Timeout(time = 10)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class BroadcastRingBenchmark {
+    
+    @Param({"RING", "QUEUES"})
+    public String pipeline;
+    
+    Q09_BroadcastRing.BroadcastRing<Q09_BroadcastRing.ValueEvent> ring;
+    List<Thread> consumers;
+    BlockingQueue<Q09_BroadcastRing.ValueEvent> toJournal;
+    
+    @Setup(Level.Iteration)
+    public void setUp() {
+        if (pipeline.equals("RING")) {
+            ring = new Q09_BroadcastRing.BroadcastRing<>(1024, Q09_BroadcastRing.ValueEvent::new,
+                    Q05_RingBuffer.WaitStrategy.PARK);
+            ring.handleEventsWith((event, sequence, endOfBatch) -> event.journaled = sequence,
+                            (event, sequence, endOfBatch) -> event.replicated = sequence)
+                    .then((event, sequence, endOfBatch) -> event.value = 0);
+            consumers = ring.start();
+            return;
+        }
+        toJournal = new ArrayBlockingQueue<>(1024);
+        BlockingQueue<Q09_BroadcastRing.ValueEvent> toReplicate = new ArrayBlockingQueue<>(1024);
+        BlockingQueue<Q09_BroadcastRing.ValueEvent> toBusiness = new ArrayBlockingQueue<>(1024);
+        consumers = new ArrayList<>();
+        consumers.add(new Thread(() -> relay(toJournal, toReplicate), "Journal"));
+        consumers.add(new Thread(() -> relay(toReplicate, toBusiness), "Replicate"));
+        consumers.add(new Thread(() -> {
+            try {
+                while (true) {
+                    toBusiness.take().value = 0;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Business"));
+        for (Thread consumer : consumers) {
+            consumer.start();
+        }
+    }
+    
+    private static void relay(BlockingQueue<Q09_BroadcastRing.ValueEvent> from,
+                              BlockingQueue<Q09_BroadcastRing.ValueEvent> to) {
+        try {
+            while (true) {
+                to.put(from.take());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    @TearDown(Level.Iteration)
+    public void tearDown() throws InterruptedException {
+        if (ring != null) {
+            ring.drainAndHalt(consumers);
+            ring = null;
+            return;
+        }
+        for (Thread consumer : consumers) {
+            consumer.interrupt();
+            consumer.join();
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class Counter {
+        long value;
+    }
+    
+    @Benchmark
+    public void publish(Counter counter) throws InterruptedException {
+        long value = counter.value++;
+        if (ring != null) {
+            long sequence = ring.next();
+            ring.get(sequence).value = value;
+            ring.publish(sequence);
+        } else {
+            Q09_BroadcastRing.ValueEvent event = new Q09_BroadcastRing.ValueEvent();
+            event.value = value;
+            toJournal.put(event);
+        }
+    }
+}
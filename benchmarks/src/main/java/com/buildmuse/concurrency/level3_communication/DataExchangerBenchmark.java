@@ -0,0 +1,69 @@
+package com.buildmuse.concurrency.level3_communication;
+
+import com.buildmuse.concurrency.benchmarks.Contention;
+import com.buildmuse.concurrency.benchmarks.Quiet;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Q03_ThreadCommunication.DataExchanger: round trips per second.
+ *
+ * "client" sends data and waits for the response, "server" receives data
+ * and answers, exactly like Thread-1/Thread-2 in the exercise.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Timeout(time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DataExchangerBenchmark {
+    
+    @Param({"HIGH", "LOW"})
+    public Contention contention;
+    
+    Q03_ThreadCommunication.DataExchanger[] exchangers;
+    
+    @Setup(Level.Iteration)
+    public void setUp() {
+        Quiet.silence();
+        exchangers = new Q03_ThreadCommunication.DataExchanger[contention.instances()];
+        for (int i = 0; i < exchangers.length; i++) {
+            exchangers[i] = new Q03_ThreadCommunication.DataExchanger();
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Quiet.restore();
+    }
+    
+    @State(Scope.Group)
+    public static class Slot {
+        Q03_ThreadCommunication.DataExchanger exchanger;
+        
+        @Setup(Level.Iteration)
+        public void setUp(DataExchangerBenchmark bench, ThreadParams params) {
+            exchanger = bench.exchangers[bench.contention.slot(params.getGroupIndex())];
+        }
+    }
+    
+    @Benchmark
+    @Group("roundTrip")
+    @GroupThreads(1)
+    public String client(Slot slot) throws InterruptedException {
+        slot.exchanger.sendData("Message");
+        return slot.exchanger.receiveResponse();
+    }
+    
+    @Benchmark
+    @Group("roundTrip")
+    @GroupThreads(1)
+    public void server(Slot slot) throws InterruptedException {
+        String data = slot.exchanger.receiveData();
+        slot.exchanger.sendResponse("Processed-" + data);
+    }
+}
@@ -0,0 +1,55 @@
+package com.buildmuse.concurrency.level3_communication;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Q05_RingBuffer, set up like SharedQueueBenchmark (one producer and one
+ * consumer per group) so the two can be compared directly.
+ *
+ * Each group owns its queue: an SPSC buffer must never be shared between
+ * groups. Compare against SharedQueueBenchmark with contention=LOW.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Timeout(time = 10)
+@Fork(1)
+@State(Scope.Group)
+public class RingBufferBenchmark {
+    
+    @Param({"SPSC", "MPMC"})
+    public String queue;
+    
+    @Param({"SPIN", "YIELD", "PARK"})
+    public String waitStrategy;
+    
+    @Param({"1024"})
+    public int capacity;
+    
+    Q05_RingBuffer.IntQueue ring;
+    
+    @Setup(Level.Iteration)
+    public void setUp() {
+        Q05_RingBuffer.WaitStrategy strategy = Q05_RingBuffer.WaitStrategy.valueOf(waitStrategy);
+        ring = queue.equals("SPSC")
+                ? new Q05_RingBuffer.SpscRingBuffer(capacity, strategy)
+                : new Q05_RingBuffer.MpmcRingBuffer(capacity, strategy);
+    }
+    
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public void produce() throws InterruptedException {
+        ring.produce(42);
+    }
+    
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public int consume() throws InterruptedException {
+        return ring.consume();
+    }
+}
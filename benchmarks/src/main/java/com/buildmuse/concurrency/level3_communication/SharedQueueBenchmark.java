@@ -0,0 +1,71 @@
+package com.buildmuse.concurrency.level3_communication;
+
+import com.buildmuse.concurrency.benchmarks.Contention;
+import com.buildmuse.concurrency.benchmarks.Quiet;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Q02_ProducerConsumer.SharedQueue: one producer and one consumer per group.
+ *
+ * Run with -t N to get N/2 groups. HIGH contention puts every group on one
+ * queue, LOW gives each group its own. Threads left blocked in wait() when an
+ * iteration ends are interrupted by JMH after the @Timeout.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Timeout(time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SharedQueueBenchmark {
+    
+    @Param({"5", "1024"})
+    public int capacity;
+    
+    @Param({"HIGH", "LOW"})
+    public Contention contention;
+    
+    Q02_ProducerConsumer.SharedQueue[] queues;
+    
+    @Setup(Level.Iteration)
+    public void setUp() {
+        Quiet.silence();
+        queues = new Q02_ProducerConsumer.SharedQueue[contention.instances()];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new Q02_ProducerConsumer.SharedQueue(capacity);
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Quiet.restore();
+    }
+    
+    @State(Scope.Group)
+    public static class Slot {
+        Q02_ProducerConsumer.SharedQueue queue;
+        
+        @Setup(Level.Iteration)
+        public void setUp(SharedQueueBenchmark bench, ThreadParams params) {
+            queue = bench.queues[bench.contention.slot(params.getGroupIndex())];
+        }
+    }
+    
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public void produce(Slot slot) throws InterruptedException {
+        slot.queue.produce(42);
+    }
+    
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public int consume(Slot slot) throws InterruptedException {
+        return slot.queue.consume();
+    }
+}
@@ -0,0 +1,39 @@
+package com.buildmuse.concurrency.level3_communication;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Q08_TurnScheduler: time for {@code handoffs} round-robin turns among N
+ * participant threads, notifyAll() vs Condition-per-participant vs unpark.
+ *
+ * Single-shot: each invocation starts N fresh threads (same start-up cost
+ * for every scheduler). Handoffs/sec = handoffs / score. @Threads(1):
+ * each caller would start its own N threads, so it is not swept.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class TurnSchedulerBenchmark {
+    
+    @Param({"NOTIFY_ALL", "CONDITION", "UNPARK"})
+    public String scheduler;
+    
+    @Param({"3", "16", "128"})
+    public int participants;
+    
+    @Param({"20000"})
+    public int handoffs;
+    
+    @Benchmark
+    public long handoffs() throws InterruptedException {
+        Q08_TurnScheduler.TurnScheduler turns =
+                Q08_TurnScheduler.SchedulerType.valueOf(scheduler).create(participants);
+        return Q08_TurnScheduler.run(turns, participants, handoffs / participants, participant -> { });
+    }
+}
@@ -0,0 +1,71 @@
+package com.buildmuse.concurrency.level4_concurrent_collections;
+
+import com.buildmuse.concurrency.benchmarks.Contention;
+import com.buildmuse.concurrency.benchmarks.Quiet;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Q02_ConcurrentHashMap.Cache hit path.
+ *
+ * computeValue() sleeps for a second, so the key set is loaded once in
+ * parallel during setup and the benchmark measures cache hits only.
+ * HIGH contention: every thread reads the same key. LOW: threads spread
+ * over 64 keys.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheBenchmark {
+    
+    @Param({"HIGH", "LOW"})
+    public Contention contention;
+    
+    Q02_ConcurrentHashMap.Cache cache;
+    String[] keys;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        Quiet.silence();
+        cache = new Q02_ConcurrentHashMap.Cache();
+        keys = new String[contention.instances()];
+        List<Thread> loaders = new ArrayList<>();
+        for (int i = 0; i < keys.length; i++) {
+            String key = "key" + i;
+            keys[i] = key;
+            Thread loader = new Thread(() -> cache.get(key));
+            loader.start();
+            loaders.add(loader);
+        }
+        for (Thread loader : loaders) {
+            loader.join();
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Quiet.restore();
+    }
+    
+    @State(Scope.Thread)
+    public static class Slot {
+        String key;
+        
+        @Setup(Level.Trial)
+        public void setUp(CacheBenchmark bench, ThreadParams params) {
+            key = bench.keys[bench.contention.slot(params.getThreadIndex())];
+        }
+    }
+    
+    @Benchmark
+    public String get(Slot slot) {
+        return cache.get(slot.key);
+    }
+}
@@ -0,0 +1,65 @@
+package com.buildmuse.concurrency.level4_concurrent_collections;
+
+import com.buildmuse.concurrency.benchmarks.Contention;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Q04_LoadingCache: hit path (compare with CacheBenchmark) and a mixed
+ * workload over a key space twice the maximum size, so gets keep missing
+ * and evicting.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoadingCacheBenchmark {
+    
+    @Param({"HIGH", "LOW"})
+    public Contention contention;
+    
+    @Param({"10000"})
+    public int maximumSize;
+    
+    Q04_LoadingCache.LoadingCache<Integer, String> cache;
+    Integer[] keys;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        cache = Q04_LoadingCache.LoadingCache.<Integer, String>builder(k -> "Value-" + k)
+                .maximumSize(maximumSize)
+                .build();
+        keys = new Integer[maximumSize * 2];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i;
+        }
+        for (int i = 0; i < contention.instances(); i++) {
+            cache.get(keys[i]);
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class Slot {
+        Integer key;
+        
+        @Setup(Level.Trial)
+        public void setUp(LoadingCacheBenchmark bench, ThreadParams params) {
+            key = bench.keys[bench.contention.slot(params.getThreadIndex())];
+        }
+    }
+    
+    @Benchmark
+    public String hit(Slot slot) {
+        return cache.get(slot.key);
+    }
+    
+    @Benchmark
+    public String missAndEvict() {
+        return cache.get(keys[ThreadLocalRandom.current().nextInt(keys.length)]);
+    }
+}
@@ -0,0 +1,57 @@
+package com.buildmuse.concurrency.level4_concurrent_collections;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * get and put (update) throughput of Q05_LongLongMap's
+ * ConcurrentLongLongMap against ConcurrentHashMap<Long, Long>, over a
+ * prefilled key space. With 1M keys neither map fits in cache, so the
+ * score is mostly cache misses: one or two per probe for the flat map,
+ * up to three (table, Node, boxed Long) for ConcurrentHashMap.
+ *
+ * Memory per entry is printed at setup for the large key space, from
+ * GC'd heap sizes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LongLongMapBenchmark {
+    
+    @Param({"CONCURRENT_HASH_MAP", "LONG_LONG"})
+    public String mapType;
+    
+    @Param({"1024", "1048576"})
+    public int keys;
+    
+    Q05_LongLongMap.LongMap map;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        Q05_LongLongMap.MapType type = Q05_LongLongMap.MapType.valueOf(mapType);
+        long before = Q05_LongLongMap.usedHeap();
+        map = type.create(keys);
+        for (long key = 0; key < keys; key++) {
+            map.put(key, key);
+        }
+        if (keys >= 1 << 16) { // smaller maps are lost in heap noise
+            System.out.println("\n" + type + ": " + (Q05_LongLongMap.usedHeap() - before) / keys + " bytes/entry");
+        }
+    }
+    
+    @Benchmark
+    public long get() {
+        return map.get(ThreadLocalRandom.current().nextInt(keys));
+    }
+    
+    @Benchmark
+    public long put() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return map.put(random.nextInt(keys), random.nextLong(Long.MAX_VALUE));
+    }
+}
@@ -0,0 +1,50 @@
+package com.buildmuse.concurrency.level4_concurrent_collections;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hit path of Q06_OffHeapCache against the on-heap ConcurrentHashMap
+ * baseline: what the off-heap tier pays per get() to copy the value out
+ * of its slab and decode it. All keys are loaded in setup.
+ *
+ * GC pauses are not visible here; run with -prof gc, or see
+ * Q06_OffHeapCache.main for heap occupancy and pause percentiles.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OffHeapCacheBenchmark {
+    
+    static final int KEYS = 10_000;
+    
+    @Param({"ON_HEAP", "OFF_HEAP"})
+    public String cacheType;
+    
+    @Param({"100", "1000"})
+    public int valueSize;
+    
+    Q06_OffHeapCache.StringCache cache;
+    String[] keys;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        cache = Q06_OffHeapCache.CacheType.valueOf(cacheType)
+                .create(64L << 20, key -> Q06_OffHeapCache.valueFor(key, valueSize));
+        keys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "key" + i;
+            cache.get(keys[i]);
+        }
+    }
+    
+    @Benchmark
+    public String get() {
+        return cache.get(keys[ThreadLocalRandom.current().nextInt(KEYS)]);
+    }
+}
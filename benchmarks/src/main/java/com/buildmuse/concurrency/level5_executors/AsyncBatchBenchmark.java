@@ -0,0 +1,56 @@
+package com.buildmuse.concurrency.level5_executors;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Q05_AsyncBatch: latency of one fan-out/fan-in batch of skewed tasks
+ * (90% 1 ms, 9% 5 ms, 1% 50 ms), each result processed for 1 ms.
+ *
+ * SampleTime reports p50/p90/p99/p99.9 per strategy: submission-order
+ * get() against completion order, and completion order with hedging.
+ * Pinned with @Threads(1), not swept: the tasks sleep, so the cached
+ * pool grows as needed.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 4)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class AsyncBatchBenchmark {
+    
+    @Param({"SUBMISSION_ORDER", "COMPLETION_ORDER", "HEDGED"})
+    public String strategy;
+    
+    @Param({"16"})
+    public int tasks;
+    
+    @Param({"1"})
+    public long processMillis;
+    
+    ExecutorService executor;
+    Q05_AsyncBatch.Strategy mode;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+        mode = Q05_AsyncBatch.Strategy.valueOf(strategy);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+    
+    @Benchmark
+    public long batch() throws InterruptedException, ExecutionException {
+        return Q05_AsyncBatch.runBatch(executor, mode, tasks, processMillis);
+    }
+}
@@ -0,0 +1,42 @@
+package com.buildmuse.concurrency.level5_executors;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Q03_ExecutorModes: time to finish 10k+ blocking tasks per executor mode.
+ *
+ * Single-shot: each invocation creates the executor, submits every task and
+ * waits for termination, so thread start-up cost is part of the score.
+ * Pinned with @Threads(1): the executor provides the concurrency, so
+ * BenchmarkMain does not sweep it over caller threads.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class ExecutorModeBenchmark {
+    
+    @Param({"VIRTUAL", "FIXED", "FORK_JOIN", "WORK_STEALING"})
+    public String mode;
+    
+    @Param({"10000", "50000"})
+    public int tasks;
+    
+    /** Pool size for the bounded modes. */
+    @Param({"200"})
+    public int parallelism;
+    
+    @Param({"10"})
+    public long taskMillis;
+    
+    @Benchmark
+    public long blockingTasks() throws InterruptedException {
+        return Q03_ExecutorModes.runBlockingTasks(Q03_ExecutorModes.ExecutorMode.valueOf(mode),
+                parallelism, tasks, taskMillis);
+    }
+}
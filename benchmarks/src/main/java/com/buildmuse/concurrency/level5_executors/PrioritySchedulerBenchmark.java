@@ -0,0 +1,65 @@
+package com.buildmuse.concurrency.level5_executors;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Q06_PriorityScheduler: round trip (submit to result) of a HIGH task
+ * while a background thread keeps a backlog of BULK tasks queued - a
+ * saturated pool. SampleTime reports p50/p99/p99.9 per queue: FIFO waits
+ * behind the whole backlog, the priority queues only for a free worker.
+ * Pinned with @Threads(1): the pool provides the concurrency, so it is not swept.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class PrioritySchedulerBenchmark {
+    
+    @Param({"FIFO", "SINGLE_HEAP", "PER_CLASS"})
+    public String queueType;
+    
+    @Param({"200"})
+    public int backlog;
+    
+    BlockingQueue<Runnable> queue;
+    Q06_PriorityScheduler.PriorityExecutor executor;
+    Thread bulk;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        queue = Q06_PriorityScheduler.QueueType.valueOf(queueType).create();
+        executor = new Q06_PriorityScheduler.PriorityExecutor(4, queue);
+        executor.prestartAllCoreThreads();
+        bulk = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                while (queue.size() < backlog) {
+                    executor.submit(Q06_PriorityScheduler.Priority.BULK, -1, TimeUnit.MILLISECONDS,
+                            () -> Q06_PriorityScheduler.work(500));
+                }
+                Q06_PriorityScheduler.work(100);
+            }
+        }, "Bulk");
+        bulk.start();
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        bulk.interrupt();
+        bulk.join();
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+    
+    @Benchmark
+    public Object highPriority() throws InterruptedException, ExecutionException {
+        return executor.submit(Q06_PriorityScheduler.Priority.HIGH, -1, TimeUnit.MILLISECONDS,
+                () -> Q06_PriorityScheduler.work(100)).get();
+    }
+}
@@ -0,0 +1,89 @@
+package com.buildmuse.concurrency.level5_executors;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Q04_WorkStealingExecutor vs ThreadPoolExecutor vs ForkJoinPool on
+ * fine-grained tasks.
+ *
+ * RECURSIVE: one root task splits into {@code tasks} leaves, every split
+ * submitted from inside a worker. FLAT: the benchmark thread submits
+ * {@code tasks} independent tasks. Score is the time for the whole batch.
+ * Pinned with @Threads(1): the executor provides the concurrency, so
+ * BenchmarkMain does not sweep it over caller threads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class WorkStealingBenchmark {
+    
+    @Param({"WORK_STEALING", "THREAD_POOL", "FORK_JOIN"})
+    public String executor;
+    
+    @Param({"RECURSIVE", "FLAT"})
+    public String workload;
+    
+    @Param({"65536"})
+    public int tasks;
+    
+    /** CPU work per leaf task, in Blackhole tokens. */
+    @Param({"0", "200"})
+    public int leafTokens;
+    
+    ExecutorService pool;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        pool = switch (executor) {
+            case "WORK_STEALING" -> new Q04_WorkStealingExecutor.WorkStealingExecutor(threads);
+            case "THREAD_POOL" -> Executors.newFixedThreadPool(threads);
+            case "FORK_JOIN" -> new ForkJoinPool(threads);
+            default -> throw new IllegalArgumentException(executor);
+        };
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+    
+    void split(int from, int to, CountDownLatch done) {
+        while (to - from > 1) {
+            int mid = (from + to) >>> 1;
+            int lo = mid, hi = to;
+            pool.execute(() -> split(lo, hi, done));
+            to = mid;
+        }
+        Blackhole.consumeCPU(leafTokens);
+        done.countDown();
+    }
+    
+    @Benchmark
+    public void batch() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(tasks);
+        if (workload.equals("RECURSIVE")) {
+            pool.execute(() -> split(0, tasks, done));
+        } else {
+            for (int i = 0; i < tasks; i++) {
+                pool.execute(() -> {
+                    Blackhole.consumeCPU(leafTokens);
+                    done.countDown();
+                });
+            }
+        }
+        done.await();
+    }
+}
@@ -0,0 +1,84 @@
+package com.buildmuse.concurrency.level6_advanced;
+
+import com.buildmuse.concurrency.benchmarks.Contention;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Q08_AdaptiveLock against ReentrantLock, unfair and fair: lock() and
+ * tryLock(timeout) around a short or longer critical section. Run with
+ * -t 4 or more; at HIGH contention the fair ReentrantLock drops to the
+ * context-switch rate, bounded barging should stay close to unfair.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AdaptiveLockBenchmark {
+    
+    @Param({"REENTRANT", "REENTRANT_FAIR", "ADAPTIVE", "ADAPTIVE_BOUNDED"})
+    public String lockType;
+    
+    @Param({"HIGH", "LOW"})
+    public Contention contention;
+    
+    /** Work done inside the critical section, in Blackhole tokens. */
+    @Param({"0", "100"})
+    public int holdTokens;
+    
+    Lock[] locks;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        locks = new Lock[contention.instances()];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = Q08_AdaptiveLock.LockType.valueOf(lockType).create();
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void printStats() {
+        if (locks[0] instanceof Q08_AdaptiveLock.AdaptiveLock) {
+            System.out.println("\n" + ((Q08_AdaptiveLock.AdaptiveLock) locks[0]).stats());
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class Slot {
+        Lock lock;
+        
+        @Setup(Level.Trial)
+        public void setUp(AdaptiveLockBenchmark bench, ThreadParams params) {
+            lock = bench.locks[bench.contention.slot(params.getThreadIndex())];
+        }
+    }
+    
+    @Benchmark
+    public void lock(Slot slot) {
+        slot.lock.lock();
+        try {
+            Blackhole.consumeCPU(holdTokens);
+        } finally {
+            slot.lock.unlock();
+        }
+    }
+    
+    @Benchmark
+    public boolean tryLockTimeout(Slot slot) throws InterruptedException {
+        if (slot.lock.tryLock(1, TimeUnit.SECONDS)) {
+            try {
+                Blackhole.consumeCPU(holdTokens);
+            } finally {
+                slot.lock.unlock();
+            }
+            return true;
+        }
+        return false;
+    }
+}
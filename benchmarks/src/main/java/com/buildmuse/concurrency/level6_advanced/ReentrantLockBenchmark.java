@@ -0,0 +1,92 @@
+package com.buildmuse.concurrency.level6_advanced;
+
+import com.buildmuse.concurrency.benchmarks.Contention;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The locking patterns of Q04_ReentrantLock: lock(), tryLock(timeout),
+ * fair vs unfair, against a plain synchronized block.
+ *
+ * doWork() sleeps for seconds while holding the lock, so the patterns are
+ * benchmarked with a short simulated critical section instead.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReentrantLockBenchmark {
+    
+    @Param({"false", "true"})
+    public boolean fair;
+    
+    @Param({"HIGH", "LOW"})
+    public Contention contention;
+    
+    /** Work done inside the critical section, in Blackhole tokens. */
+    @Param({"0", "100"})
+    public int holdTokens;
+    
+    ReentrantLock[] locks;
+    Object[] monitors;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        locks = new ReentrantLock[contention.instances()];
+        monitors = new Object[contention.instances()];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock(fair);
+            monitors[i] = new Object();
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class Slot {
+        ReentrantLock lock;
+        Object monitor;
+        
+        @Setup(Level.Trial)
+        public void setUp(ReentrantLockBenchmark bench, ThreadParams params) {
+            int slot = bench.contention.slot(params.getThreadIndex());
+            lock = bench.locks[slot];
+            monitor = bench.monitors[slot];
+        }
+    }
+    
+    @Benchmark
+    public void lock(Slot slot) {
+        slot.lock.lock();
+        try {
+            Blackhole.consumeCPU(holdTokens);
+        } finally {
+            slot.lock.unlock();
+        }
+    }
+    
+    @Benchmark
+    public boolean tryLockTimeout(Slot slot) throws InterruptedException {
+        if (slot.lock.tryLock(1, TimeUnit.SECONDS)) {
+            try {
+                Blackhole.consumeCPU(holdTokens);
+            } finally {
+                slot.lock.unlock();
+            }
+            return true;
+        }
+        return false;
+    }
+    
+    /** Baseline; the fair param does not apply. */
+    @Benchmark
+    public void synchronizedBlock(Slot slot) {
+        synchronized (slot.monitor) {
+            Blackhole.consumeCPU(holdTokens);
+        }
+    }
+}
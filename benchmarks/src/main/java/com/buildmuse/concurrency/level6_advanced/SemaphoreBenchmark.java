@@ -0,0 +1,81 @@
+package com.buildmuse.concurrency.level6_advanced;
+
+import com.buildmuse.concurrency.benchmarks.Contention;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Acquire/release cost of the Semaphore used by Q03_Semaphore.ConnectionPool.
+ *
+ * getConnection() itself holds a permit for 2 seconds, which would only
+ * measure Thread.sleep, so the pool's permit handling is benchmarked with
+ * a short simulated hold instead. permits=3 matches the exercise.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SemaphoreBenchmark {
+    
+    @Param({"1", "3"})
+    public int permits;
+    
+    @Param({"false", "true"})
+    public boolean fair;
+    
+    @Param({"HIGH", "LOW"})
+    public Contention contention;
+    
+    /** Work done while holding a permit, in Blackhole tokens. */
+    @Param({"0", "100"})
+    public int holdTokens;
+    
+    Semaphore[] semaphores;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        semaphores = new Semaphore[contention.instances()];
+        for (int i = 0; i < semaphores.length; i++) {
+            semaphores[i] = new Semaphore(permits, fair);
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class Slot {
+        Semaphore semaphore;
+        
+        @Setup(Level.Trial)
+        public void setUp(SemaphoreBenchmark bench, ThreadParams params) {
+            semaphore = bench.semaphores[bench.contention.slot(params.getThreadIndex())];
+        }
+    }
+    
+    @Benchmark
+    public void acquireRelease(Slot slot) throws InterruptedException {
+        slot.semaphore.acquire();
+        try {
+            Blackhole.consumeCPU(holdTokens);
+        } finally {
+            slot.semaphore.release();
+        }
+    }
+    
+    @Benchmark
+    public boolean tryAcquireRelease(Slot slot) {
+        if (slot.semaphore.tryAcquire()) {
+            try {
+                Blackhole.consumeCPU(holdTokens);
+            } finally {
+                slot.semaphore.release();
+            }
+            return true;
+        }
+        return false;
+    }
+}
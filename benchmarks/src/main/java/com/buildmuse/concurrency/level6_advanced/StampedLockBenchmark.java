@@ -0,0 +1,38 @@
+package com.buildmuse.concurrency.level6_advanced;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Q05_StampedLock: synchronized vs ReentrantReadWriteLock vs optimistic
+ * reads on one shared account, at 99/1, 90/10 and 50/50 read/write mixes.
+ * Reads only scale with -t when they do not write the lock word.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StampedLockBenchmark {
+    
+    @Param({"SYNCHRONIZED", "READ_WRITE_LOCK", "OPTIMISTIC"})
+    public String accountType;
+    
+    @Param({"99", "90", "50"})
+    public int readPercent;
+    
+    Q05_StampedLock.Account account;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        account = Q05_StampedLock.AccountType.valueOf(accountType).create(1_000_000);
+    }
+    
+    @Benchmark
+    public long mixed() {
+        return Q05_StampedLock.operate(account, readPercent, ThreadLocalRandom.current());
+    }
+}
@@ -0,0 +1,69 @@
+package com.buildmuse.concurrency.level7_patterns;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one log call from the caller's side: Q04_AsyncLogger against
+ * println on a buffered PrintStream (its lock, String building and
+ * encoding; the output is discarded, so no I/O is counted for it).
+ *
+ * The async logger's file I/O happens on its flusher thread. On few
+ * cores the flusher competes with the benchmark threads; with BLOCK the
+ * score then includes waiting for it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AsyncLoggerBenchmark {
+    
+    @Param({"DROP", "BLOCK"})
+    public String policy;
+    
+    Path file;
+    Q04_AsyncLogger.AsyncLogger logger;
+    int template;
+    PrintStream printStream;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("async-logger-bench", ".log");
+        logger = new Q04_AsyncLogger.AsyncLogger(file, Q04_AsyncLogger.OverflowPolicy.valueOf(policy), 1 << 14, 100);
+        template = logger.register("Counter is now {} (thread {})");
+        printStream = new PrintStream(new BufferedOutputStream(OutputStream.nullOutputStream()));
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.out.println("\ndropped: " + logger.dropped());
+        logger.close();
+        printStream.close();
+        Files.deleteIfExists(file);
+    }
+    
+    @State(Scope.Thread)
+    public static class Counter {
+        long value;
+    }
+    
+    @Benchmark
+    public void asyncLog(Counter counter) {
+        logger.log(template, counter.value++, Thread.currentThread().threadId());
+    }
+    
+    /** Baseline; the policy param does not apply. */
+    @Benchmark
+    public void println(Counter counter) {
+        printStream.println("Counter is now " + counter.value++ + " (thread " + Thread.currentThread().getName() + ")");
+    }
+}
@@ -0,0 +1,86 @@
+package com.buildmuse.concurrency.level7_patterns;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Recording cost of Q03_Metrics from many threads: the striped histogram
+ * against one shared AtomicLongArray histogram, LongAdder against
+ * AtomicLong, and an InstrumentedLock against the bare lock.
+ * Run with -t 1 and -t 8: every variant pays atomic adds, but the shared
+ * ones make all threads fight over the same cache lines. The striped
+ * histogram spreads threads over up to 64 stripes by thread id, so it
+ * degrades much less, but not zero: threads hashed to one stripe contend,
+ * and its max is a CAS loop. With more threads than stripes, collisions
+ * are certain.
+ * The instrumented lock's overhead is mostly its two System.nanoTime() calls.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+    
+    Q03_Metrics.Histogram histogram;
+    AtomicLongArray sharedHistogram;
+    LongAdder adder;
+    AtomicLong atomic;
+    Lock plainLock;
+    Lock instrumentedLock;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        histogram = new Q03_Metrics.Histogram();
+        sharedHistogram = new AtomicLongArray(Q03_Metrics.Histogram.BUCKETS);
+        adder = new LongAdder();
+        atomic = new AtomicLong();
+        plainLock = new ReentrantLock();
+        instrumentedLock = new Q03_Metrics.InstrumentedLock(new ReentrantLock());
+    }
+    
+    /** Latency-like values: mostly small, occasionally large. */
+    static long value() {
+        return ThreadLocalRandom.current().nextLong(1 << 20) >>> ThreadLocalRandom.current().nextInt(16);
+    }
+    
+    @Benchmark
+    public void histogramStriped() {
+        histogram.record(value());
+    }
+    
+    @Benchmark
+    public long histogramShared() {
+        return sharedHistogram.incrementAndGet(Q03_Metrics.Histogram.index(value()));
+    }
+    
+    @Benchmark
+    public void counterLongAdder() {
+        adder.increment();
+    }
+    
+    @Benchmark
+    public long counterAtomicLong() {
+        return atomic.incrementAndGet();
+    }
+    
+    @Benchmark
+    public void lockPlain() {
+        plainLock.lock();
+        plainLock.unlock();
+    }
+    
+    @Benchmark
+    public void lockInstrumented() {
+        instrumentedLock.lock();
+        instrumentedLock.unlock();
+    }
+}
@@ -0,0 +1,52 @@
+package com.buildmuse.concurrency.level7_patterns;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Q01_ObjectPool borrow/release round trip.
+ *
+ * With maxSize >= threads every borrow should hit the thread-local fast
+ * path; with maxSize < threads borrowers queue on the semaphore.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ObjectPoolBenchmark {
+    
+    @Param({"4", "64"})
+    public int maxSize;
+    
+    /** Work done while holding the object, in Blackhole tokens. */
+    @Param({"0", "100"})
+    public int holdTokens;
+    
+    Q01_ObjectPool.ObjectPool<Q01_ObjectPool.Connection> pool;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        pool = new Q01_ObjectPool.ObjectPool<>(Q01_ObjectPool.Connection::new,
+                Q01_ObjectPool.Connection::isValid, Q01_ObjectPool.Connection::close,
+                0, maxSize, 1, TimeUnit.MINUTES);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+    
+    @Benchmark
+    public void borrowRelease(Blackhole blackhole) throws InterruptedException, TimeoutException {
+        try (Q01_ObjectPool.ObjectPool<Q01_ObjectPool.Connection>.Entry connection =
+                     pool.borrow(10, TimeUnit.SECONDS)) {
+            blackhole.consume(connection.get());
+            Blackhole.consumeCPU(holdTokens);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.buildmuse.concurrency.level7_patterns;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Q05_PersistentQueue: append alone, and append followed by a tailer
+ * reading the record back (zero copy, from the same mapped file).
+ * Single-threaded: the queue has one appender by design.
+ *
+ * Each iteration starts a fresh directory, so the disk holds at most one
+ * iteration's worth of segments. No sync(): this measures the page
+ * cache, which is what a killed process still gets to keep. Rolling to
+ * a new segment does not force the old one either; sync() does that.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+@State(Scope.Thread)
+public class PersistentQueueBenchmark {
+    
+    @Param({"32", "256"})
+    public int recordSize;
+    
+    Path directory;
+    Q05_PersistentQueue.Appender appender;
+    Q05_PersistentQueue.Tailer tailer;
+    ByteBuffer record;
+    long sequence;
+    
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("persistent-queue-bench");
+        appender = new Q05_PersistentQueue.Appender(directory, 64 << 20);
+        tailer = new Q05_PersistentQueue.Tailer(directory, "bench");
+        record = ByteBuffer.allocate(recordSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        appender.close();
+        Q05_PersistentQueue.deleteDirectory(directory);
+    }
+    
+    @Benchmark
+    public long append() {
+        return appender.append(record.clear().putLong(0, sequence++));
+    }
+    
+    @Benchmark
+    public long appendAndRead() {
+        appender.append(record.clear().putLong(0, sequence++));
+        ByteBuffer read = tailer.next();
+        return read.getLong(read.position());
+    }
+}
@@ -0,0 +1,50 @@
+package com.buildmuse.concurrency.level7_patterns;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Q02_RateLimiter tryAcquire throughput.
+ *
+ * "open": the limit is far above what the benchmark can reach, so every call
+ * succeeds and CASes the shared word. "saturated": the limit is tiny, so
+ * almost every call is a rejection that only reads shared state.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RateLimiterBenchmark {
+    
+    @Param({"TOKEN_BUCKET", "LEAKY_BUCKET", "WINDOW_LOG", "WINDOW_COUNTER"})
+    public String algorithm;
+    
+    @Param({"open", "saturated"})
+    public String load;
+    
+    Q02_RateLimiter.RateLimiter limiter;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        boolean open = load.equals("open");
+        switch (algorithm) {
+            case "TOKEN_BUCKET" -> limiter = new Q02_RateLimiter.TokenBucket(open ? 1e10 : 10, open ? 1_000_000 : 10);
+            case "LEAKY_BUCKET" -> limiter = new Q02_RateLimiter.LeakyBucket(open ? 1e10 : 10, 10);
+            // A log with limit = 1M and window = 1 us behaves as "open"
+            case "WINDOW_LOG" -> limiter = open
+                    ? new Q02_RateLimiter.SlidingWindowLog(1 << 20, 1, TimeUnit.MICROSECONDS)
+                    : new Q02_RateLimiter.SlidingWindowLog(10, 1, TimeUnit.SECONDS);
+            case "WINDOW_COUNTER" -> limiter = new Q02_RateLimiter.SlidingWindowCounter(
+                    open ? Integer.MAX_VALUE / 2 : 10, 1, TimeUnit.SECONDS);
+            default -> throw new IllegalArgumentException(algorithm);
+        }
+    }
+    
+    @Benchmark
+    public boolean tryAcquire() {
+        return limiter.tryAcquire();
+    }
+}
@@ -85,4 +85,5 @@ SOLUTION HINTS:
 3. Fix: Make both threads acquire in same order (lock1, then lock2)
 
 KEY CONCEPT: Prevent deadlock by establishing lock ordering
+(Q08_DeadlockDetector catches ordering violations at runtime)
 */
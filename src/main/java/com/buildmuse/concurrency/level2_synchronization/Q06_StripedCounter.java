@@ -0,0 +1,211 @@
+package com.buildmuse.concurrency.level2_synchronization;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * PROBLEM: Striped Counter (LongAdder-style)
+ *
+ * The synchronized Counter from Q02 is correct, but every increment()
+ * serializes on one monitor. AtomicInteger removes the lock, yet every
+ * core still fights over the same cache line.
+ *
+ * Build a striped counter: increments go to one of several padded cells
+ * (picked by a per-thread probe), getCount() sums all cells.
+ * Compare synchronized, AtomicInteger and striped at 1..64 threads.
+ *
+ * Run: java ...Q06_StripedCounter [SYNCHRONIZED|ATOMIC|STRIPED]
+ * (no argument = all three side by side)
+ *
+ * EXPECTED OUTPUT:
+ * Threads  SYNCHRONIZED       ATOMIC      STRIPED   (M increments/sec)
+ *       1        120.3        180.7        150.2
+ *       2         35.1         60.4        290.8
+ *       4         30.9         45.2        570.1
+ * ...
+ * All counts correct ✓
+ *
+ * LEARNING:
+ * - Contention, not locking itself, is what kills scaling
+ * - False sharing: two hot fields on one cache line behave like one
+ * - Striping trades a cheap write for a more expensive read
+ */
+public class Q06_StripedCounter {
+    
+    /**
+     * Same increment()/getCount() shape as the counters in Q01 and Q02.
+     */
+    interface Counter {
+        void increment();
+        
+        int getCount();
+    }
+    
+    static class SynchronizedCounter implements Counter {
+        private int count = 0;
+        
+        public synchronized void increment() {
+            count++;
+        }
+        
+        public synchronized int getCount() {
+            return count;
+        }
+    }
+    
+    static class AtomicCounter implements Counter {
+        private final AtomicInteger count = new AtomicInteger();
+        
+        public void increment() {
+            count.incrementAndGet();
+        }
+        
+        public int getCount() {
+            return count.get();
+        }
+    }
+    
+    static class StripedCounter implements Counter {
+        // 16 longs = 128 bytes: one cell per (adjacent-line-prefetch) cache line pair
+        private static final int PAD = 16;
+        
+        // Per-thread probe; re-hashed whenever a CAS collides with another thread
+        private static final ThreadLocal<int[]> PROBE = ThreadLocal.withInitial(
+                () -> new int[] { ThreadLocalRandom.current().nextInt() | 1 });
+        
+        private final AtomicLongArray cells;
+        private final int mask;
+        
+        public StripedCounter() {
+            this(Runtime.getRuntime().availableProcessors() * 2);
+        }
+        
+        public StripedCounter(int stripes) {
+            int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+            this.mask = size - 1;
+            this.cells = new AtomicLongArray(size * PAD);
+        }
+        
+        public void increment() {
+            add(1);
+        }
+        
+        public void add(long x) {
+            int[] probe = PROBE.get();
+            int h = probe[0];
+            int index = (h & mask) * PAD;
+            long current = cells.get(index);
+            while (!cells.compareAndSet(index, current, current + x)) {
+                // Collision: move this thread to another cell (xorshift)
+                h ^= h << 13;
+                h ^= h >>> 17;
+                h ^= h << 5;
+                probe[0] = h;
+                index = (h & mask) * PAD;
+                current = cells.get(index);
+            }
+        }
+        
+        /**
+         * Not an atomic snapshot: increments racing with the sum may or may
+         * not be included. Exact once all writers have finished.
+         */
+        public long sum() {
+            long sum = 0;
+            for (int i = 0; i < cells.length(); i += PAD) {
+                sum += cells.get(i);
+            }
+            return sum;
+        }
+        
+        public int getCount() {
+            return (int) sum();
+        }
+    }
+    
+    enum CounterType {
+        SYNCHRONIZED, ATOMIC, STRIPED;
+        
+        Counter create() {
+            switch (this) {
+                case SYNCHRONIZED:
+                    return new SynchronizedCounter();
+                case ATOMIC:
+                    return new AtomicCounter();
+                default:
+                    return new StripedCounter();
+            }
+        }
+    }
+    
+    static final int INCREMENTS_PER_THREAD = 1_000_000;
+    
+    /**
+     * Runs {@code threads} threads, each incrementing the counter
+     * INCREMENTS_PER_THREAD times, and returns millions of increments/sec.
+     */
+    static double measure(Counter counter, int threads) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < INCREMENTS_PER_THREAD; i++) {
+                    counter.increment();
+                }
+            }, "Worker-" + t);
+            workers[t].start();
+        }
+        
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        
+        if (counter.getCount() != threads * INCREMENTS_PER_THREAD) {
+            throw new IllegalStateException(counter.getClass().getSimpleName()
+                    + " lost updates: " + counter.getCount());
+        }
+        return (double) threads * INCREMENTS_PER_THREAD * 1_000 / elapsed;
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        CounterType[] types = args.length > 0
+                ? new CounterType[] { CounterType.valueOf(args[0].toUpperCase()) }
+                : CounterType.values();
+        
+        StringBuilder header = new StringBuilder(String.format("%7s", "Threads"));
+        for (CounterType type : types) {
+            header.append(String.format("%13s", type));
+        }
+        System.out.println(header + "   (M increments/sec)");
+        
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            StringBuilder row = new StringBuilder(String.format("%7d", threads));
+            for (CounterType type : types) {
+                row.append(String.format("%13.1f", measure(type.create(), threads)));
+            }
+            System.out.println(row);
+        }
+        System.out.println("All counts correct ✓");
+    }
+}
+
+/*
+KEY CONCEPT: Spread writes, pay on read
+- SynchronizedCounter: one monitor, threads queue up (and park) behind it
+- AtomicCounter: no lock, but one cache line ping-pongs between cores
+- StripedCounter: each thread mostly hits its own padded cell; getCount()
+  walks all cells. Same idea as java.util.concurrent.atomic.LongAdder.
+Use striping for write-heavy statistics, not for values you must read
+atomically (e.g. "increment only if count < limit").
+*/
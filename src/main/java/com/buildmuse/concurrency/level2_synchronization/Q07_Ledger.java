@@ -0,0 +1,363 @@
+package com.buildmuse.concurrency.level2_synchronization;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PROBLEM: Lock-Free Ledger with Atomic Transfers
+ *
+ * Q03's BankAccount guards one int with one lock and has no transfer().
+ * Adding transfer(from, to) naively means locking two accounts - exactly the
+ * lock-ordering trap from Q05_Deadlock.
+ *
+ * Build a ledger for millions of accounts:
+ * - Balances live in one primitive long array (no object per account)
+ * - deposit/withdraw are CAS loops; withdraw rejects overdrafts
+ * - transfer(from, to, amount) is atomic and deadlock-free: it locks the
+ *   two accounts' STRIPES, always the lower stripe first
+ * - snapshot(accounts...) reads several balances consistently (optimistic
+ *   read, retried if a transfer touched them meanwhile)
+ *
+ * Compare against one global lock with random transfers over 1M accounts.
+ *
+ * EXPECTED OUTPUT:
+ * Random transfers over 1000000 accounts (M transfers/sec):
+ * Threads   GLOBAL_LOCK      STRIPED
+ *       1          24.1         15.5
+ *       2          12.3         30.0
+ *       4          10.8         58.7
+ * ...
+ *      32           8.9        310.2
+ * Total conserved, no account overdrawn ✓
+ *
+ * LEARNING:
+ * - Lock ordering makes multi-lock operations deadlock-free
+ * - Lock striping: N locks for M >> N items, bounded memory
+ * - Versioned locks double as seqlocks for consistent optimistic reads
+ */
+public class Q07_Ledger {
+    
+    interface Ledger {
+        void deposit(int account, long amount);
+        
+        /** Returns false (and changes nothing) if the balance is too low. */
+        boolean withdraw(int account, long amount);
+        
+        /** Atomically moves amount; returns false if from would be overdrawn. */
+        boolean transfer(int from, int to, long amount);
+        
+        long balance(int account);
+        
+        /** Exact once no operations are running. */
+        long total();
+        
+        int size();
+    }
+    
+    /** Baseline: every operation serializes on one monitor. */
+    static class GlobalLockLedger implements Ledger {
+        private final long[] balances;
+        
+        GlobalLockLedger(int accounts, long initialBalance) {
+            balances = new long[accounts];
+            Arrays.fill(balances, initialBalance);
+        }
+        
+        public synchronized void deposit(int account, long amount) {
+            checkAmount(amount);
+            balances[account] += amount;
+        }
+        
+        public synchronized boolean withdraw(int account, long amount) {
+            checkAmount(amount);
+            if (balances[account] < amount) {
+                return false;
+            }
+            balances[account] -= amount;
+            return true;
+        }
+        
+        public synchronized boolean transfer(int from, int to, long amount) {
+            checkAmount(amount);
+            if (balances[from] < amount) {
+                return false;
+            }
+            balances[from] -= amount;
+            balances[to] += amount;
+            return true;
+        }
+        
+        public synchronized long balance(int account) {
+            return balances[account];
+        }
+        
+        public synchronized long total() {
+            long sum = 0;
+            for (long balance : balances) {
+                sum += balance;
+            }
+            return sum;
+        }
+        
+        public int size() {
+            return balances.length;
+        }
+    }
+    
+    /**
+     * Balances in an AtomicLongArray, plus a fixed set of versioned stripe
+     * locks: even version = free, odd = held by a transfer.
+     *
+     * deposit/withdraw touch one balance, so a CAS is enough - they never
+     * take a lock. Transfers lock both stripes (lower index first), which
+     * makes them atomic with respect to other transfers and to snapshot().
+     */
+    static class StripedLedger implements Ledger {
+        private static final int SPINS_BEFORE_YIELD = 64;
+        
+        private final AtomicLongArray balances;
+        private final AtomicLongArray versions;
+        private final int stripeMask;
+        
+        StripedLedger(int accounts, long initialBalance) {
+            this(accounts, initialBalance, 1 << 14);
+        }
+        
+        StripedLedger(int accounts, long initialBalance, int stripes) {
+            int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+            this.stripeMask = size - 1;
+            // Not padded (unlike Q06's cells): accounts are hit at random, so two
+            // threads rarely want neighbouring stripes, and a compact lock table
+            // stays in cache
+            this.versions = new AtomicLongArray(size);
+            this.balances = new AtomicLongArray(accounts);
+            for (int i = 0; i < accounts; i++) {
+                balances.set(i, initialBalance);
+            }
+        }
+        
+        private int stripe(int account) {
+            // Spread neighbouring accounts over different stripes
+            int h = account * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & stripeMask;
+        }
+        
+        public void deposit(int account, long amount) {
+            checkAmount(amount);
+            balances.getAndAdd(account, amount);
+        }
+        
+        public boolean withdraw(int account, long amount) {
+            checkAmount(amount);
+            while (true) {
+                long current = balances.get(account);
+                if (current < amount) {
+                    return false;
+                }
+                if (balances.compareAndSet(account, current, current - amount)) {
+                    return true;
+                }
+            }
+        }
+        
+        public boolean transfer(int from, int to, long amount) {
+            checkAmount(amount);
+            if (from == to) {
+                return balances.get(from) >= amount;
+            }
+            int a = stripe(from);
+            int b = stripe(to);
+            int first = Math.min(a, b);
+            int second = Math.max(a, b);
+            // Global order on stripes: no cycle of waiters, so no deadlock
+            lock(first);
+            if (second != first) {
+                lock(second);
+            }
+            try {
+                // Withdraw still needs a CAS: lock-free withdraw() may race with us
+                if (!withdraw(from, amount)) {
+                    return false;
+                }
+                balances.getAndAdd(to, amount);
+                return true;
+            } finally {
+                if (second != first) {
+                    unlock(second);
+                }
+                unlock(first);
+            }
+        }
+        
+        private void lock(int stripe) {
+            int spins = 0;
+            while (true) {
+                long version = versions.get(stripe);
+                if ((version & 1) == 0 && versions.compareAndSet(stripe, version, version + 1)) {
+                    return;
+                }
+                if (++spins < SPINS_BEFORE_YIELD) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield(); // holder may be descheduled; critical sections are tiny
+                }
+            }
+        }
+        
+        private void unlock(int stripe) {
+            // Only the holder writes an odd version: a release store is enough (odd -> even,
+            // and a new version for readers)
+            versions.lazySet(stripe, versions.get(stripe) + 1);
+        }
+        
+        /**
+         * Consistent balances of several accounts: no transfer between them
+         * is seen half-done. Seqlock read - retries instead of locking.
+         */
+        public long[] snapshot(int... accounts) {
+            long[] seen = new long[accounts.length];
+            long[] result = new long[accounts.length];
+            while (true) {
+                boolean locked = false;
+                for (int i = 0; i < accounts.length; i++) {
+                    seen[i] = versions.get(stripe(accounts[i]));
+                    locked |= (seen[i] & 1) != 0;
+                }
+                if (locked) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                for (int i = 0; i < accounts.length; i++) {
+                    result[i] = balances.get(accounts[i]);
+                }
+                boolean unchanged = true;
+                for (int i = 0; i < accounts.length && unchanged; i++) {
+                    unchanged = versions.get(stripe(accounts[i])) == seen[i];
+                }
+                if (unchanged) {
+                    return result;
+                }
+            }
+        }
+        
+        public long balance(int account) {
+            return balances.get(account);
+        }
+        
+        public long total() {
+            long sum = 0;
+            for (int i = 0; i < balances.length(); i++) {
+                sum += balances.get(i);
+            }
+            return sum;
+        }
+        
+        public int size() {
+            return balances.length();
+        }
+    }
+    
+    private static void checkAmount(long amount) {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("amount must be positive: " + amount);
+        }
+    }
+    
+    enum LedgerType {
+        GLOBAL_LOCK, STRIPED;
+        
+        Ledger create(int accounts, long initialBalance) {
+            switch (this) {
+                case GLOBAL_LOCK:
+                    return new GlobalLockLedger(accounts, initialBalance);
+                default:
+                    return new StripedLedger(accounts, initialBalance);
+            }
+        }
+    }
+    
+    /** Random transfers from {@code threads} threads for a fixed time; returns M transfers/sec. */
+    static double measure(Ledger ledger, int threads, long millis) throws InterruptedException {
+        LongAdder transfers = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] deadline = new long[1];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int size = ledger.size();
+                long n = 0;
+                while ((n & 1023) != 0 || System.nanoTime() < deadline[0]) {
+                    ledger.transfer(random.nextInt(size), random.nextInt(size), 1 + random.nextInt(100));
+                    n++;
+                }
+                transfers.add(n);
+            }, "Worker-" + t);
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        deadline[0] = begin + millis * 1_000_000;
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return transfers.sum() * 1_000.0 / (System.nanoTime() - begin);
+    }
+    
+    static void verify(Ledger ledger, long expectedTotal) {
+        if (ledger.total() != expectedTotal) {
+            throw new IllegalStateException(ledger.getClass().getSimpleName()
+                    + " lost money: " + ledger.total() + " != " + expectedTotal);
+        }
+        for (int i = 0; i < ledger.size(); i++) {
+            if (ledger.balance(i) < 0) {
+                throw new IllegalStateException("account " + i + " overdrawn: " + ledger.balance(i));
+            }
+        }
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        int accounts = 1_000_000;
+        long initialBalance = 1_000;
+        System.out.println("Random transfers over " + accounts + " accounts (M transfers/sec):");
+        
+        StringBuilder header = new StringBuilder(String.format("%7s", "Threads"));
+        for (LedgerType type : LedgerType.values()) {
+            header.append(String.format("%14s", type));
+        }
+        System.out.println(header);
+        
+        for (int threads = 1; threads <= 32; threads *= 2) {
+            StringBuilder row = new StringBuilder(String.format("%7d", threads));
+            for (LedgerType type : LedgerType.values()) {
+                Ledger ledger = type.create(accounts, initialBalance);
+                row.append(String.format("%14.1f", measure(ledger, threads, 500)));
+                verify(ledger, accounts * initialBalance);
+            }
+            System.out.println(row);
+        }
+        System.out.println("Total conserved, no account overdrawn ✓");
+    }
+}
+
+/*
+KEY CONCEPT: Order the locks, stripe the locks, or avoid the locks
+- One global lock: correct, never deadlocks, but one transfer at a time
+- One lock per account: 1M lock objects, and transfer(a, b) racing
+  transfer(b, a) deadlocks unless locks are taken in a fixed order
+- Striped locks: fixed number of locks, account -> stripe by hash;
+  lock the lower stripe first. Two accounts on one stripe: lock it once
+- Single-account operations need no lock at all: a CAS loop on the balance
+  checks for overdraft and updates in one atomic step
+- A lock that bumps a version on release is also a seqlock: readers take
+  no lock, and retry if a version changed under them
+*/
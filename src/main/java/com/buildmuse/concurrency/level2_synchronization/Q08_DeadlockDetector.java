@@ -0,0 +1,471 @@
+package com.buildmuse.concurrency.level2_synchronization;
+
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * PROBLEM: Deadlock Detection
+ *
+ * Q05 "detects" its deadlock by noticing two threads are still alive after
+ * join(3000) - minutes after the fact, and only if they actually hung.
+ * A lock-order inversion is a bug the FIRST time it happens, even if the
+ * timing was lucky and nothing hung.
+ *
+ * Build two tools:
+ * 1. OrderedLock: a Lock wrapper that records the lock-acquisition ORDER
+ *    graph at runtime (edge A -> B = "B taken while holding A") and reports
+ *    a cycle the moment an inverted edge is first seen. REPORT mode logs it,
+ *    ENFORCE mode refuses the acquisition instead.
+ * 2. DeadlockWatchdog: polls ThreadMXBean.findDeadlockedThreads() and dumps
+ *    the deadlocked threads, the locks they wait for, their owners and stacks.
+ *
+ * The order graph is kept per lock CLASS ("account", "cache"...), not per
+ * lock instance, so it stays tiny; an already-known edge costs one bit test
+ * and no allocation. Nesting two locks of the SAME class (Q05's transfer
+ * between two accounts) adds no edge: their order - e.g. by account id -
+ * is invisible at class level, so it is neither checked nor reported.
+ *
+ * EXPECTED OUTPUT:
+ * Thread-1: lock1 then lock2
+ * Thread-2: lock2 then lock1 (no hang this time, the timing was lucky)
+ * POTENTIAL DEADLOCK: Thread-2 takes lock1 while holding lock2, but
+ *   the order lock1 -> lock2 was seen before (cycle: lock2 -> lock1 -> lock2)
+ * ENFORCE: refused: main takes lock1 while holding lock2, ...
+ * Same-class nesting (account -> account, ordered by id), both directions: clean ✓
+ *
+ * Recreating Q05 for real...
+ * DEADLOCK DETECTED (2 threads):
+ * "Thread-1" waiting for java.lang.Object@197aefb2 held by "Thread-2"
+ *     at ...Q08_DeadlockDetector.crossLock(Q08_DeadlockDetector.java:419)
+ *     - locked java.lang.Object@37045b5b
+ * ...
+ *
+ * Overhead: ReentrantLock 42 ns, OrderedLock 60 ns per nested lock/unlock
+ *
+ * LEARNING:
+ * - Lock ordering bugs are detectable before they hang (lockdep idea)
+ * - Track lock classes, not instances: bounded, cheap, allocation-free
+ * - ThreadMXBean finds real deadlocks for monitors AND j.u.c locks
+ */
+public class Q08_DeadlockDetector {
+    
+    enum Mode {
+        /** Log the first inversion of each pair of lock classes, then continue. */
+        REPORT,
+        /** Throw IllegalStateException instead of taking a lock out of order. */
+        ENFORCE
+    }
+    
+    /**
+     * Order graph over lock classes. Class ids index a bitmask adjacency
+     * matrix: bit j of successors[i] means "j was taken while holding i".
+     */
+    static final class LockOrderGraph {
+        static final int MAX_CLASSES = 64;
+        
+        private final AtomicLongArray successors = new AtomicLongArray(MAX_CLASSES);
+        private final String[] names = new String[MAX_CLASSES];
+        private final AtomicInteger nextId = new AtomicInteger();
+        private final Mode mode;
+        private final Consumer<String> reporter;
+        
+        // Class ids of the locks the current thread holds, in order taken.
+        // One small array per thread - nothing allocated per acquire.
+        private final ThreadLocal<HeldLocks> held = ThreadLocal.withInitial(HeldLocks::new);
+        
+        LockOrderGraph(Mode mode, Consumer<String> reporter) {
+            this.mode = mode;
+            this.reporter = reporter;
+        }
+        
+        /** Registers a lock class; all locks sharing a name share one node. */
+        int register(String name) {
+            synchronized (names) {
+                for (int i = 0; i < nextId.get(); i++) {
+                    if (names[i].equals(name)) {
+                        return i;
+                    }
+                }
+                int id = nextId.get();
+                if (id == MAX_CLASSES) {
+                    throw new IllegalStateException("more than " + MAX_CLASSES + " lock classes");
+                }
+                names[id] = name;
+                nextId.set(id + 1);
+                return id;
+            }
+        }
+        
+        /** Called before blocking on a lock of class id. */
+        void beforeAcquire(int id) {
+            HeldLocks locks = held.get();
+            for (int i = 0; i < locks.depth; i++) {
+                int holding = locks.ids[i];
+                // holding == id: same class nested, a self-edge would be a "cycle" of one
+                if (holding != id && (successors.get(holding) & (1L << id)) == 0) {
+                    newEdge(holding, id); // slow path: first time we see this order
+                }
+            }
+        }
+        
+        private void newEdge(int from, int to) {
+            // A path to -> ... -> from already exists? Then from -> to closes a cycle
+            int[] path = findPath(to, from);
+            if (path != null) {
+                String message = Thread.currentThread().getName() + " takes " + name(to)
+                        + " while holding " + name(from) + ", but the order " + name(to) + " -> "
+                        + name(from) + " was seen before (cycle: " + name(from) + describe(path) + ")";
+                if (mode == Mode.ENFORCE) {
+                    throw new IllegalStateException("lock order violation: " + message);
+                }
+                reporter.accept("POTENTIAL DEADLOCK: " + message);
+            }
+            long bits;
+            do {
+                bits = successors.get(from);
+            } while ((bits & (1L << to)) == 0 && !successors.compareAndSet(from, bits, bits | (1L << to)));
+        }
+        
+        /** BFS over the adjacency bitmasks; returns the path source..target or null. */
+        private int[] findPath(int source, int target) {
+            int[] parent = new int[MAX_CLASSES];
+            long visited = 1L << source;
+            long frontier = visited;
+            while (frontier != 0) {
+                int node = Long.numberOfTrailingZeros(frontier);
+                frontier &= frontier - 1;
+                long next = successors.get(node) & ~visited;
+                for (long bits = next; bits != 0; bits &= bits - 1) {
+                    parent[Long.numberOfTrailingZeros(bits)] = node;
+                }
+                visited |= next;
+                frontier |= next;
+                if ((visited & (1L << target)) != 0) {
+                    int length = 1;
+                    for (int n = target; n != source; n = parent[n]) {
+                        length++;
+                    }
+                    int[] path = new int[length];
+                    for (int n = target, i = length - 1; i >= 0; n = parent[n], i--) {
+                        path[i] = n;
+                    }
+                    return path;
+                }
+            }
+            return null;
+        }
+        
+        private String describe(int[] path) {
+            StringBuilder sb = new StringBuilder();
+            for (int id : path) {
+                sb.append(" -> ").append(name(id));
+            }
+            return sb.toString();
+        }
+        
+        /** Slow path only; the lock makes names registered by other threads visible. */
+        private String name(int id) {
+            synchronized (names) {
+                return names[id];
+            }
+        }
+        
+        void acquired(int id) {
+            held.get().push(id);
+        }
+        
+        void released(int id) {
+            held.get().remove(id);
+        }
+    }
+    
+    static final class HeldLocks {
+        int[] ids = new int[8];
+        int depth;
+        
+        void push(int id) {
+            if (depth == ids.length) {
+                ids = Arrays.copyOf(ids, depth * 2);
+            }
+            ids[depth++] = id;
+        }
+        
+        /** Locks are usually released in reverse order: search from the top. */
+        void remove(int id) {
+            for (int i = depth - 1; i >= 0; i--) {
+                if (ids[i] == id) {
+                    System.arraycopy(ids, i + 1, ids, i, depth - i - 1);
+                    depth--;
+                    return;
+                }
+            }
+        }
+    }
+    
+    /**
+     * ReentrantLock that reports its acquisition order to a LockOrderGraph.
+     * Re-acquiring a lock already held adds no edges; tryLock() cannot block
+     * forever, so it is not checked - but blocking acquisitions made while
+     * holding it are.
+     */
+    static class OrderedLock implements Lock {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LockOrderGraph graph;
+        private final int classId;
+        
+        OrderedLock(LockOrderGraph graph, String lockClass) {
+            this.graph = graph;
+            this.classId = graph.register(lockClass);
+        }
+        
+        public void lock() {
+            if (!lock.isHeldByCurrentThread()) {
+                graph.beforeAcquire(classId);
+            }
+            lock.lock();
+            afterAcquire();
+        }
+        
+        public void lockInterruptibly() throws InterruptedException {
+            if (!lock.isHeldByCurrentThread()) {
+                graph.beforeAcquire(classId);
+            }
+            lock.lockInterruptibly();
+            afterAcquire();
+        }
+        
+        public boolean tryLock() {
+            if (!lock.tryLock()) {
+                return false;
+            }
+            afterAcquire();
+            return true;
+        }
+        
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            if (!lock.tryLock(time, unit)) {
+                return false;
+            }
+            afterAcquire();
+            return true;
+        }
+        
+        private void afterAcquire() {
+            if (lock.getHoldCount() == 1) {
+                graph.acquired(classId);
+            }
+        }
+        
+        public void unlock() {
+            boolean last = lock.getHoldCount() == 1;
+            lock.unlock();
+            if (last) {
+                graph.released(classId);
+            }
+        }
+        
+        public Condition newCondition() {
+            return lock.newCondition();
+        }
+    }
+    
+    /**
+     * Periodically asks the JVM for threads deadlocked on monitors or
+     * ownable synchronizers and reports each deadlock once.
+     */
+    static class DeadlockWatchdog {
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private final Set<Long> reported = ConcurrentHashMap.newKeySet();
+        private final Consumer<String> reporter;
+        private final ScheduledExecutorService timer;
+        
+        DeadlockWatchdog(long period, TimeUnit unit, Consumer<String> reporter) {
+            this.reporter = reporter;
+            this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "deadlock-watchdog");
+                t.setDaemon(true);
+                return t;
+            });
+            timer.scheduleWithFixedDelay(this::check, period, period, unit);
+        }
+        
+        void check() {
+            long[] ids = threads.findDeadlockedThreads();
+            if (ids == null) {
+                return;
+            }
+            boolean isNew = false;
+            for (long id : ids) {
+                isNew |= reported.add(id);
+            }
+            if (isNew) {
+                reporter.accept(dump(threads.getThreadInfo(ids, true, true)));
+            }
+        }
+        
+        static String dump(ThreadInfo[] infos) {
+            StringBuilder sb = new StringBuilder("DEADLOCK DETECTED (" + infos.length + " threads):\n");
+            for (ThreadInfo info : infos) {
+                if (info == null) {
+                    continue; // thread died meanwhile
+                }
+                LockInfo waitingFor = info.getLockInfo();
+                sb.append('"').append(info.getThreadName()).append("\" waiting for ").append(waitingFor)
+                        .append(" held by \"").append(info.getLockOwnerName()).append("\"\n");
+                StackTraceElement[] stack = info.getStackTrace();
+                MonitorInfo[] monitors = info.getLockedMonitors();
+                for (int depth = 0; depth < stack.length; depth++) {
+                    sb.append("    at ").append(stack[depth]).append('\n');
+                    for (MonitorInfo monitor : monitors) {
+                        if (monitor.getLockedStackDepth() == depth) {
+                            sb.append("    - locked ").append(monitor).append('\n');
+                        }
+                    }
+                }
+                for (LockInfo synchronizer : info.getLockedSynchronizers()) {
+                    sb.append("    - holds ").append(synchronizer).append('\n');
+                }
+            }
+            return sb.toString();
+        }
+        
+        public void shutdown() {
+            timer.shutdownNow();
+        }
+    }
+    
+    /** Takes first then second, like Q05's threads. */
+    static void lockBoth(Lock first, Lock second) {
+        first.lock();
+        try {
+            second.lock();
+            second.unlock();
+        } finally {
+            first.unlock();
+        }
+    }
+    
+    /** Locks both accounts lowest id first, whichever way the money moves. */
+    static void transfer(Lock[] accounts, int from, int to) {
+        lockBoth(accounts[Math.min(from, to)], accounts[Math.max(from, to)]);
+    }
+    
+    static long nestedLockNanos(Lock outer, Lock inner, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            lockBoth(outer, inner);
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        // 1. Inversion reported although nothing hangs: the threads run one after the other
+        LockOrderGraph graph = new LockOrderGraph(Mode.REPORT, System.out::println);
+        Lock lock1 = new OrderedLock(graph, "lock1");
+        Lock lock2 = new OrderedLock(graph, "lock2");
+        Thread thread1 = new Thread(() -> lockBoth(lock1, lock2), "Thread-1");
+        Thread thread2 = new Thread(() -> lockBoth(lock2, lock1), "Thread-2");
+        System.out.println("Thread-1: lock1 then lock2");
+        thread1.start();
+        thread1.join();
+        System.out.println("Thread-2: lock2 then lock1 (no hang this time, the timing was lucky)");
+        thread2.start();
+        thread2.join();
+        
+        // 2. Same inversion, refused up front
+        LockOrderGraph strict = new LockOrderGraph(Mode.ENFORCE, System.out::println);
+        Lock a = new OrderedLock(strict, "lock1");
+        Lock b = new OrderedLock(strict, "lock2");
+        lockBoth(a, b);
+        try {
+            lockBoth(b, a);
+        } catch (IllegalStateException e) {
+            System.out.println("ENFORCE: refused: " + e.getMessage().substring("lock order violation: ".length()));
+        }
+        
+        // 3. Q05's transfer done right: two locks of one class, always taken in id order
+        List<String> reports = new ArrayList<>();
+        LockOrderGraph accounts = new LockOrderGraph(Mode.ENFORCE, reports::add);
+        Lock[] account = {new OrderedLock(accounts, "account"), new OrderedLock(accounts, "account")};
+        transfer(account, 0, 1);
+        transfer(account, 1, 0);
+        LockOrderGraph accountsReport = new LockOrderGraph(Mode.REPORT, reports::add);
+        Lock[] reported = {new OrderedLock(accountsReport, "account"), new OrderedLock(accountsReport, "account")};
+        transfer(reported, 0, 1);
+        transfer(reported, 1, 0);
+        System.out.println("Same-class nesting (account -> account, ordered by id), both directions: "
+                + (reports.isEmpty() ? "clean ✓" : "reported " + reports));
+        
+        // 4. A real Q05 deadlock on plain monitors, found by the watchdog
+        System.out.println("\nRecreating Q05 for real...");
+        DeadlockWatchdog watchdog = new DeadlockWatchdog(200, TimeUnit.MILLISECONDS, System.out::println);
+        Object monitor1 = new Object();
+        Object monitor2 = new Object();
+        Thread t1 = new Thread(() -> crossLock(monitor1, monitor2), "Thread-1");
+        Thread t2 = new Thread(() -> crossLock(monitor2, monitor1), "Thread-2");
+        t1.setDaemon(true); // they never finish; don't keep the JVM alive
+        t2.setDaemon(true);
+        t1.start();
+        t2.start();
+        Thread.sleep(1000);
+        watchdog.shutdown();
+        
+        // 5. Cost of leaving it on
+        LockOrderGraph quiet = new LockOrderGraph(Mode.REPORT, message -> { });
+        Lock plainOuter = new ReentrantLock(), plainInner = new ReentrantLock();
+        Lock orderedOuter = new OrderedLock(quiet, "outer"), orderedInner = new OrderedLock(quiet, "inner");
+        long plain = 0, ordered = 0;
+        for (int round = 0; round < 5; round++) { // the last round is warmed up
+            plain = nestedLockNanos(plainOuter, plainInner, 2_000_000);
+            ordered = nestedLockNanos(orderedOuter, orderedInner, 2_000_000);
+        }
+        System.out.println("Overhead: ReentrantLock " + plain + " ns, OrderedLock " + ordered
+                + " ns per nested lock/unlock");
+    }
+    
+    private static void crossLock(Object first, Object second) {
+        synchronized (first) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (second) {
+                System.out.println(Thread.currentThread().getName() + ": got both (no deadlock?)");
+            }
+        }
+    }
+}
+
+/*
+KEY CONCEPT: Detect the ORDER, not the hang
+- A deadlock needs a cycle in the "held while acquiring" graph; the cycle
+  exists the first time two code paths take the same locks in opposite
+  orders, even if they never overlapped in time
+- Track lock classes (like Linux lockdep): a handful of nodes, edges as
+  bits in a long - known edges cost one read, no allocation, no lock
+- Two locks of the same class nested = a self-edge, not a cycle: skip it.
+  Ordering within a class (by id) is the caller's job
+- New edges are rare (once per code path), so the slow path - BFS for a
+  cycle, building a message - can afford to allocate
+- ThreadMXBean.findDeadlockedThreads() sees real deadlocks on monitors
+  and ReentrantLock-style locks; poll it from a daemon watchdog and dump
+  owners and stacks instead of waiting on join(3000)
+*/
@@ -0,0 +1,513 @@
+package com.buildmuse.concurrency.level3_communication;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * PROBLEM: Lock-Free Ring Buffer
+ *
+ * SharedQueue from Q02 allocates a LinkedList node per item and wakes every
+ * waiting thread (notifyAll) on each produce/consume.
+ *
+ * Replace it with an array-backed ring buffer:
+ * - Capacity rounded up to a power of two (index = sequence & mask)
+ * - Items stored in an int[] (no boxing, no nodes)
+ * - Producers/consumers coordinate through sequence counters, not locks
+ * - Same produce(int) / consume() API as SharedQueue
+ * - Configurable wait strategy when full/empty: SPIN, YIELD or PARK
+ *
+ * Two variants:
+ * - SpscRingBuffer: exactly one producer thread and one consumer thread
+ * - MpmcRingBuffer: any number of each (per-slot sequence numbers)
+ *
+ * EXPECTED OUTPUT:
+ * Producer: Produced 1
+ * Consumer: Consumed 1
+ * ...
+ * SPSC  PARK : 10000000 items in 412 ms
+ * MPMC  PARK : 10000000 items in 655 ms (4 producers, 4 consumers, sum ok)
+ *
+ * LEARNING:
+ * - Sequence counters instead of size + lock
+ * - Publication via ordered (release) writes
+ * - Single-writer principle: SPSC needs no CAS at all
+ * - Busy-spin vs yield vs park: latency vs CPU trade-off
+ */
+public class Q05_RingBuffer {
+    
+    /**
+     * What a thread does while the buffer is full (producer) or empty (consumer).
+     */
+    enum WaitStrategy {
+        SPIN {
+            void idle(int attempt) {
+                Thread.onSpinWait();
+            }
+        },
+        YIELD {
+            void idle(int attempt) {
+                if (attempt < 100) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+            }
+        },
+        PARK {
+            void idle(int attempt) {
+                if (attempt < 100) {
+                    Thread.onSpinWait();
+                } else if (attempt < 200) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+                }
+            }
+        };
+        
+        abstract void idle(int attempt);
+        
+        /** Backs off once; lets a blocked produce/consume be cancelled like wait(). */
+        final int await(int attempt) throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            idle(attempt);
+            return attempt + 1;
+        }
+    }
+    
+    /**
+     * Same shape as Q02_ProducerConsumer.SharedQueue.
+     */
+    interface IntQueue {
+        void produce(int item) throws InterruptedException;
+        
+        int consume() throws InterruptedException;
+        
+        /** Enqueues items[off..off+len), blocking while full. One claim per chunk that fits. */
+        void produceAll(int[] items, int off, int len) throws InterruptedException;
+        
+        /** Moves up to max items into dst[0..], without blocking. Returns the count. */
+        int drainTo(int[] dst, int max);
+        
+        /** Like drainTo, but blocks until at least one item is available. */
+        int consumeBatch(int[] dst, int max) throws InterruptedException;
+    }
+    
+    static int roundUpToPowerOfTwo(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        return capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    }
+    
+    /**
+     * Single producer, single consumer.
+     *
+     * head = next sequence to consume (written only by the consumer)
+     * tail = next sequence to produce (written only by the producer)
+     * Each side caches the other side's counter and only re-reads it
+     * when the cached value says full/empty.
+     */
+    static class SpscRingBuffer implements IntQueue {
+        private final int[] buffer;
+        private final int mask;
+        private final WaitStrategy waitStrategy;
+        
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+        
+        // Producer-local
+        private long cachedHead;
+        // Consumer-local
+        private long cachedTail;
+        
+        public SpscRingBuffer(int capacity, WaitStrategy waitStrategy) {
+            int size = roundUpToPowerOfTwo(capacity);
+            this.buffer = new int[size];
+            this.mask = size - 1;
+            this.waitStrategy = waitStrategy;
+        }
+        
+        public boolean offer(int item) {
+            long t = tail.get();
+            if (t - cachedHead == buffer.length) {
+                cachedHead = head.get();
+                if (t - cachedHead == buffer.length) {
+                    return false;
+                }
+            }
+            buffer[(int) t & mask] = item;
+            tail.lazySet(t + 1); // release: item is visible before the new tail
+            return true;
+        }
+        
+        public void produce(int item) throws InterruptedException {
+            int attempt = 0;
+            while (!offer(item)) {
+                attempt = waitStrategy.await(attempt);
+            }
+        }
+        
+        /** True if an item is available; consume() then will not wait. */
+        private boolean available(long h) {
+            if (h == cachedTail) {
+                cachedTail = tail.get();
+                return h != cachedTail;
+            }
+            return true;
+        }
+        
+        public int consume() throws InterruptedException {
+            long h = head.get();
+            int attempt = 0;
+            while (!available(h)) {
+                attempt = waitStrategy.await(attempt);
+            }
+            int item = buffer[(int) h & mask];
+            head.lazySet(h + 1);
+            return item;
+        }
+        
+        /** Non-blocking: writes as many items as fit and publishes them with one store. */
+        public int offerAll(int[] items, int off, int len) {
+            long t = tail.get();
+            long free = buffer.length - (t - cachedHead);
+            if (free < len) {
+                cachedHead = head.get();
+                free = buffer.length - (t - cachedHead);
+            }
+            int n = (int) Math.min(free, len);
+            for (int i = 0; i < n; i++) {
+                buffer[(int) (t + i) & mask] = items[off + i];
+            }
+            if (n > 0) {
+                tail.lazySet(t + n);
+            }
+            return n;
+        }
+        
+        public void produceAll(int[] items, int off, int len) throws InterruptedException {
+            int attempt = 0;
+            while (len > 0) {
+                int n = offerAll(items, off, len);
+                if (n == 0) {
+                    attempt = waitStrategy.await(attempt);
+                } else {
+                    off += n;
+                    len -= n;
+                    attempt = 0;
+                }
+            }
+        }
+        
+        public int drainTo(int[] dst, int max) {
+            long h = head.get();
+            if (cachedTail - h < max) {
+                cachedTail = tail.get();
+            }
+            int n = (int) Math.min(cachedTail - h, max);
+            for (int i = 0; i < n; i++) {
+                dst[i] = buffer[(int) (h + i) & mask];
+            }
+            if (n > 0) {
+                head.lazySet(h + n);
+            }
+            return n;
+        }
+        
+        public int consumeBatch(int[] dst, int max) throws InterruptedException {
+            int attempt = 0;
+            int n;
+            while ((n = drainTo(dst, max)) == 0) {
+                attempt = waitStrategy.await(attempt);
+            }
+            return n;
+        }
+        
+        public int size() {
+            return (int) (tail.get() - head.get());
+        }
+    }
+    
+    /**
+     * Multiple producers, multiple consumers (Vyukov bounded queue).
+     *
+     * Every slot carries a sequence number:
+     * - sequence == pos       : slot free, producer of position pos may write
+     * - sequence == pos + 1   : slot full, consumer of position pos may read
+     * Producers/consumers claim a position by CAS on tail/head, then publish
+     * by advancing the slot's sequence.
+     */
+    static class MpmcRingBuffer implements IntQueue {
+        private final int[] buffer;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final WaitStrategy waitStrategy;
+        
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+        
+        public MpmcRingBuffer(int capacity, WaitStrategy waitStrategy) {
+            int size = roundUpToPowerOfTwo(capacity);
+            this.buffer = new int[size];
+            this.sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+            this.mask = size - 1;
+            this.waitStrategy = waitStrategy;
+        }
+        
+        public boolean offer(int item) {
+            while (true) {
+                long pos = tail.get();
+                int index = (int) pos & mask;
+                long diff = sequences.get(index) - pos;
+                if (diff == 0) {
+                    if (tail.compareAndSet(pos, pos + 1)) {
+                        buffer[index] = item;
+                        sequences.lazySet(index, pos + 1);
+                        return true;
+                    }
+                } else if (diff < 0) {
+                    return false; // full: slot still holds the item from one lap ago
+                }
+                // diff > 0: another producer claimed pos, reload tail
+            }
+        }
+        
+        public void produce(int item) throws InterruptedException {
+            int attempt = 0;
+            while (!offer(item)) {
+                attempt = waitStrategy.await(attempt);
+            }
+        }
+        
+        public int consume() throws InterruptedException {
+            int attempt = 0;
+            while (true) {
+                long pos = head.get();
+                int index = (int) pos & mask;
+                long diff = sequences.get(index) - (pos + 1);
+                if (diff == 0) {
+                    if (head.compareAndSet(pos, pos + 1)) {
+                        int item = buffer[index];
+                        sequences.lazySet(index, pos + buffer.length);
+                        return item;
+                    }
+                } else if (diff < 0) {
+                    attempt = waitStrategy.await(attempt);
+                }
+            }
+        }
+        
+        /**
+         * Non-blocking: claims up to len free positions with a single CAS.
+         * A slot that is free stays free until claimed, so checking the
+         * range before the CAS is enough.
+         */
+        public int offerAll(int[] items, int off, int len) {
+            while (true) {
+                long pos = tail.get();
+                int n = 0;
+                while (n < len && sequences.get((int) (pos + n) & mask) == pos + n) {
+                    n++;
+                }
+                if (n == 0) {
+                    if (sequences.get((int) pos & mask) < pos) {
+                        return 0; // full
+                    }
+                    continue; // another producer moved tail
+                }
+                if (tail.compareAndSet(pos, pos + n)) {
+                    for (int i = 0; i < n; i++) {
+                        int index = (int) (pos + i) & mask;
+                        buffer[index] = items[off + i];
+                        sequences.lazySet(index, pos + i + 1);
+                    }
+                    return n;
+                }
+            }
+        }
+        
+        public void produceAll(int[] items, int off, int len) throws InterruptedException {
+            int attempt = 0;
+            while (len > 0) {
+                int n = offerAll(items, off, len);
+                if (n == 0) {
+                    attempt = waitStrategy.await(attempt);
+                } else {
+                    off += n;
+                    len -= n;
+                    attempt = 0;
+                }
+            }
+        }
+        
+        /** Claims up to max published items with a single CAS on head. */
+        public int drainTo(int[] dst, int max) {
+            while (true) {
+                long pos = head.get();
+                int n = 0;
+                while (n < max && sequences.get((int) (pos + n) & mask) == pos + n + 1) {
+                    n++;
+                }
+                if (n == 0) {
+                    if (sequences.get((int) pos & mask) < pos + 1) {
+                        return 0; // empty (or next item not yet published)
+                    }
+                    continue; // another consumer moved head
+                }
+                if (head.compareAndSet(pos, pos + n)) {
+                    for (int i = 0; i < n; i++) {
+                        int index = (int) (pos + i) & mask;
+                        dst[i] = buffer[index];
+                        sequences.lazySet(index, pos + i + buffer.length);
+                    }
+                    return n;
+                }
+            }
+        }
+        
+        public int consumeBatch(int[] dst, int max) throws InterruptedException {
+            int attempt = 0;
+            int n;
+            while ((n = drainTo(dst, max)) == 0) {
+                attempt = waitStrategy.await(attempt);
+            }
+            return n;
+        }
+        
+        public int size() {
+            return (int) Math.max(0, tail.get() - head.get());
+        }
+    }
+    
+    static void demo(IntQueue queue) throws InterruptedException {
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 1; i <= 10; i++) {
+                    queue.produce(i);
+                    System.out.println("Producer: Produced " + i);
+                    Thread.sleep(100);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Producer");
+        
+        Thread consumer = new Thread(() -> {
+            try {
+                for (int i = 1; i <= 10; i++) {
+                    System.out.println("Consumer: Consumed " + queue.consume());
+                    Thread.sleep(300);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Consumer");
+        
+        producer.start();
+        consumer.start();
+        producer.join();
+        consumer.join();
+    }
+    
+    /**
+     * Moves {@code items} ints through the queue and checks nothing was lost
+     * or duplicated (sum of consumed == sum of produced).
+     */
+    static long throughput(IntQueue queue, int producers, int consumers, int items)
+            throws InterruptedException {
+        AtomicLong consumedSum = new AtomicLong();
+        Thread[] threads = new Thread[producers + consumers];
+        for (int p = 0; p < producers; p++) {
+            final int share = items / producers;
+            threads[p] = new Thread(() -> {
+                try {
+                    for (int i = 1; i <= share; i++) {
+                        queue.produce(i);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "Producer-" + p);
+        }
+        for (int c = 0; c < consumers; c++) {
+            final int share = items / consumers;
+            threads[producers + c] = new Thread(() -> {
+                long sum = 0;
+                try {
+                    for (int i = 0; i < share; i++) {
+                        sum += queue.consume();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                consumedSum.addAndGet(sum);
+            }, "Consumer-" + c);
+        }
+        
+        long start = System.nanoTime();
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        
+        long share = items / producers;
+        long expected = producers * share * (share + 1) / 2;
+        if (consumedSum.get() != expected) {
+            throw new IllegalStateException("sum mismatch: " + consumedSum.get() + " != " + expected);
+        }
+        return elapsedMs;
+    }
+    
+    /** SPIN with fewer cores than threads: spinners steal the time slice from the thread they wait for. */
+    static boolean skipSpin(WaitStrategy strategy, String label, int threads) {
+        if (strategy != WaitStrategy.SPIN || Runtime.getRuntime().availableProcessors() >= threads) {
+            return false;
+        }
+        System.out.println(label + " SPIN : skipped (needs a core per thread)");
+        return true;
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        demo(new SpscRingBuffer(5, WaitStrategy.PARK));
+        
+        int items = 10_000_000;
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            if (skipSpin(strategy, "SPSC ", 2)) {
+                continue;
+            }
+            long ms = throughput(new SpscRingBuffer(1024, strategy), 1, 1, items);
+            System.out.printf("SPSC  %-5s: %d items in %d ms%n", strategy, items, ms);
+        }
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            if (skipSpin(strategy, "MPMC ", 8)) {
+                continue;
+            }
+            long ms = throughput(new MpmcRingBuffer(1024, strategy), 4, 4, items);
+            System.out.printf("MPMC  %-5s: %d items in %d ms (4 producers, 4 consumers, sum ok)%n",
+                    strategy, items, ms);
+        }
+    }
+}
+
+/*
+KEY CONCEPT: Sequences instead of locks
+- Capacity is a power of two so "sequence % capacity" is "sequence & mask"
+- SPSC: each counter has a single writer, so a lazySet (release store) is
+  enough to publish; no CAS, no lock, no allocation
+- MPMC: CAS only claims a position; the per-slot sequence tells the other
+  side when the slot's data is actually written/read
+- SPIN burns a core for lowest latency; PARK frees the CPU at the cost of
+  wake-up latency. Pick per deployment.
+See Q09_BroadcastRing for every consumer seeing every item (fan-out)
+*/
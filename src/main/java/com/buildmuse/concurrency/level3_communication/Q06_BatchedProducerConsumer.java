@@ -0,0 +1,248 @@
+package com.buildmuse.concurrency.level3_communication;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PROBLEM: Batched Producer-Consumer
+ *
+ * SharedQueue from Q02 moves exactly one item per lock acquisition and
+ * per notifyAll(). With millions of small events per second, that handoff
+ * cost dominates the actual work.
+ *
+ * Build a wait/notify queue that moves items in batches:
+ * - produceAll(items, off, len): one lock acquisition + one notifyAll per
+ *   chunk that fits (blocks only while the queue is completely full)
+ * - drainTo(dst, max): take everything available (up to max) at once
+ * - consumeBatch(dst, max): like drainTo, but waits for at least one item
+ * - Consumer loop mode: pull up to N items per wakeup and hand them to a
+ *   handler as one batch
+ *
+ * Items live in an int[] circular buffer (no boxing, no nodes).
+ * The same batch API is implemented lock-free by Q05_RingBuffer.
+ *
+ * EXPECTED OUTPUT:
+ * Producer: Produced batch [1..4], Queue size: 4
+ * Consumer: Consumed batch of 3 [1, 2, 3], Queue size: 1
+ * ...
+ * batch    1: 2000000 items in 950 ms
+ * batch   16: 2000000 items in 140 ms
+ * batch  256: 2000000 items in 45 ms
+ *
+ * LEARNING:
+ * - Amortize lock + wakeup cost over many items
+ * - One notifyAll per batch instead of per item
+ * - Batching trades a little latency for a lot of throughput
+ */
+public class Q06_BatchedProducerConsumer {
+    
+    static class BatchingSharedQueue implements Q05_RingBuffer.IntQueue {
+        private final int[] buffer;
+        private int head = 0; // index of the oldest item
+        private int size = 0;
+        
+        public BatchingSharedQueue(int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity: " + capacity);
+            }
+            this.buffer = new int[capacity];
+        }
+        
+        public synchronized void produce(int item) throws InterruptedException {
+            while (size == buffer.length) {
+                wait();
+            }
+            buffer[(head + size) % buffer.length] = item;
+            size++;
+            notifyAll();
+        }
+        
+        public synchronized int consume() throws InterruptedException {
+            while (size == 0) {
+                wait();
+            }
+            int item = buffer[head];
+            head = (head + 1) % buffer.length;
+            size--;
+            notifyAll();
+            return item;
+        }
+        
+        public synchronized void produceAll(int[] items, int off, int len) throws InterruptedException {
+            while (len > 0) {
+                while (size == buffer.length) {
+                    wait();
+                }
+                int n = Math.min(len, buffer.length - size);
+                int tail = (head + size) % buffer.length;
+                int first = Math.min(n, buffer.length - tail); // up to the end of the array
+                System.arraycopy(items, off, buffer, tail, first);
+                System.arraycopy(items, off + first, buffer, 0, n - first);
+                size += n;
+                off += n;
+                len -= n;
+                notifyAll();
+            }
+        }
+        
+        public synchronized int drainTo(int[] dst, int max) {
+            int n = Math.min(max, size);
+            if (n == 0) {
+                return 0;
+            }
+            int first = Math.min(n, buffer.length - head);
+            System.arraycopy(buffer, head, dst, 0, first);
+            System.arraycopy(buffer, 0, dst, first, n - first);
+            head = (head + n) % buffer.length;
+            size -= n;
+            notifyAll();
+            return n;
+        }
+        
+        public synchronized int consumeBatch(int[] dst, int max) throws InterruptedException {
+            while (size == 0) {
+                wait();
+            }
+            return drainTo(dst, max); // reentrant: already holding the monitor
+        }
+        
+        public synchronized int size() {
+            return size;
+        }
+    }
+    
+    interface IntBatchHandler {
+        void onBatch(int[] items, int count);
+    }
+    
+    /**
+     * Consumer loop mode: each wakeup pulls up to batchSize items and hands
+     * them to the handler together. Returns after maxItems items.
+     */
+    static void consumeBatches(Q05_RingBuffer.IntQueue queue, int batchSize,
+                               IntBatchHandler handler, long maxItems) throws InterruptedException {
+        int[] batch = new int[batchSize];
+        long consumed = 0;
+        while (consumed < maxItems) {
+            int n = queue.consumeBatch(batch, (int) Math.min(batchSize, maxItems - consumed));
+            handler.onBatch(batch, n);
+            consumed += n;
+        }
+    }
+    
+    static void demo() throws InterruptedException {
+        BatchingSharedQueue queue = new BatchingSharedQueue(5);
+        
+        Thread producer = new Thread(() -> {
+            try {
+                int[] batch = new int[4];
+                for (int start = 1; start <= 12; start += 4) {
+                    for (int i = 0; i < 4; i++) {
+                        batch[i] = start + i;
+                    }
+                    queue.produceAll(batch, 0, 4);
+                    System.out.println("Producer: Produced batch [" + start + ".." + (start + 3)
+                            + "], Queue size: " + queue.size());
+                    Thread.sleep(100);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Producer");
+        
+        Thread consumer = new Thread(() -> {
+            try {
+                consumeBatches(queue, 3, (items, count) -> {
+                    StringBuilder sb = new StringBuilder();
+                    for (int i = 0; i < count; i++) {
+                        sb.append(i == 0 ? "" : ", ").append(items[i]);
+                    }
+                    System.out.println("Consumer: Consumed batch of " + count + " [" + sb
+                            + "], Queue size: " + queue.size());
+                    try {
+                        Thread.sleep(300);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, 12);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Consumer");
+        
+        producer.start();
+        consumer.start();
+        producer.join();
+        consumer.join();
+    }
+    
+    /** One producer, one consumer, both moving batchSize items per call. */
+    static long throughput(Q05_RingBuffer.IntQueue queue, int batchSize, int items)
+            throws InterruptedException {
+        AtomicLong sum = new AtomicLong();
+        Thread producer = new Thread(() -> {
+            int[] batch = new int[batchSize];
+            try {
+                for (int next = 1; next <= items; next += batchSize) {
+                    int n = Math.min(batchSize, items - next + 1);
+                    for (int i = 0; i < n; i++) {
+                        batch[i] = next + i;
+                    }
+                    queue.produceAll(batch, 0, n);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Producer");
+        Thread consumer = new Thread(() -> {
+            long[] local = new long[1];
+            try {
+                consumeBatches(queue, batchSize, (batch, count) -> {
+                    for (int i = 0; i < count; i++) {
+                        local[0] += batch[i];
+                    }
+                }, items);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sum.set(local[0]);
+        }, "Consumer");
+        
+        long start = System.nanoTime();
+        producer.start();
+        consumer.start();
+        producer.join();
+        consumer.join();
+        long elapsed = System.nanoTime() - start;
+        
+        if (sum.get() != (long) items * (items + 1) / 2) {
+            throw new IllegalStateException("lost items, sum = " + sum.get());
+        }
+        return TimeUnit.NANOSECONDS.toMillis(elapsed);
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        demo();
+        
+        int items = 2_000_000;
+        for (int batchSize : new int[] {1, 16, 256}) {
+            long ms = throughput(new BatchingSharedQueue(1024), batchSize, items);
+            System.out.printf("batch %4d: %d items in %d ms%n", batchSize, items, ms);
+        }
+        for (int batchSize : new int[] {1, 16, 256}) {
+            long ms = throughput(new Q05_RingBuffer.MpmcRingBuffer(1024, Q05_RingBuffer.WaitStrategy.PARK),
+                    batchSize, items);
+            System.out.printf("batch %4d: %d items in %d ms (lock-free MPMC ring)%n", batchSize, items, ms);
+        }
+    }
+}
+
+/*
+KEY CONCEPT: Amortize the handoff
+- Per item: lock + notifyAll + context switch for every int
+- Per batch: the same cost once for N ints; arraycopy does the rest
+- produceAll never waits for room for the WHOLE batch - it pushes what
+  fits, wakes the consumer, and continues (no deadlock when len > capacity)
+- consumeBatch blocks for the first item only, then takes whatever is there
+- The lock-free Q05_RingBuffer does the same with one CAS per batch
+*/
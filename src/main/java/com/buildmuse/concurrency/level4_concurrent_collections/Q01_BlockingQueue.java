@@ -78,4 +78,5 @@ SOLUTION HINTS:
 
 KEY CONCEPT: Use BlockingQueue instead of manual wait/notify
 Much simpler and less error-prone
+See level7_patterns.Q05_PersistentQueue for a queue that survives restarts
 */
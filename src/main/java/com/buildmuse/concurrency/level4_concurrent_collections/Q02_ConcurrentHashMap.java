@@ -92,4 +92,6 @@ SOLUTION HINTS:
 
 KEY CONCEPT: ConcurrentHashMap provides thread-safe operations
 without locking entire map
+See Q05_LongLongMap for primitive keys/values without boxing
+See Q06_OffHeapCache for values kept off the Java heap
 */
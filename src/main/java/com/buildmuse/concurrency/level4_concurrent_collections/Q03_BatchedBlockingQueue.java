@@ -0,0 +1,164 @@
+package com.buildmuse.concurrency.level4_concurrent_collections;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PROBLEM: Batching with BlockingQueue
+ *
+ * In Q01 the consumer calls take() once per item: one lock acquisition and
+ * (often) one park/unpark per element. BlockingQueue already has the tools
+ * to move more per handoff:
+ *
+ * 1. Consumer side: take() the first item (blocks), then drainTo() up to
+ *    N-1 more in the same wakeup
+ * 2. Producer side: BlockingQueue has no putAll, so enqueue whole chunks
+ *    (BlockingQueue<int[]>) - one put/take per batch instead of per item
+ *
+ * Compare all three on the same 2M items.
+ *
+ * EXPECTED OUTPUT:
+ * LinkedBlockingQueue  take per item       : 2000000 items in 820 ms
+ * LinkedBlockingQueue  take + drainTo(256) : 2000000 items in 310 ms
+ * ArrayBlockingQueue   take per item       : 2000000 items in 900 ms
+ * ArrayBlockingQueue   take + drainTo(256) : 2000000 items in 350 ms
+ * BlockingQueue<int[]> chunks of 256       : 2000000 items in 20 ms
+ *
+ * LEARNING:
+ * - drainTo(collection, max) takes the lock once for many elements
+ * - take() + drainTo() = "wait for the first, grab the rest"
+ * - Chunking elements removes per-item boxing and locking on both sides
+ * - For a primitive queue with produceAll/drainTo see Level 3 Q06
+ */
+public class Q03_BatchedBlockingQueue {
+    
+    static final int ITEMS = 2_000_000;
+    static final int BATCH = 256;
+    
+    static long perItem(BlockingQueue<Integer> queue) throws InterruptedException {
+        return run(queue, () -> {
+            long sum = 0;
+            for (int i = 0; i < ITEMS; i++) {
+                sum += queue.take();
+            }
+            return sum;
+        });
+    }
+    
+    static long takeAndDrain(BlockingQueue<Integer> queue) throws InterruptedException {
+        return run(queue, () -> {
+            List<Integer> batch = new ArrayList<>(BATCH);
+            long sum = 0;
+            int consumed = 0;
+            while (consumed < ITEMS) {
+                batch.add(queue.take());             // blocks for the first item
+                queue.drainTo(batch, BATCH - 1);     // grabs whatever else is there
+                for (int item : batch) {
+                    sum += item;
+                }
+                consumed += batch.size();
+                batch.clear();
+            }
+            return sum;
+        });
+    }
+    
+    interface Consumer {
+        long consumeAll() throws InterruptedException;
+    }
+    
+    /** Runs one per-item producer against the given consumer loop; returns elapsed ms. */
+    static long run(BlockingQueue<Integer> queue, Consumer consumer) throws InterruptedException {
+        long[] sum = new long[1];
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 1; i <= ITEMS; i++) {
+                    queue.put(i);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Producer");
+        Thread consumerThread = new Thread(() -> {
+            try {
+                sum[0] = consumer.consumeAll();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Consumer");
+        return timeAndCheck(producer, consumerThread, sum);
+    }
+    
+    static long chunked() throws InterruptedException {
+        BlockingQueue<int[]> queue = new ArrayBlockingQueue<>(16);
+        long[] sum = new long[1];
+        Thread producer = new Thread(() -> {
+            try {
+                for (int next = 1; next <= ITEMS; next += BATCH) {
+                    int[] chunk = new int[Math.min(BATCH, ITEMS - next + 1)];
+                    for (int i = 0; i < chunk.length; i++) {
+                        chunk[i] = next + i;
+                    }
+                    queue.put(chunk);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Producer");
+        Thread consumer = new Thread(() -> {
+            try {
+                int consumed = 0;
+                while (consumed < ITEMS) {
+                    int[] chunk = queue.take();
+                    for (int item : chunk) {
+                        sum[0] += item;
+                    }
+                    consumed += chunk.length;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Consumer");
+        return timeAndCheck(producer, consumer, sum);
+    }
+    
+    static long timeAndCheck(Thread producer, Thread consumer, long[] sum) throws InterruptedException {
+        long start = System.nanoTime();
+        producer.start();
+        consumer.start();
+        producer.join();
+        consumer.join();
+        long elapsed = System.nanoTime() - start;
+        if (sum[0] != (long) ITEMS * (ITEMS + 1) / 2) {
+            throw new IllegalStateException("lost items, sum = " + sum[0]);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(elapsed);
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("LinkedBlockingQueue  take per item       : " + ITEMS + " items in "
+                + perItem(new LinkedBlockingQueue<>(1024)) + " ms");
+        System.out.println("LinkedBlockingQueue  take + drainTo(" + BATCH + ") : " + ITEMS + " items in "
+                + takeAndDrain(new LinkedBlockingQueue<>(1024)) + " ms");
+        System.out.println("ArrayBlockingQueue   take per item       : " + ITEMS + " items in "
+                + perItem(new ArrayBlockingQueue<>(1024)) + " ms");
+        System.out.println("ArrayBlockingQueue   take + drainTo(" + BATCH + ") : " + ITEMS + " items in "
+                + takeAndDrain(new ArrayBlockingQueue<>(1024)) + " ms");
+        System.out.println("BlockingQueue<int[]> chunks of " + BATCH + "       : " + ITEMS + " items in "
+                + chunked() + " ms");
+    }
+}
+
+/*
+KEY CONCEPT: Pay for the handoff once per batch
+- take() then drainTo(batch, N - 1): block only for the first element,
+  then empty the queue under a single lock acquisition
+- Producers cannot batch put() on a BlockingQueue, but they can put a
+  batch: BlockingQueue<int[]> moves N items per lock/wakeup
+- The producer in takeAndDrain still pays per item; that is why the chunked
+  version (and Level 3 Q06 produceAll) is faster still
+*/
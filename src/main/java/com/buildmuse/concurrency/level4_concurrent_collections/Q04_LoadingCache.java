@@ -0,0 +1,473 @@
+package com.buildmuse.concurrency.level4_concurrent_collections;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * PROBLEM: Single-Flight Loading Cache
+ *
+ * Q02's Cache uses computeIfAbsent, which runs the 1-second computeValue()
+ * while holding the map's bin lock: unrelated keys that land in the same bin
+ * wait, and the map grows forever.
+ *
+ * Build a real loading cache:
+ * - Single flight: concurrent misses for one key run the loader ONCE; the
+ *   map only stores a CompletableFuture, the load runs outside any map lock
+ * - maximumSize with sampled-LRU eviction (no global lock on the read path)
+ * - expireAfterWrite / expireAfterAccess
+ * - refreshAfterWrite: serve the old value, reload asynchronously
+ * - Stats: hits, misses, load success/failure, average load time, evictions
+ *
+ * EXPECTED OUTPUT:
+ * Thread-1: Computing value for key1
+ * Thread-2: Computing value for key2
+ * Thread-1: Retrieved: Value-key1
+ * Thread-3: Retrieved: Value-key1        <- waited for Thread-1's load
+ * Thread-2: Retrieved: Value-key2
+ * Thread-1: Cache hit for key1: Value-key1
+ * ...
+ * Stats{hits=..., misses=..., loads=..., evictions=...}
+ * ...
+ * expireAfterWrite only, 1000 expired + 1000 fresh keys: size 1000 ✓
+ *
+ * LEARNING:
+ * - Never run slow code inside computeIfAbsent / compute
+ * - Futures as placeholders = single flight without locks
+ * - Approximate eviction scales; exact LRU needs a global order (a lock)
+ */
+public class Q04_LoadingCache {
+    
+    static class LoadingCache<K, V> {
+        
+        /** One cached mapping; value is a future so in-flight loads can be shared. */
+        static final class Entry<V> {
+            final CompletableFuture<V> future;
+            volatile long writeNanos; // reset when the load completes
+            volatile long accessNanos;
+            final AtomicBoolean refreshing = new AtomicBoolean();
+            
+            Entry(CompletableFuture<V> future, long now) {
+                this.future = future;
+                this.writeNanos = now;
+                this.accessNanos = now;
+            }
+            
+            boolean loaded() {
+                return future.isDone() && !future.isCompletedExceptionally();
+            }
+        }
+        
+        private static final int EVICTION_SAMPLE = 8;
+        /** Entries the hand checks for expiry on every write: more than the one a write adds. */
+        private static final int EXPIRY_SWEEP = 8;
+        
+        private final ConcurrentHashMap<K, Entry<V>> map = new ConcurrentHashMap<>();
+        private final Function<? super K, ? extends V> loader;
+        private final long maximumSize;
+        private final long expireAfterWriteNanos;
+        private final long expireAfterAccessNanos;
+        private final long refreshAfterWriteNanos;
+        private final Executor refreshExecutor;
+        
+        // Eviction: one thread at a time walks a shared "hand" over the map
+        private final ReentrantLock evictionLock = new ReentrantLock();
+        private Iterator<Map.Entry<K, Entry<V>>> hand;
+        
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder loadSuccess = new LongAdder();
+        private final LongAdder loadFailure = new LongAdder();
+        private final LongAdder totalLoadNanos = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        
+        private LoadingCache(Builder<K, V> builder) {
+            this.loader = builder.loader;
+            this.maximumSize = builder.maximumSize;
+            this.expireAfterWriteNanos = builder.expireAfterWriteNanos;
+            this.expireAfterAccessNanos = builder.expireAfterAccessNanos;
+            this.refreshAfterWriteNanos = builder.refreshAfterWriteNanos;
+            this.refreshExecutor = builder.refreshExecutor;
+        }
+        
+        static <K, V> Builder<K, V> builder(Function<? super K, ? extends V> loader) {
+            return new Builder<>(loader);
+        }
+        
+        static class Builder<K, V> {
+            private final Function<? super K, ? extends V> loader;
+            private long maximumSize = Long.MAX_VALUE;
+            private long expireAfterWriteNanos = Long.MAX_VALUE;
+            private long expireAfterAccessNanos = Long.MAX_VALUE;
+            private long refreshAfterWriteNanos = Long.MAX_VALUE;
+            private Executor refreshExecutor = ForkJoinPool.commonPool();
+            
+            Builder(Function<? super K, ? extends V> loader) {
+                this.loader = loader;
+            }
+            
+            Builder<K, V> maximumSize(long maximumSize) {
+                this.maximumSize = maximumSize;
+                return this;
+            }
+            
+            Builder<K, V> expireAfterWrite(long duration, TimeUnit unit) {
+                this.expireAfterWriteNanos = unit.toNanos(duration);
+                return this;
+            }
+            
+            Builder<K, V> expireAfterAccess(long duration, TimeUnit unit) {
+                this.expireAfterAccessNanos = unit.toNanos(duration);
+                return this;
+            }
+            
+            Builder<K, V> refreshAfterWrite(long duration, TimeUnit unit) {
+                this.refreshAfterWriteNanos = unit.toNanos(duration);
+                return this;
+            }
+            
+            Builder<K, V> refreshExecutor(Executor executor) {
+                this.refreshExecutor = executor;
+                return this;
+            }
+            
+            LoadingCache<K, V> build() {
+                return new LoadingCache<>(this);
+            }
+        }
+        
+        public V get(K key) {
+            long now = System.nanoTime();
+            Entry<V> entry = map.get(key);
+            while (true) {
+                if (entry != null && !isExpired(entry, now)) {
+                    hits.increment();
+                    entry.accessNanos = now;
+                    if (now - entry.writeNanos >= refreshAfterWriteNanos && entry.loaded()) {
+                        refreshAsync(key, entry);
+                    }
+                    return join(entry);
+                }
+                
+                // Miss (absent or expired): install a placeholder, only the winner loads
+                Entry<V> placeholder = new Entry<>(new CompletableFuture<>(), now);
+                boolean won = entry == null
+                        ? map.putIfAbsent(key, placeholder) == null
+                        : map.replace(key, entry, placeholder);
+                if (won) {
+                    misses.increment();
+                    if (entry != null) {
+                        evictions.increment(); // expired entry replaced
+                    }
+                    load(key, placeholder);
+                    evictIfNeeded();
+                    return join(placeholder);
+                }
+                // Lost the race: somebody else installed an entry, use theirs
+                entry = map.get(key);
+            }
+        }
+        
+        public V getIfPresent(K key) {
+            Entry<V> entry = map.get(key);
+            if (entry == null || !entry.loaded() || isExpired(entry, System.nanoTime())) {
+                return null;
+            }
+            return entry.future.join();
+        }
+        
+        public void invalidate(K key) {
+            map.remove(key);
+        }
+        
+        public long size() {
+            return map.size();
+        }
+        
+        private void load(K key, Entry<V> entry) {
+            long start = System.nanoTime();
+            try {
+                V value = loader.apply(key);
+                long end = System.nanoTime();
+                totalLoadNanos.add(end - start);
+                loadSuccess.increment();
+                entry.writeNanos = end; // TTL counts from when the value exists
+                entry.accessNanos = end;
+                entry.future.complete(value);
+            } catch (RuntimeException | Error e) {
+                totalLoadNanos.add(System.nanoTime() - start);
+                loadFailure.increment();
+                map.remove(key, entry); // don't cache failures, next get retries
+                entry.future.completeExceptionally(e);
+            }
+        }
+        
+        /** Refresh-ahead: the old entry keeps serving until the new value is ready. */
+        private void refreshAsync(K key, Entry<V> old) {
+            if (!old.refreshing.compareAndSet(false, true)) {
+                return; // already refreshing
+            }
+            refreshExecutor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    V value = loader.apply(key);
+                    totalLoadNanos.add(System.nanoTime() - start);
+                    loadSuccess.increment();
+                    Entry<V> fresh = new Entry<>(CompletableFuture.completedFuture(value), System.nanoTime());
+                    map.replace(key, old, fresh); // no-op if invalidated/replaced meanwhile
+                } catch (RuntimeException | Error e) {
+                    totalLoadNanos.add(System.nanoTime() - start);
+                    loadFailure.increment();
+                    if (e instanceof Error) {
+                        throw e; // let the executor's thread report it
+                    }
+                } finally {
+                    old.refreshing.set(false); // on failure: keep the old value, retry on a later hit
+                }
+            });
+        }
+        
+        private boolean isExpired(Entry<V> entry, long now) {
+            if (!entry.future.isDone()) {
+                return false; // in-flight loads are never expired
+            }
+            return now - entry.writeNanos >= expireAfterWriteNanos
+                    || now - entry.accessNanos >= expireAfterAccessNanos;
+        }
+        
+        private V join(Entry<V> entry) {
+            try {
+                return entry.future.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw e;
+            }
+        }
+        
+        /**
+         * Sampled LRU: look at the next EVICTION_SAMPLE entries under the hand
+         * and evict the least recently accessed (an expired one wins at once).
+         * Readers never touch the lock; concurrent writers skip eviction if
+         * another thread is already doing it. If a whole pass over the map
+         * finds nothing evictable (every entry still loading), give up: the
+         * cache stays over size until a later write retries, instead of
+         * spinning while holding the eviction lock.
+         * With expiry configured, every write also sweeps a few entries for
+         * expired ones, so a cache bounded only by time doesn't keep dead
+         * entries until their key is read again.
+         */
+        private void evictIfNeeded() {
+            boolean expiring = expireAfterWriteNanos != Long.MAX_VALUE || expireAfterAccessNanos != Long.MAX_VALUE;
+            if ((map.size() <= maximumSize && !expiring) || !evictionLock.tryLock()) {
+                return;
+            }
+            try {
+                if (expiring) {
+                    sweepExpired(System.nanoTime());
+                }
+                int fruitless = 0;
+                while (map.size() > maximumSize) {
+                    if (fruitless++ > map.size() / EVICTION_SAMPLE + 1) {
+                        return;
+                    }
+                    long now = System.nanoTime();
+                    Map.Entry<K, Entry<V>> victim = null;
+                    for (int i = 0; i < EVICTION_SAMPLE; i++) {
+                        if (hand == null || !hand.hasNext()) {
+                            hand = map.entrySet().iterator();
+                            if (!hand.hasNext()) {
+                                return;
+                            }
+                        }
+                        Map.Entry<K, Entry<V>> candidate = hand.next();
+                        Entry<V> e = candidate.getValue();
+                        if (!e.loaded()) {
+                            continue; // never evict an in-flight load
+                        }
+                        if (isExpired(e, now)) {
+                            victim = candidate;
+                            break;
+                        }
+                        if (victim == null || e.accessNanos < victim.getValue().accessNanos) {
+                            victim = candidate;
+                        }
+                    }
+                    if (victim != null && map.remove(victim.getKey(), victim.getValue())) {
+                        evictions.increment();
+                        fruitless = 0;
+                    }
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+        
+        /** Moves the hand over EXPIRY_SWEEP entries, removing the expired ones. Holds evictionLock. */
+        private void sweepExpired(long now) {
+            for (int i = 0; i < EXPIRY_SWEEP; i++) {
+                if (hand == null || !hand.hasNext()) {
+                    hand = map.entrySet().iterator();
+                    if (!hand.hasNext()) {
+                        return;
+                    }
+                }
+                Map.Entry<K, Entry<V>> candidate = hand.next();
+                Entry<V> e = candidate.getValue();
+                if (e.loaded() && isExpired(e, now) && map.remove(candidate.getKey(), e)) {
+                    evictions.increment();
+                }
+            }
+        }
+        
+        public Stats stats() {
+            return new Stats(hits.sum(), misses.sum(), loadSuccess.sum(), loadFailure.sum(),
+                    totalLoadNanos.sum(), evictions.sum());
+        }
+    }
+    
+    static class Stats {
+        final long hits;
+        final long misses;
+        final long loadSuccess;
+        final long loadFailure;
+        final long totalLoadNanos;
+        final long evictions;
+        
+        Stats(long hits, long misses, long loadSuccess, long loadFailure, long totalLoadNanos, long evictions) {
+            this.hits = hits;
+            this.misses = misses;
+            this.loadSuccess = loadSuccess;
+            this.loadFailure = loadFailure;
+            this.totalLoadNanos = totalLoadNanos;
+            this.evictions = evictions;
+        }
+        
+        double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 1.0 : (double) hits / requests;
+        }
+        
+        double averageLoadMillis() {
+            long loads = loadSuccess + loadFailure;
+            return loads == 0 ? 0.0 : totalLoadNanos / 1e6 / loads;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("Stats{hits=%d, misses=%d, hitRate=%.2f, loads=%d, loadFailures=%d, "
+                    + "avgLoad=%.1fms, evictions=%d}", hits, misses, hitRate(), loadSuccess, loadFailure,
+                    averageLoadMillis(), evictions);
+        }
+    }
+    
+    /**
+     * Same get(String) contract as Q02_ConcurrentHashMap.Cache.
+     */
+    static class Cache {
+        private final LoadingCache<String, String> cache;
+        
+        Cache(long maximumSize, long expireAfterWriteMillis, long refreshAfterWriteMillis) {
+            this.cache = LoadingCache.<String, String>builder(this::computeValue)
+                    .maximumSize(maximumSize)
+                    .expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS)
+                    .refreshAfterWrite(refreshAfterWriteMillis, TimeUnit.MILLISECONDS)
+                    .build();
+        }
+        
+        private String computeValue(String key) {
+            System.out.println(Thread.currentThread().getName() + ": Computing value for " + key);
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "Value-" + key;
+        }
+        
+        public String get(String key) {
+            return cache.get(key);
+        }
+        
+        Stats stats() {
+            return cache.stats();
+        }
+        
+        long size() {
+            return cache.size();
+        }
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        Cache cache = new Cache(2, 5_000, 2_000);
+        
+        Thread t1 = new Thread(() -> {
+            System.out.println("Thread-1: Retrieved: " + cache.get("key1"));
+            System.out.println("Thread-1: Cache hit for key1: " + cache.get("key1"));
+        }, "Thread-1");
+        Thread t2 = new Thread(() -> System.out.println("Thread-2: Retrieved: " + cache.get("key2")), "Thread-2");
+        Thread t3 = new Thread(() -> {
+            try {
+                Thread.sleep(200); // key1 is still loading: wait for it, don't load again
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            System.out.println("Thread-3: Retrieved: " + cache.get("key1"));
+        }, "Thread-3");
+        
+        t1.start();
+        t2.start();
+        t3.start();
+        t1.join();
+        t2.join();
+        t3.join();
+        System.out.println(cache.stats());
+        
+        System.out.println("\nmaximumSize=2, loading key3...");
+        cache.get("key3");
+        System.out.println("Size after eviction: " + cache.size() + ", " + cache.stats());
+        
+        System.out.println("\nWaiting past refreshAfterWrite (2s)...");
+        Thread.sleep(2_100);
+        System.out.println("Stale read (refresh runs in background): " + cache.get("key3"));
+        Thread.sleep(1_200);
+        System.out.println("After refresh: " + cache.get("key3") + ", " + cache.stats());
+        
+        // No maximumSize: only the write-path sweep removes entries nobody reads again
+        LoadingCache<Integer, Integer> ttlOnly = LoadingCache.<Integer, Integer>builder(k -> k)
+                .expireAfterWrite(50, TimeUnit.MILLISECONDS)
+                .build();
+        for (int i = 0; i < 1000; i++) {
+            ttlOnly.get(i);
+        }
+        Thread.sleep(60);
+        for (int i = 1000; i < 2000; i++) {
+            ttlOnly.get(i);
+        }
+        System.out.println("\nexpireAfterWrite only, 1000 expired + 1000 fresh keys: size " + ttlOnly.size()
+                + (ttlOnly.size() <= 1000 ? " ✓" : " ✗ dead entries kept"));
+    }
+}
+
+/*
+KEY CONCEPT: Store futures, compute outside the map
+- putIfAbsent(key, future) is the only map write on a miss; the winner runs
+  the loader with no lock held, losers join() the same future
+- Failed loads are removed so the next get() retries
+- Eviction samples a few entries under a shared iterator ("hand") and evicts
+  the least recently used one - approximate, but never blocks readers
+- Expiry needs its own sweep: a dead entry whose key is never read again
+  is only found by walking the map
+- refreshAfterWrite < expireAfterWrite keeps hot keys from ever missing
+*/
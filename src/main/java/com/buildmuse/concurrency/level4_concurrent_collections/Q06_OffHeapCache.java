@@ -0,0 +1,508 @@
+package com.buildmuse.concurrency.level4_concurrent_collections;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * PROBLEM: Off-Heap Cache Tier
+ *
+ * Q02's Cache keeps every value on the Java heap. At tens of millions of
+ * entries that is gigabytes of long-lived objects: the old generation
+ * fills up, and every full or mixed collection has to trace and copy them.
+ *
+ * Build OffHeapCache, with the same get(String key) contract:
+ * - Values (and keys) serialized to UTF-8 into direct ByteBuffer slabs:
+ *   the GC sees a handful of buffers, not millions of Strings
+ * - Striped: N segments, each with its own lock, slab memory and index
+ * - Slab allocator (memcached style): the segment's memory is cut into
+ *   1 MB pages; a page is given to one size class and cut into equal
+ *   chunks; freed chunks go back on the class's free list
+ * - Memory budget: when a class has no free chunk and no page is left,
+ *   the least recently used chunk of that class is evicted
+ * - Index: Q05's primitive map from a 64-bit key hash to a chunk offset,
+ *   so no object per entry stays on the heap (16-32 bytes of long array)
+ *
+ * EXPECTED OUTPUT:
+ * 200000 entries x 1000 bytes, budget 256 MB
+ * type        heap MB  GC pauses   p99 ms   max ms   gets/us  hit rate
+ * ON_HEAP         216         14       92       92      1.45      1.00
+ * OFF_HEAP          0         52        2        2      0.79      1.00
+ * Stats{hits=..., misses=200000, evictions=0, rejected=0}
+ *
+ * LEARNING:
+ * - GC cost follows the number of live objects, not just bytes
+ * - Off heap trades GC work for (de)serialization on every get
+ * - Off heap pauses are more frequent (every get allocates) but short:
+ *   young collections of garbage, nothing big to copy
+ * - Slab classes make allocation O(1) and fragmentation bounded
+ */
+public class Q06_OffHeapCache {
+    
+    interface StringCache {
+        String get(String key);
+    }
+    
+    static class OffHeapCache implements StringCache {
+        static final int PAGE_SIZE = 1 << 20;
+        static final int[] CHUNK_SIZES = chunkSizes();
+        
+        // Chunk layout: LRU links, key hash, lengths, then key and value bytes
+        private static final int PREV = 0;
+        private static final int NEXT = 4;
+        private static final int HASH = 8;
+        private static final int KEY_LENGTH = 16;
+        private static final int VALUE_LENGTH = 20;
+        static final int HEADER = 24;
+        private static final int NIL = -1;
+        
+        private final Segment[] segments;
+        private final int segmentShift;
+        private final Function<String, String> loader;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        
+        /** 64, 80, 104, ... growing by 1.25x up to one page. */
+        private static int[] chunkSizes() {
+            List<Integer> sizes = new ArrayList<>();
+            for (int size = 64; size < PAGE_SIZE; size = (size * 5 / 4 + 7) & ~7) {
+                sizes.add(size);
+            }
+            sizes.add(PAGE_SIZE);
+            return sizes.stream().mapToInt(Integer::intValue).toArray();
+        }
+        
+        /** Size class that fits {@code bytes}, or -1 if larger than a page. */
+        static int classFor(int bytes) {
+            int index = Arrays.binarySearch(CHUNK_SIZES, bytes);
+            index = index >= 0 ? index : -index - 1;
+            return index < CHUNK_SIZES.length ? index : -1;
+        }
+        
+        /** Growable int stack: a size class's free chunk offsets. */
+        private static final class FreeList {
+            int[] offsets = new int[16];
+            int size;
+            
+            void push(int offset) {
+                if (size == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, size * 2);
+                }
+                offsets[size++] = offset;
+            }
+            
+            int pop() {
+                return size == 0 ? NIL : offsets[--size];
+            }
+        }
+        
+        /**
+         * One stripe: slab memory, its pages' size classes, a per-class LRU
+         * list threaded through the chunk headers, and the hash index.
+         * Everything is guarded by the segment's lock.
+         */
+        private final class Segment extends ReentrantLock {
+            final ByteBuffer memory;
+            final int[] pageClass;
+            int nextPage;
+            final int[] head = new int[CHUNK_SIZES.length];
+            final int[] tail = new int[CHUNK_SIZES.length];
+            final FreeList[] free = new FreeList[CHUNK_SIZES.length];
+            // Key hash -> chunk offset. Its own lock is never contended: it is only used under ours
+            final Q05_LongLongMap.ConcurrentLongLongMap index = new Q05_LongLongMap.ConcurrentLongLongMap(1, 1024);
+            
+            Segment(int bytes) {
+                memory = ByteBuffer.allocateDirect(bytes);
+                pageClass = new int[bytes / PAGE_SIZE];
+                Arrays.fill(head, NIL);
+                Arrays.fill(tail, NIL);
+                for (int i = 0; i < free.length; i++) {
+                    free[i] = new FreeList();
+                }
+            }
+            
+            byte[] get(long hash, byte[] key) {
+                lock();
+                try {
+                    long offset = index.get(hash);
+                    if (offset == Q05_LongLongMap.ABSENT || !keyEquals((int) offset, key)) {
+                        return null;
+                    }
+                    int chunk = (int) offset;
+                    int sizeClass = pageClass[chunk / PAGE_SIZE];
+                    unlink(sizeClass, chunk);
+                    linkFirst(sizeClass, chunk);
+                    byte[] value = new byte[memory.getInt(chunk + VALUE_LENGTH)];
+                    memory.get(chunk + HEADER + key.length, value);
+                    return value;
+                } finally {
+                    unlock();
+                }
+            }
+            
+            /** False if no chunk of the right class can be had. */
+            boolean put(long hash, byte[] key, byte[] value, int sizeClass) {
+                lock();
+                try {
+                    // Same hash, same or colliding key: either way the old chunk goes
+                    long existing = index.remove(hash);
+                    if (existing != Q05_LongLongMap.ABSENT) {
+                        int chunk = (int) existing;
+                        unlink(sizeClass(chunk), chunk);
+                        free[sizeClass(chunk)].push(chunk);
+                    }
+                    int chunk = allocate(sizeClass);
+                    if (chunk == NIL) {
+                        return false;
+                    }
+                    memory.putLong(chunk + HASH, hash);
+                    memory.putInt(chunk + KEY_LENGTH, key.length);
+                    memory.putInt(chunk + VALUE_LENGTH, value.length);
+                    memory.put(chunk + HEADER, key);
+                    memory.put(chunk + HEADER + key.length, value);
+                    linkFirst(sizeClass, chunk);
+                    index.put(hash, chunk);
+                    return true;
+                } finally {
+                    unlock();
+                }
+            }
+            
+            private int sizeClass(int chunk) {
+                return pageClass[chunk / PAGE_SIZE];
+            }
+            
+            /** Free list, then a fresh page, then the class's LRU victim. */
+            private int allocate(int sizeClass) {
+                int chunk = free[sizeClass].pop();
+                if (chunk != NIL) {
+                    return chunk;
+                }
+                if (nextPage < pageClass.length) {
+                    int page = nextPage++;
+                    pageClass[page] = sizeClass;
+                    int chunkSize = CHUNK_SIZES[sizeClass];
+                    int start = page * PAGE_SIZE;
+                    // Pushed in reverse so chunks are handed out front to back
+                    for (int offset = start + (PAGE_SIZE / chunkSize - 1) * chunkSize; offset >= start; offset -= chunkSize) {
+                        free[sizeClass].push(offset);
+                    }
+                    return free[sizeClass].pop();
+                }
+                int victim = tail[sizeClass];
+                if (victim == NIL) {
+                    return NIL; // every page belongs to other classes
+                }
+                unlink(sizeClass, victim);
+                index.remove(memory.getLong(victim + HASH));
+                evictions.increment();
+                return victim;
+            }
+            
+            private boolean keyEquals(int chunk, byte[] key) {
+                if (memory.getInt(chunk + KEY_LENGTH) != key.length) {
+                    return false;
+                }
+                for (int i = 0; i < key.length; i++) {
+                    if (memory.get(chunk + HEADER + i) != key[i]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            
+            private void linkFirst(int sizeClass, int chunk) {
+                int first = head[sizeClass];
+                memory.putInt(chunk + PREV, NIL);
+                memory.putInt(chunk + NEXT, first);
+                if (first == NIL) {
+                    tail[sizeClass] = chunk;
+                } else {
+                    memory.putInt(first + PREV, chunk);
+                }
+                head[sizeClass] = chunk;
+            }
+            
+            private void unlink(int sizeClass, int chunk) {
+                int prev = memory.getInt(chunk + PREV);
+                int next = memory.getInt(chunk + NEXT);
+                if (prev == NIL) {
+                    head[sizeClass] = next;
+                } else {
+                    memory.putInt(prev + NEXT, next);
+                }
+                if (next == NIL) {
+                    tail[sizeClass] = prev;
+                } else {
+                    memory.putInt(next + PREV, prev);
+                }
+            }
+        }
+        
+        /**
+         * budgetBytes is split evenly over {@code segments} (a power of two);
+         * each segment must get at least one page and at most 2 GB.
+         */
+        OffHeapCache(long budgetBytes, int segments, Function<String, String> loader) {
+            if (Integer.bitCount(segments) != 1) {
+                throw new IllegalArgumentException("segments must be a power of two");
+            }
+            long perSegment = budgetBytes / segments / PAGE_SIZE * PAGE_SIZE;
+            if (perSegment < PAGE_SIZE || perSegment > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("budget per segment must be 1 MB..2 GB, was " + perSegment);
+            }
+            this.segments = new Segment[segments];
+            this.segmentShift = 64 - Integer.numberOfTrailingZeros(segments);
+            this.loader = loader;
+            for (int i = 0; i < segments; i++) {
+                this.segments[i] = new Segment((int) perSegment);
+            }
+        }
+        
+        /** FNV-1a over the UTF-8 bytes, finished with Q05's mixer: 64 bits, so collisions are rare. */
+        static long hash(byte[] key) {
+            long hash = 0xcbf29ce484222325L;
+            for (byte b : key) {
+                hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+            }
+            return Q05_LongLongMap.ConcurrentLongLongMap.mix(hash);
+        }
+        
+        private Segment segmentFor(long hash) {
+            return segments[segmentShift == 64 ? 0 : (int) (hash >>> segmentShift)];
+        }
+        
+        /**
+         * Loads run outside the segment lock and are not single-flight
+         * (see Q04): two threads missing on one key both load, last put wins.
+         */
+        @Override
+        public String get(String key) {
+            byte[] keyBytes = key.getBytes(UTF_8);
+            long hash = hash(keyBytes);
+            Segment segment = segmentFor(hash);
+            byte[] value = segment.get(hash, keyBytes);
+            if (value != null) {
+                hits.increment();
+                return new String(value, UTF_8);
+            }
+            misses.increment();
+            String loaded = loader.apply(key);
+            put(segment, hash, keyBytes, loaded.getBytes(UTF_8));
+            return loaded;
+        }
+        
+        void put(String key, String value) {
+            byte[] keyBytes = key.getBytes(UTF_8);
+            long hash = hash(keyBytes);
+            put(segmentFor(hash), hash, keyBytes, value.getBytes(UTF_8));
+        }
+        
+        private void put(Segment segment, long hash, byte[] key, byte[] value) {
+            int sizeClass = classFor(HEADER + key.length + value.length);
+            if (sizeClass < 0 || !segment.put(hash, key, value, sizeClass)) {
+                rejected.increment(); // too big, or its class owns no page
+            }
+        }
+        
+        Stats stats() {
+            return new Stats(hits.sum(), misses.sum(), evictions.sum(), rejected.sum());
+        }
+    }
+    
+    static class Stats {
+        final long hits;
+        final long misses;
+        final long evictions;
+        final long rejected;
+        
+        Stats(long hits, long misses, long evictions, long rejected) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.rejected = rejected;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("Stats{hits=%d, misses=%d, evictions=%d, rejected=%d}",
+                    hits, misses, evictions, rejected);
+        }
+    }
+    
+    /** Baseline: Q02's design, every value a String on the heap. */
+    static class OnHeapCache implements StringCache {
+        private final ConcurrentHashMap<String, String> cache = new ConcurrentHashMap<>();
+        private final Function<String, String> loader;
+        
+        OnHeapCache(Function<String, String> loader) {
+            this.loader = loader;
+        }
+        
+        @Override
+        public String get(String key) {
+            return cache.computeIfAbsent(key, loader);
+        }
+    }
+    
+    enum CacheType {
+        ON_HEAP, OFF_HEAP;
+        
+        StringCache create(long budgetBytes, Function<String, String> loader) {
+            switch (this) {
+                case ON_HEAP:
+                    return new OnHeapCache(loader);
+                default:
+                    return new OffHeapCache(budgetBytes, 16, loader);
+            }
+        }
+    }
+    
+    /** Records stop-the-world GC pause durations, from the JVM's GC notifications. */
+    static class GcPauses implements NotificationListener, AutoCloseable {
+        private final List<Long> pausesMillis = new ArrayList<>();
+        
+        GcPauses() {
+            for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+                ((NotificationEmitter) bean).addNotificationListener(this, null, null);
+            }
+        }
+        
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            String name = info.getGcName();
+            if (name.contains("Concurrent") || name.contains("Cycles")) {
+                return; // background work (G1 marking, ZGC cycles), not a pause
+            }
+            if (info.getGcCause().equals("System.gc()")) {
+                return; // the measurement's own full GCs (usedHeap()), not the workload's
+            }
+            synchronized (pausesMillis) {
+                pausesMillis.add(info.getGcInfo().getDuration());
+            }
+        }
+        
+        int count() {
+            synchronized (pausesMillis) {
+                return pausesMillis.size();
+            }
+        }
+        
+        long percentileMillis(double percentile) {
+            synchronized (pausesMillis) {
+                if (pausesMillis.isEmpty()) {
+                    return 0;
+                }
+                long[] sorted = pausesMillis.stream().mapToLong(Long::longValue).sorted().toArray();
+                return sorted[(int) Math.ceil(percentile / 100 * sorted.length) - 1];
+            }
+        }
+        
+        @Override
+        public void close() {
+            for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+                try {
+                    ((NotificationEmitter) bean).removeNotificationListener(this);
+                } catch (ListenerNotFoundException ignored) {
+                    // never added to this bean
+                }
+            }
+        }
+    }
+    
+    static long usedHeap() {
+        return Q05_LongLongMap.usedHeap();
+    }
+    
+    /** Deterministic, so a get() can be checked: the key, padded to {@code size} chars. */
+    static String valueFor(String key, int size) {
+        StringBuilder value = new StringBuilder(size).append(key).append(':');
+        while (value.length() < size) {
+            value.append((char) ('a' + value.length() % 26));
+        }
+        return value.toString();
+    }
+    
+    public static void main(String[] args) {
+        int entries = 200_000;
+        int valueSize = 1000;
+        long budget = 256L << 20;
+        System.out.println(entries + " entries x " + valueSize + " bytes, budget " + (budget >> 20) + " MB");
+        System.out.printf("%-10s %8s %10s %8s %8s %9s %9s%n",
+                "type", "heap MB", "GC pauses", "p99 ms", "max ms", "gets/us", "hit rate");
+        for (CacheType type : CacheType.values()) {
+            long before = usedHeap();
+            StringCache cache = type.create(budget, key -> valueFor(key, valueSize));
+            long correct = 0;
+            long gets = 0;
+            double getsPerMicro;
+            int pauseCount;
+            long p99;
+            long max;
+            try (GcPauses pauses = new GcPauses()) {
+                for (int i = 0; i < entries; i++) {
+                    cache.get("key" + i);
+                }
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long start = System.nanoTime();
+                for (; gets < 2_000_000; gets++) {
+                    String key = "key" + random.nextInt(entries);
+                    if (cache.get(key).startsWith(key + ":")) {
+                        correct++;
+                    }
+                }
+                getsPerMicro = gets * 1_000.0 / (System.nanoTime() - start);
+                pauseCount = pauses.count();
+                p99 = pauses.percentileMillis(99);
+                max = pauses.percentileMillis(100);
+            }
+            // Only after the pause snapshot: usedHeap() forces full GCs of its own
+            long heapMb = Math.max(0, usedHeap() - before) >> 20;
+            System.out.printf("%-10s %8d %10d %8d %8d %9.2f %9.2f%n", type, heapMb, pauseCount,
+                    p99, max, getsPerMicro, (double) correct / gets);
+            if (cache instanceof OffHeapCache) {
+                System.out.println(((OffHeapCache) cache).stats());
+            }
+        }
+    }
+}
+
+/*
+KEY CONCEPT: Move bulk data where the GC doesn't look
+- The GC's work is proportional to live objects and references; 10 GB
+  in 10M Strings is 20M objects to mark and copy. In 16 direct buffers
+  it is 16 objects: heap stays small, pauses stay short
+- Price: every get() copies bytes out and decodes a String, and the
+  cache manages its own memory (allocation, eviction, fragmentation)
+- Slab allocator: fixed chunk sizes per class, free lists, pages handed
+  out on demand. Waste per entry is bounded by the class step (25%)
+- Eviction is per class: a page, once given to a class, stays there
+  (memcached's "slab calcification"; its rebalancer moves pages later)
+- A 64-bit hash as the key to a primitive index keeps the heap cost per
+  entry to a slot in a long array; a rare collision just replaces the
+  other entry
+*/
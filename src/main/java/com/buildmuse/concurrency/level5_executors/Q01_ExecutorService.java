@@ -68,4 +68,5 @@ SOLUTION HINTS:
 4. executor.awaitTermination(1, TimeUnit.MINUTES)
 
 KEY CONCEPT: Thread pools reuse threads - more efficient than creating new threads
+The pool's queue is FIFO: see Q06_PriorityScheduler for priorities and deadlines
 */
@@ -72,4 +72,5 @@ SOLUTION HINTS:
 3. Integer result = futures.get(i).get();
 
 KEY CONCEPT: Callable returns value, Future holds async result
+get() in submission order blocks on the slowest task: see Q05_AsyncBatch
 */
@@ -0,0 +1,136 @@
+package com.buildmuse.concurrency.level5_executors;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PROBLEM: Pluggable Executors and Virtual Threads (Java 21)
+ *
+ * Q01 and Q02 hard-code Executors.newFixedThreadPool(3). executeTask()
+ * sleeps 500ms, so at most 3 tasks are ever in flight - the threads spend
+ * their time blocked, not working.
+ *
+ * Build an executor factory selectable at startup:
+ * - VIRTUAL:   Executors.newVirtualThreadPerTaskExecutor()
+ * - FIXED:     bounded platform thread pool
+ * - FORK_JOIN: ForkJoinPool with the given parallelism
+ * - WORK_STEALING: Q04's per-worker deque scheduler
+ *
+ * Run the Q01 workload with the chosen mode, then compare all modes on
+ * 10,000 blocking tasks.
+ *
+ * Run: java ...Q03_ExecutorModes [VIRTUAL|FIXED|FORK_JOIN|WORK_STEALING]
+ *  or: java -Dexecutor.mode=VIRTUAL ...Q03_ExecutorModes
+ *
+ * EXPECTED OUTPUT:
+ * Mode: VIRTUAL
+ * : Executing task 1
+ * : Executing task 2
+ * ...
+ * All tasks completed in 510 ms
+ *
+ * 10000 blocking tasks (100 ms each, bounded modes use 200 threads):
+ * VIRTUAL      :    180 ms  (55555 tasks/s)
+ * FIXED        :   5100 ms  (1960 tasks/s)
+ * FORK_JOIN    :   5100 ms  (1960 tasks/s)
+ * WORK_STEALING:   5100 ms  (1960 tasks/s)
+ *
+ * LEARNING:
+ * - Pool size caps concurrency for BLOCKING work, not just CPU work
+ * - Virtual threads unmount from their carrier while blocked
+ * - Virtual thread executors are not pools: one new thread per task
+ * - Virtual threads have no name by default (Thread-name prints empty)
+ */
+public class Q03_ExecutorModes {
+    
+    enum ExecutorMode {
+        VIRTUAL {
+            ExecutorService create(int parallelism) {
+                return Executors.newVirtualThreadPerTaskExecutor();
+            }
+        },
+        FIXED {
+            ExecutorService create(int parallelism) {
+                return Executors.newFixedThreadPool(parallelism);
+            }
+        },
+        FORK_JOIN {
+            ExecutorService create(int parallelism) {
+                return new ForkJoinPool(parallelism);
+            }
+        },
+        WORK_STEALING {
+            ExecutorService create(int parallelism) {
+                return new Q04_WorkStealingExecutor.WorkStealingExecutor(parallelism);
+            }
+        };
+        
+        /** parallelism is ignored by VIRTUAL (unbounded). */
+        abstract ExecutorService create(int parallelism);
+        
+        /** Reads args[0], then -Dexecutor.mode, defaulting to FIXED like Q01. */
+        static ExecutorMode select(String[] args) {
+            String name = args.length > 0 ? args[0] : System.getProperty("executor.mode", "FIXED");
+            return valueOf(name.toUpperCase());
+        }
+    }
+    
+    /** Submits tasks blocking taskMillis each; returns elapsed ms until all finish. */
+    static long runBlockingTasks(ExecutorMode mode, int parallelism, int tasks, long taskMillis)
+            throws InterruptedException {
+        ExecutorService executor = mode.create(parallelism);
+        long start = System.nanoTime();
+        for (int i = 0; i < tasks; i++) {
+            executor.execute(() -> {
+                try {
+                    Thread.sleep(taskMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.MINUTES);
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        ExecutorMode mode = ExecutorMode.select(args);
+        System.out.println("Mode: " + mode);
+        
+        // Same workload as Q01_ExecutorService: 10 tasks, 3 platform threads (if bounded)
+        ExecutorService executor = mode.create(3);
+        long start = System.nanoTime();
+        for (int i = 1; i <= 10; i++) {
+            final int taskId = i;
+            executor.execute(() -> Q01_ExecutorService.executeTask(taskId));
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        System.out.println("All tasks completed in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        
+        int tasks = 10_000;
+        int parallelism = 200;
+        System.out.println("\n" + tasks + " blocking tasks (100 ms each, bounded modes use "
+                + parallelism + " threads):");
+        for (ExecutorMode m : ExecutorMode.values()) {
+            long ms = Math.max(1, runBlockingTasks(m, parallelism, tasks, 100));
+            System.out.printf("%-13s: %6d ms  (%d tasks/s)%n", m, ms, tasks * 1000L / ms);
+        }
+    }
+}
+
+/*
+KEY CONCEPT: Size pools for CPU work, not for waiting
+- A FIXED pool of N threads runs at most N blocking tasks at once:
+  10,000 x 100ms / 200 threads = 5 seconds
+- ForkJoinPool behaves the same for Thread.sleep (it only compensates for
+  ManagedBlocker); it shines for CPU-bound fork/join work instead
+- VIRTUAL: every task gets its own cheap thread; while it sleeps (or does
+  blocking I/O) the carrier thread runs someone else
+- Still bound access to scarce resources (DB connections...) with a
+  Semaphore - virtual threads remove the thread limit, not the resource limit
+*/
@@ -0,0 +1,498 @@
+package com.buildmuse.concurrency.level5_executors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * PROBLEM: Work-Stealing Scheduler
+ *
+ * Q01's fixed pool funnels EVERY submission through one shared
+ * LinkedBlockingQueue: all producers and all 3 workers fight over its locks.
+ * Fine for 10 tasks, a bottleneck at millions of tiny tasks.
+ *
+ * Build a work-stealing ExecutorService:
+ * - Each worker owns a deque. The owner pushes/pops at the BOTTOM (LIFO:
+ *   newest task, still hot in cache); thieves steal from the TOP (FIFO:
+ *   oldest task, usually the biggest chunk of a recursive split)
+ * - Tasks submitted from inside a task go to the current worker's deque -
+ *   no shared queue at all for recursive workloads
+ * - Submissions from outside go to striped external queues
+ * - Idle workers park; a submission wakes one only if someone is parked
+ *
+ * EXPECTED OUTPUT:
+ * ws-worker-0: Executing task 1
+ * ws-worker-1: Executing task 2
+ * ws-worker-2: Executing task 3
+ * ...
+ * All tasks completed
+ *
+ * Recursive split into 1048576 leaf tasks (8 workers):
+ * work-stealing   :  210 ms (steals: 1534)
+ * fixed pool      :  980 ms
+ *
+ * LEARNING:
+ * - One queue per worker removes the shared contention point
+ * - The owner's end needs no CAS except for the last element (Chase-Lev)
+ * - LIFO locally, FIFO when stealing
+ * - Park/unpark with a Dekker-style check avoids lost wake-ups - but only
+ *   if both sides use volatile (sequentially consistent) accesses
+ */
+public class Q04_WorkStealingExecutor {
+    
+    /**
+     * Chase-Lev deque. push/pop are called only by the owning worker;
+     * steal may be called by any thread.
+     *
+     * Taken slots are nulled so finished tasks (and what they captured) can
+     * be collected: the owner clears what it pops, and clears slots thieves
+     * took on its next push or pop. A thief never clears: by then the owner
+     * may have reused the slot.
+     */
+    static final class WorkDeque {
+        private static final int INITIAL_CAPACITY = 256;
+        
+        private final AtomicLong top = new AtomicLong();    // next slot to steal
+        private final AtomicLong bottom = new AtomicLong(); // next slot to push
+        private volatile AtomicReferenceArray<Runnable> array = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+        private long cleared; // owner only: slots below it that thieves took are nulled
+        
+        /** Owner only. */
+        void push(Runnable task) {
+            long b = bottom.get();
+            long t = top.get();
+            AtomicReferenceArray<Runnable> a = array;
+            clearStolen(a, t);
+            if (b - t >= a.length() - 1) {
+                a = grow(a, t, b);
+            }
+            a.set((int) (b & (a.length() - 1)), task);
+            // Volatile write, not lazySet: the submitter reads idleWorkers next,
+            // and a parking worker writes idleWorkers before re-reading bottom
+            bottom.set(b + 1);
+        }
+        
+        /**
+         * Owner only. Indices below top were stolen (a thief that still holds
+         * a stale index fails its CAS on top), and a slot is reused only
+         * after this ran for it.
+         */
+        private void clearStolen(AtomicReferenceArray<Runnable> a, long t) {
+            for (long i = cleared; i < t; i++) {
+                a.lazySet((int) (i & (a.length() - 1)), null);
+            }
+            cleared = Math.max(cleared, t);
+        }
+        
+        /**
+         * Copies live slots into a bigger array. The old array is left intact,
+         * so a thief still reading it sees the same task at the same index.
+         */
+        private AtomicReferenceArray<Runnable> grow(AtomicReferenceArray<Runnable> old, long t, long b) {
+            AtomicReferenceArray<Runnable> bigger = new AtomicReferenceArray<>(old.length() * 2);
+            for (long i = t; i < b; i++) {
+                bigger.set((int) (i & (bigger.length() - 1)), old.get((int) (i & (old.length() - 1))));
+            }
+            array = bigger;
+            cleared = t; // stolen slots were not copied
+            return bigger;
+        }
+        
+        /** Owner only: takes the newest task. */
+        Runnable pop() {
+            long b = bottom.get() - 1;
+            AtomicReferenceArray<Runnable> a = array;
+            bottom.set(b); // volatile write, then read top: we and a thief cannot both miss each other
+            long t = top.get();
+            if (t > b) {
+                bottom.set(b + 1); // empty
+                clearStolen(a, t);
+                return null;
+            }
+            int index = (int) (b & (a.length() - 1));
+            Runnable task = a.get(index);
+            if (t == b) {
+                // Last element: race thieves for it
+                if (!top.compareAndSet(t, t + 1)) {
+                    task = null;
+                }
+                bottom.set(b + 1);
+                clearStolen(a, t + 1); // ours or the thief's: either way taken
+                return task;
+            }
+            a.lazySet(index, null); // t < b: no thief can take this slot
+            return task;
+        }
+        
+        /** Any thread: takes the oldest task, or null if empty or lost a race. */
+        Runnable steal() {
+            long t = top.get();
+            long b = bottom.get();
+            if (t >= b) {
+                return null;
+            }
+            AtomicReferenceArray<Runnable> a = array;
+            Runnable task = a.get((int) (t & (a.length() - 1)));
+            return top.compareAndSet(t, t + 1) ? task : null;
+        }
+        
+        boolean isEmpty() {
+            return top.get() >= bottom.get();
+        }
+    }
+    
+    static class WorkStealingExecutor extends AbstractExecutorService {
+        private static final int RUNNING = 0, SHUTDOWN = 1, STOP = 2, TERMINATED = 3;
+        
+        final class Worker extends Thread {
+            final WorkDeque deque = new WorkDeque();
+            final AtomicBoolean parked = new AtomicBoolean();
+            final int index;
+            int seed;                // victim selection, owner only
+            volatile long steals;    // written by owner only
+            
+            Worker(int index) {
+                super("ws-worker-" + index);
+                this.index = index;
+                this.seed = index * 0x9E3779B9 | 1;
+                setDaemon(true);
+            }
+            
+            WorkStealingExecutor pool() {
+                return WorkStealingExecutor.this;
+            }
+            
+            @Override
+            public void run() {
+                try {
+                    runWorker(this);
+                } finally {
+                    terminated.countDown();
+                }
+            }
+        }
+        
+        private final Worker[] workers;
+        private final ConcurrentLinkedQueue<Runnable>[] external;
+        private final AtomicInteger idleWorkers = new AtomicInteger();
+        private final AtomicInteger state = new AtomicInteger(RUNNING);
+        private final CountDownLatch terminated;
+        
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        WorkStealingExecutor(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be >= 1");
+            }
+            workers = new Worker[parallelism];
+            external = new ConcurrentLinkedQueue[parallelism];
+            terminated = new CountDownLatch(parallelism);
+            for (int i = 0; i < parallelism; i++) {
+                external[i] = new ConcurrentLinkedQueue<>();
+                workers[i] = new Worker(i);
+            }
+            for (Worker worker : workers) {
+                worker.start();
+            }
+        }
+        
+        @Override
+        public void execute(Runnable task) {
+            if (task == null) {
+                throw new NullPointerException();
+            }
+            if (Thread.currentThread() instanceof Worker w && w.pool() == this) {
+                // Local submission: subtasks of a running task may still be
+                // spawned during an orderly shutdown
+                if (state.get() >= STOP) {
+                    throw new RejectedExecutionException("executor stopped");
+                }
+                w.deque.push(task);
+            } else {
+                if (state.get() != RUNNING) {
+                    throw new RejectedExecutionException("executor shut down");
+                }
+                // Stripe by submitting thread so producers rarely share a queue
+                ConcurrentLinkedQueue<Runnable> queue =
+                        external[(int) (Thread.currentThread().threadId() % external.length)];
+                queue.add(task);
+                // Shutdown may have raced with us and finished without seeing the task
+                if (state.get() != RUNNING && queue.remove(task)) {
+                    throw new RejectedExecutionException("executor shut down");
+                }
+            }
+            signalWork();
+        }
+        
+        /** Wakes one parked worker, if any. Cheap when everyone is busy. */
+        private void signalWork() {
+            if (idleWorkers.get() == 0) {
+                return;
+            }
+            for (Worker worker : workers) {
+                if (worker.parked.get() && worker.parked.compareAndSet(true, false)) {
+                    idleWorkers.decrementAndGet();
+                    LockSupport.unpark(worker);
+                    return;
+                }
+            }
+        }
+        
+        private void runWorker(Worker self) {
+            while (state.get() < STOP) {
+                Runnable task = findTask(self);
+                if (task != null) {
+                    runTask(task);
+                } else if (!awaitWork(self)) {
+                    return;
+                }
+            }
+        }
+        
+        private static void runTask(Runnable task) {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                // Keep the worker alive; report like an uncaught exception would
+                Thread current = Thread.currentThread();
+                current.getUncaughtExceptionHandler().uncaughtException(current, t);
+            }
+        }
+        
+        /** Own deque (LIFO), own external queue, then steal from others (FIFO). */
+        private Runnable findTask(Worker self) {
+            Runnable task = self.deque.pop();
+            if (task == null) {
+                task = external[self.index].poll();
+            }
+            if (task == null) {
+                task = steal(self);
+            }
+            return task;
+        }
+        
+        private Runnable steal(Worker self) {
+            int n = workers.length;
+            boolean contended;
+            do {
+                contended = false;
+                int seed = self.seed;
+                seed ^= seed << 13;
+                seed ^= seed >>> 17;
+                seed ^= seed << 5;
+                self.seed = seed;
+                int start = (seed & Integer.MAX_VALUE) % n;
+                for (int i = 0; i < n; i++) {
+                    int victim = (start + i) % n;
+                    if (victim != self.index) {
+                        WorkDeque deque = workers[victim].deque;
+                        Runnable task = deque.steal();
+                        if (task != null) {
+                            self.steals++;
+                            return task;
+                        }
+                        contended |= !deque.isEmpty(); // lost a CAS race: worth another pass
+                    }
+                    Runnable task = external[victim].poll();
+                    if (task != null) {
+                        return task;
+                    }
+                }
+            } while (contended);
+            return null;
+        }
+        
+        private boolean hasQueuedTasks() {
+            for (int i = 0; i < workers.length; i++) {
+                if (!workers[i].deque.isEmpty() || !external[i].isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        /**
+         * Parks until signalled. Returns false if the worker should exit.
+         *
+         * Dekker-style handshake: we publish "parked" and THEN re-check the
+         * queues; a submitter publishes the task and THEN checks for parked
+         * workers. Every one of those accesses is volatile (push ends with
+         * bottom.set, the external queues publish by CAS), so they are
+         * totally ordered: at least one side sees the other and no wake-up
+         * is lost. A lazySet publish would allow both to miss.
+         */
+        private boolean awaitWork(Worker self) {
+            idleWorkers.incrementAndGet();
+            self.parked.set(true);
+            while (true) {
+                int s = state.get();
+                if (s >= STOP) {
+                    return false;
+                }
+                if (hasQueuedTasks()) {
+                    break;
+                }
+                if (s == SHUTDOWN && idleWorkers.get() == workers.length) {
+                    // Everyone idle, nothing queued, no external submissions: done
+                    tryTerminate();
+                    return false;
+                }
+                LockSupport.park(this);
+                if (!self.parked.get()) {
+                    return true; // signalWork() already reset our flag and the count
+                }
+            }
+            if (self.parked.compareAndSet(true, false)) {
+                idleWorkers.decrementAndGet();
+            }
+            return true;
+        }
+        
+        private void tryTerminate() {
+            if (state.compareAndSet(SHUTDOWN, TERMINATED)) {
+                wakeAll();
+            }
+        }
+        
+        private void wakeAll() {
+            for (Worker worker : workers) {
+                LockSupport.unpark(worker);
+            }
+        }
+        
+        @Override
+        public void shutdown() {
+            if (state.compareAndSet(RUNNING, SHUTDOWN)) {
+                wakeAll(); // parked workers re-check the termination condition
+            }
+        }
+        
+        @Override
+        public List<Runnable> shutdownNow() {
+            int s;
+            while ((s = state.get()) < STOP && !state.compareAndSet(s, STOP)) {
+                // retry
+            }
+            for (Worker worker : workers) {
+                worker.interrupt();
+            }
+            List<Runnable> pending = new ArrayList<>();
+            for (int i = 0; i < workers.length; i++) {
+                Runnable task;
+                while ((task = external[i].poll()) != null) {
+                    pending.add(task);
+                }
+                while (!workers[i].deque.isEmpty()) {
+                    if ((task = workers[i].deque.steal()) != null) {
+                        pending.add(task);
+                    }
+                }
+            }
+            return pending;
+        }
+        
+        @Override
+        public boolean isShutdown() {
+            return state.get() != RUNNING;
+        }
+        
+        @Override
+        public boolean isTerminated() {
+            return terminated.getCount() == 0;
+        }
+        
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return terminated.await(timeout, unit);
+        }
+        
+        /** Total successful steals; approximate while running. */
+        public long stealCount() {
+            long sum = 0;
+            for (Worker worker : workers) {
+                sum += worker.steals;
+            }
+            return sum;
+        }
+    }
+    
+    /**
+     * Splits [0, leaves) in halves until single leaves, submitting the right
+     * half as a new task each time. Counts completed leaves into done.
+     */
+    static void split(ExecutorService executor, int from, int to, CountDownLatch done) {
+        while (to - from > 1) {
+            int mid = (from + to) >>> 1;
+            int lo = mid, hi = to;
+            executor.execute(() -> split(executor, lo, hi, done));
+            to = mid;
+        }
+        done.countDown();
+    }
+    
+    static long runRecursive(ExecutorService executor, int leaves) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(leaves);
+        long start = System.nanoTime();
+        executor.execute(() -> split(executor, 0, leaves, done));
+        done.await();
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        // Q01's workload on the work-stealing scheduler
+        WorkStealingExecutor executor = new WorkStealingExecutor(3);
+        for (int i = 1; i <= 10; i++) {
+            final int taskId = i;
+            executor.execute(() -> Q01_ExecutorService.executeTask(taskId));
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        System.out.println("All tasks completed");
+        
+        int threads = Runtime.getRuntime().availableProcessors();
+        int leaves = 1 << 20;
+        System.out.println("\nRecursive split into " + leaves + " leaf tasks (" + threads + " workers):");
+        for (int round = 0; round < 3; round++) { // later rounds are warmed up
+            WorkStealingExecutor stealing = new WorkStealingExecutor(threads);
+            long ms = runRecursive(stealing, leaves);
+            stealing.shutdown();
+            stealing.awaitTermination(1, TimeUnit.MINUTES);
+            
+            ExecutorService fixed = Q03_ExecutorModes.ExecutorMode.FIXED.create(threads);
+            long fixedMs = runRecursive(fixed, leaves);
+            fixed.shutdown();
+            fixed.awaitTermination(1, TimeUnit.MINUTES);
+            
+            if (round == 2) {
+                System.out.printf("work-stealing   : %4d ms (steals: %d)%n", ms, stealing.stealCount());
+                System.out.printf("fixed pool      : %4d ms%n", fixedMs);
+            }
+        }
+    }
+}
+
+/*
+KEY CONCEPT: Per-worker deques + stealing
+- Shared queue: every put/take by every thread hits the same lock(s)
+- Work stealing: a worker mostly touches ONLY its own deque; other threads
+  touch it only when they run dry - contention happens when there's idle
+  capacity to spare, not on the hot path
+- Chase-Lev: owner pushes/pops at bottom without CAS; thieves CAS top;
+  only the last element needs a CAS race with the owner. push publishes
+  bottom with a volatile write: the wake-up check after it needs StoreLoad
+- Null taken slots, or the deque keeps finished tasks alive until the
+  slot is reused. Thieves must not do it - the owner may reuse the slot
+- Recursive split: owner pops the newest (smallest) piece, thieves take the
+  oldest (biggest) piece - one steal moves lots of work
+- ForkJoinPool is the production version of this idea (plus join()
+  helping, compensation threads, and much more)
+*/
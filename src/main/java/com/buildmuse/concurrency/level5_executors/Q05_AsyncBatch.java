@@ -0,0 +1,333 @@
+package com.buildmuse.concurrency.level5_executors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PROBLEM: Fan-Out / Fan-In Without Head-of-Line Blocking
+ *
+ * Q02 collects results with futures.get(i) in submission order: if task 1
+ * is slow, the results of tasks 2..5 sit finished and unprocessed until it
+ * is done. And one slow task makes the whole batch slow - the batch
+ * latency is the MAX of its task latencies, so the tail dominates.
+ *
+ * Build AsyncBatch on CompletableFuture:
+ * - submit(callable) -> CompletableFuture, started on the given executor
+ * - take(): the next COMPLETED task, like ExecutorCompletionService
+ * - allOf(): all results in submission order, failing on the FIRST failure
+ * - firstSuccess(): the first result that didn't fail
+ * - Per-task timeout: the task fails with TimeoutException AND is interrupted
+ * - Hedging: if a task isn't done after hedgeAfter, launch a duplicate;
+ *   the first to finish wins, the other is cancelled
+ *
+ * EXPECTED OUTPUT:
+ * Submitting task 1
+ * ...
+ * Result from task 5: 10
+ * Result from task 4: 8
+ * Result from task 3: 6
+ * Result from task 2: 4
+ * Result from task 1: 2
+ * All results (submission order): [2, 4, 6, 8, 10]
+ * Timeout: TimeoutException after 100 ms, task interrupted: true
+ *
+ * 16 skewed tasks per batch (90% 1 ms, 9% 5 ms, 1% 50 ms), 1 ms processing per result:
+ * strategy             p50       p90       p99       max
+ * SUBMISSION_ORDER    22 ms     58 ms     69 ms     71 ms
+ * COMPLETION_ORDER    18 ms     52 ms     54 ms     56 ms
+ * HEDGED              18 ms     21 ms     27 ms     30 ms
+ *
+ * LEARNING:
+ * - Process results in completion order, not submission order
+ * - Batch latency = slowest task: fan-out amplifies the tail
+ * - Hedged requests trade a little extra load for a much shorter tail
+ */
+public class Q05_AsyncBatch {
+    
+    /** Tasks are submitted by one thread; results can be consumed from any. */
+    static class AsyncBatch<T> {
+        private final ExecutorService executor;
+        private final long timeoutNanos;    // 0 = no timeout
+        private final long hedgeAfterNanos; // 0 = no hedging
+        private final List<CompletableFuture<T>> futures = new ArrayList<>();
+        private final BlockingQueue<CompletableFuture<T>> completed = new LinkedBlockingQueue<>();
+        
+        AsyncBatch(ExecutorService executor) {
+            this(executor, 0, 0, TimeUnit.NANOSECONDS);
+        }
+        
+        AsyncBatch(ExecutorService executor, long timeout, long hedgeAfter, TimeUnit unit) {
+            this.executor = executor;
+            this.timeoutNanos = unit.toNanos(timeout);
+            this.hedgeAfterNanos = unit.toNanos(hedgeAfter);
+        }
+        
+        /**
+         * One submitted task and its attempts (1, or 2 when hedged). The task
+         * must be idempotent if hedging is on: it may run twice.
+         */
+        private final class Call {
+            final Callable<T> task;
+            final CompletableFuture<T> result = new CompletableFuture<>();
+            final List<Attempt> attempts = new CopyOnWriteArrayList<>();
+            final AtomicInteger running = new AtomicInteger();
+            
+            Call(Callable<T> task) {
+                this.task = task;
+            }
+            
+            void launch() {
+                running.incrementAndGet();
+                Attempt attempt = new Attempt();
+                attempt.future = executor.submit(attempt);
+                attempts.add(attempt);
+                if (result.isDone()) {
+                    attempt.future.cancel(true); // completed (e.g. timed out) before it was listed
+                }
+            }
+            
+            /** Interrupts the attempts still running - except the one calling, it's finishing anyway. */
+            void cancelAttempts() {
+                for (Attempt attempt : attempts) {
+                    if (attempt.runner != Thread.currentThread()) {
+                        attempt.future.cancel(true);
+                    }
+                }
+            }
+            
+            private final class Attempt implements Runnable {
+                volatile Thread runner;
+                volatile Future<?> future;
+                
+                public void run() {
+                    if (result.isDone()) {
+                        return; // a late hedge: the other attempt already won
+                    }
+                    runner = Thread.currentThread();
+                    try {
+                        result.complete(task.call());
+                    } catch (Throwable e) {
+                        // Fail only when no other attempt could still succeed
+                        if (running.decrementAndGet() == 0) {
+                            result.completeExceptionally(e);
+                        }
+                    } finally {
+                        runner = null;
+                    }
+                }
+            }
+        }
+        
+        CompletableFuture<T> submit(Callable<T> task) {
+            Call call = new Call(task);
+            CompletableFuture<T> result = call.result;
+            if (timeoutNanos > 0) {
+                result.orTimeout(timeoutNanos, TimeUnit.NANOSECONDS);
+            }
+            // Registered before launching, so also the winner's thread runs it - and skips itself
+            result.whenComplete((value, error) -> {
+                call.cancelAttempts();
+                completed.add(result);
+            });
+            futures.add(result);
+            call.launch();
+            if (hedgeAfterNanos > 0) {
+                CompletableFuture.delayedExecutor(hedgeAfterNanos, TimeUnit.NANOSECONDS).execute(() -> {
+                    if (!result.isDone()) {
+                        call.launch();
+                    }
+                });
+            }
+            return result;
+        }
+        
+        int size() {
+            return futures.size();
+        }
+        
+        /** Blocks for the next completed task (success or failure), in completion order. */
+        CompletableFuture<T> take() throws InterruptedException {
+            return completed.take();
+        }
+        
+        /** Results in submission order; fails as soon as any task fails, without waiting for the rest. */
+        CompletableFuture<List<T>> allOf() {
+            List<CompletableFuture<T>> snapshot = List.copyOf(futures);
+            CompletableFuture<List<T>> all = new CompletableFuture<>();
+            CompletableFuture.allOf(snapshot.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+                List<T> results = new ArrayList<>(snapshot.size());
+                for (CompletableFuture<T> future : snapshot) {
+                    results.add(future.join());
+                }
+                all.complete(results);
+            });
+            for (CompletableFuture<T> future : snapshot) {
+                future.whenComplete((value, error) -> {
+                    if (error != null) {
+                        all.completeExceptionally(error);
+                    }
+                });
+            }
+            return all;
+        }
+        
+        /** The first successful result; fails only if every task fails. (anyOf would return the first failure.) */
+        CompletableFuture<T> firstSuccess() {
+            List<CompletableFuture<T>> snapshot = List.copyOf(futures);
+            CompletableFuture<T> first = new CompletableFuture<>();
+            AtomicInteger failures = new AtomicInteger();
+            for (CompletableFuture<T> future : snapshot) {
+                future.whenComplete((value, error) -> {
+                    if (error == null) {
+                        first.complete(value);
+                    } else if (failures.incrementAndGet() == snapshot.size()) {
+                        first.completeExceptionally(error);
+                    }
+                });
+            }
+            return first;
+        }
+        
+        void cancelAll() {
+            for (CompletableFuture<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+    
+    enum Strategy {
+        SUBMISSION_ORDER, COMPLETION_ORDER, HEDGED
+    }
+    
+    // Hedge after a delay above the common case: only the 50 ms outliers get a duplicate
+    static final long HEDGE_AFTER_MILLIS = 8;
+    
+    /** 90% 1 ms, 9% 5 ms, 1% 50 ms: a service with a long tail. */
+    static long skewedMillis(ThreadLocalRandom random) {
+        int dice = random.nextInt(100);
+        return dice < 90 ? 1 : dice < 99 ? 5 : 50;
+    }
+    
+    /**
+     * Fans out {@code tasks} skewed tasks, then processes every result for
+     * {@code processMillis} on the calling thread. Returns the batch latency in nanos.
+     */
+    static long runBatch(ExecutorService executor, Strategy strategy, int tasks, long processMillis)
+            throws InterruptedException, ExecutionException {
+        long start = System.nanoTime();
+        AsyncBatch<Integer> batch = strategy == Strategy.HEDGED
+                ? new AsyncBatch<>(executor, 0, HEDGE_AFTER_MILLIS, TimeUnit.MILLISECONDS)
+                : new AsyncBatch<>(executor);
+        List<CompletableFuture<Integer>> futures = new ArrayList<>(tasks);
+        for (int i = 0; i < tasks; i++) {
+            int taskId = i;
+            futures.add(batch.submit(() -> {
+                Thread.sleep(skewedMillis(ThreadLocalRandom.current()));
+                return taskId * 2;
+            }));
+        }
+        for (int i = 0; i < tasks; i++) {
+            // Q02's loop blocks on task i even if later ones are done
+            CompletableFuture<Integer> next = strategy == Strategy.SUBMISSION_ORDER ? futures.get(i) : batch.take();
+            next.get();
+            Thread.sleep(processMillis);
+        }
+        return System.nanoTime() - start;
+    }
+    
+    static long percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(sorted.length * percentile / 100) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+    
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        
+        // Q02's five tasks, but task 1 is the slowest: results arrive in reverse
+        AsyncBatch<Integer> batch = new AsyncBatch<>(executor);
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            final int taskId = i;
+            System.out.println("Submitting task " + taskId);
+            futures.add(batch.submit(() -> {
+                Thread.sleep(600 - taskId * 100);
+                return taskId * 2;
+            }));
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            CompletableFuture<Integer> done = batch.take();
+            System.out.println("Result from task " + (futures.indexOf(done) + 1) + ": " + done.get());
+        }
+        System.out.println("All results (submission order): " + batch.allOf().get());
+        
+        // Per-task timeout: the caller gets a TimeoutException, the task gets interrupted
+        AsyncBatch<Integer> timed = new AsyncBatch<>(executor, 100, 0, TimeUnit.MILLISECONDS);
+        CompletableFuture<Boolean> interrupted = new CompletableFuture<>();
+        long start = System.nanoTime();
+        CompletableFuture<Integer> slow = timed.submit(() -> {
+            try {
+                Thread.sleep(2000);
+                interrupted.complete(false);
+            } catch (InterruptedException e) {
+                interrupted.complete(true);
+            }
+            return 0;
+        });
+        try {
+            slow.get();
+        } catch (ExecutionException e) {
+            System.out.println("Timeout: " + e.getCause().getClass().getSimpleName() + " after "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms, task interrupted: "
+                    + interrupted.get());
+        }
+        
+        int tasks = 16;
+        int batches = 200;
+        System.out.printf("%n%d skewed tasks per batch (90%% 1 ms, 9%% 5 ms, 1%% 50 ms), 1 ms processing per result:%n",
+                tasks);
+        System.out.printf("%-16s %9s %9s %9s %9s%n", "strategy", "p50", "p90", "p99", "max");
+        for (Strategy strategy : Strategy.values()) {
+            long[] latencies = new long[batches];
+            for (int i = 0; i < batches; i++) {
+                latencies[i] = runBatch(executor, strategy, tasks, 1);
+            }
+            Arrays.sort(latencies);
+            System.out.printf("%-16s %6d ms %6d ms %6d ms %6d ms%n", strategy,
+                    TimeUnit.NANOSECONDS.toMillis(percentile(latencies, 50)),
+                    TimeUnit.NANOSECONDS.toMillis(percentile(latencies, 90)),
+                    TimeUnit.NANOSECONDS.toMillis(percentile(latencies, 99)),
+                    TimeUnit.NANOSECONDS.toMillis(latencies[batches - 1]));
+        }
+        
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+}
+
+/*
+KEY CONCEPT: Fan-in in completion order, and cut the tail
+- future.get() in a loop = head-of-line blocking: finished results wait
+  behind an unfinished one. Consume in completion order instead
+  (ExecutorCompletionService, or a queue fed by whenComplete)
+- CompletableFuture.allOf() waits for ALL even after a failure; fail fast
+  by completing your own future from each whenComplete
+- anyOf() returns the first COMPLETION, which may be a failure
+- orTimeout() only completes the future; the task keeps running unless
+  you cancel(true) the Future that runs it
+- Hedging: duplicate a request that is slower than usual (e.g. past p90);
+  the batch tail drops from "slowest outlier" to "hedge delay + typical"
+  for a few percent extra load. Only for idempotent tasks
+*/
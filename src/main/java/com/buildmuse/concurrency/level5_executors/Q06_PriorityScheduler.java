@@ -0,0 +1,606 @@
+package com.buildmuse.concurrency.level5_executors;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * PROBLEM: Priorities and Deadlines in the Work Queue
+ *
+ * Q01's fixed pool serves tasks strictly FIFO: a latency-sensitive
+ * request submitted behind 1000 bulk jobs waits for all of them. A
+ * PriorityBlockingQueue fixes the order but is one heap behind one lock,
+ * starves low priorities forever, and still runs tasks whose caller gave
+ * up long ago.
+ *
+ * Build DeadlineQueue, a BlockingQueue<Runnable> for ThreadPoolExecutor:
+ * - Priority classes (HIGH, NORMAL, BULK), one sub-queue and one lock
+ *   per class: submitters of different classes never contend
+ * - Inside a class: earliest deadline first (EDF), then FIFO; a task
+ *   without deadline (or with a far one) is due classes * agingStep after
+ *   it was queued, so a stream of deadlined tasks cannot starve it
+ * - Aging: a class's OLDEST task gains one priority level per agingStep it
+ *   has waited, so BULK is delayed, never starved
+ * - Drop on expiry: a task whose deadline passed is cancelled, not run
+ * - Workers block on a Semaphore counting queued tasks, not on a lock
+ *
+ * EXPECTED OUTPUT:
+ * 4 workers, bulk backlog kept at 500 (2 ms each, 100 ms deadline), HIGH every 2 ms (1 ms each)
+ * queue          HIGH p50   HIGH p99   HIGH max    bulk run  bulk expired
+ * FIFO           232.1 ms   263.7 ms   267.1 ms        5014             0
+ * SINGLE_HEAP      0.9 ms     2.0 ms     4.3 ms        4998             0
+ * PER_CLASS        0.8 ms     1.9 ms     4.0 ms        5003          9724
+ * (FIFO and SINGLE_HEAP also run bulk tasks whose deadline has passed)
+ *
+ * 1 worker, a stream of HIGH tasks for 300 ms, one BULK task:
+ * no aging         : BULK started after  297.0 ms
+ * aging step 20 ms : BULK started after   41.9 ms
+ *
+ * 1 worker, a stream of BULK tasks with 50 ms deadlines, one without:
+ * aging step 20 ms : no-deadline task started after 11.8 ms
+ *
+ * LEARNING:
+ * - Queue discipline, not pool size, decides who waits under saturation
+ * - Deadlines turn overload into cheap drops instead of useless work
+ * - Aging trades a bounded delay for starvation freedom
+ */
+public class Q06_PriorityScheduler {
+    
+    enum Priority {
+        HIGH, NORMAL, BULK
+    }
+    
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+    
+    /**
+     * A FutureTask that carries its scheduling attributes. deadlineNanos is
+     * absolute (System.nanoTime() scale). Comparable so the same tasks can
+     * go into a PriorityBlockingQueue for comparison.
+     */
+    static class PriorityTask<T> extends FutureTask<T> implements Comparable<PriorityTask<?>> {
+        final Priority priority;
+        final long deadlineNanos;
+        final long enqueueNanos;
+        volatile long startNanos;
+        
+        PriorityTask(Callable<T> callable, Priority priority, long deadlineNanos) {
+            super(callable);
+            this.priority = priority;
+            this.deadlineNanos = deadlineNanos;
+            this.enqueueNanos = System.nanoTime();
+        }
+        
+        @Override
+        public void run() {
+            startNanos = System.nanoTime();
+            super.run();
+        }
+        
+        @Override
+        public int compareTo(PriorityTask<?> other) {
+            int byPriority = priority.compareTo(other.priority);
+            if (byPriority != 0) {
+                return byPriority;
+            }
+            int byDeadline = Long.compare(deadlineNanos, other.deadlineNanos);
+            return byDeadline != 0 ? byDeadline : Long.compare(enqueueNanos, other.enqueueNanos);
+        }
+    }
+    
+    /**
+     * Unbounded: use it with corePoolSize == maximumPoolSize. Plain
+     * Runnables (not PriorityTask) are queued as NORMAL without deadline.
+     */
+    static class DeadlineQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+        
+        /** A queued task with its scheduling attributes; plain Runnables get defaults. */
+        private static final class Entry {
+            final Runnable task;
+            final long deadlineNanos;
+            final long enqueueNanos;
+            // Order inside the class: deadline, capped at enqueue + maxWait
+            final long dueNanos;
+            long sequence; // per class, set under its lock
+            boolean taken; // guarded by the class lock
+            
+            Entry(Runnable task, long maxWaitNanos) {
+                this.task = task;
+                if (task instanceof PriorityTask) {
+                    PriorityTask<?> priorityTask = (PriorityTask<?>) task;
+                    deadlineNanos = priorityTask.deadlineNanos;
+                    enqueueNanos = priorityTask.enqueueNanos;
+                } else {
+                    deadlineNanos = NO_DEADLINE;
+                    enqueueNanos = System.nanoTime();
+                }
+                long latest = enqueueNanos + maxWaitNanos;
+                dueNanos = deadlineNanos == NO_DEADLINE || deadlineNanos - latest > 0 ? latest : deadlineNanos;
+            }
+            
+            boolean expired(long now) {
+                return deadlineNanos != NO_DEADLINE && now - deadlineNanos > 0;
+            }
+        }
+        
+        /** EDF on the capped deadline, ties in submission order. */
+        private static final Comparator<Entry> EARLIEST_DUE = (a, b) -> {
+            int byDue = Long.compare(a.dueNanos - b.dueNanos, 0); // nanoTime may be negative: compare differences
+            return byDue != 0 ? byDue : Long.compare(a.sequence, b.sequence);
+        };
+        
+        /** One priority class. Fields other than the volatiles are guarded by lock. */
+        private static final class SubQueue {
+            final ReentrantLock lock = new ReentrantLock();
+            final PriorityQueue<Entry> entries = new PriorityQueue<>(EARLIEST_DUE);
+            // The same entries in arrival order; taken ones are skipped lazily
+            final ArrayDeque<Entry> arrivals = new ArrayDeque<>();
+            long nextSequence;
+            volatile int size;
+            // enqueueNanos of the oldest entry, for aging without taking the lock; Long.MAX_VALUE if empty
+            volatile long oldestEnqueueNanos = Long.MAX_VALUE;
+        }
+        
+        private final SubQueue[] classes = new SubQueue[Priority.values().length];
+        // One permit per queued task: a wake-up for exactly one worker
+        private final Semaphore available = new Semaphore(0);
+        private final long agingStepNanos;
+        private final long maxWaitNanos;
+        private final LongAdder expired = new LongAdder();
+        
+        DeadlineQueue(long agingStep, TimeUnit unit) {
+            this.agingStepNanos = unit.toNanos(agingStep);
+            this.maxWaitNanos = agingStepNanos * classes.length;
+            for (int i = 0; i < classes.length; i++) {
+                classes[i] = new SubQueue();
+            }
+        }
+        
+        /** Called holding the lock after entries changed. */
+        private static void updateOldest(SubQueue queue) {
+            while (!queue.arrivals.isEmpty() && queue.arrivals.peekFirst().taken) {
+                queue.arrivals.pollFirst();
+            }
+            Entry oldest = queue.arrivals.peekFirst();
+            queue.oldestEnqueueNanos = oldest != null ? oldest.enqueueNanos : Long.MAX_VALUE;
+            queue.size = queue.entries.size();
+        }
+        
+        @Override
+        public boolean offer(Runnable task) {
+            SubQueue queue = classes[task instanceof PriorityTask ? ((PriorityTask<?>) task).priority.ordinal()
+                    : Priority.NORMAL.ordinal()];
+            Entry entry = new Entry(task, maxWaitNanos);
+            queue.lock.lock();
+            try {
+                entry.sequence = queue.nextSequence++;
+                queue.entries.add(entry);
+                queue.arrivals.addLast(entry);
+                updateOldest(queue);
+            } finally {
+                queue.lock.unlock();
+            }
+            available.release();
+            return true;
+        }
+        
+        /**
+         * Class to serve next: lowest (ordinal - oldest waited / agingStep).
+         * The oldest times are read without locks, so the pick is approximate.
+         */
+        private int pick(long now) {
+            int best = -1;
+            long bestScore = Long.MAX_VALUE;
+            for (int i = 0; i < classes.length; i++) {
+                long oldest = classes[i].oldestEnqueueNanos;
+                if (oldest == Long.MAX_VALUE) {
+                    continue;
+                }
+                long score = (long) i * agingStepNanos - (now - oldest);
+                if (score < bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+            return best;
+        }
+        
+        /** Removes the chosen class's head; null if it emptied meanwhile. */
+        private Entry pollClass(int index) {
+            SubQueue queue = classes[index];
+            queue.lock.lock();
+            try {
+                Entry entry = queue.entries.poll();
+                if (entry != null) {
+                    entry.taken = true;
+                    updateOldest(queue);
+                }
+                return entry;
+            } finally {
+                queue.lock.unlock();
+            }
+        }
+        
+        /**
+         * Called holding one permit. Returns a live task, or null if the
+         * permit's task was expired (dropped) or removed: the caller then
+         * acquires another permit.
+         */
+        private Runnable dequeue() {
+            for (int scans = 0; scans < 2; scans++) {
+                long now = System.nanoTime();
+                int index;
+                while ((index = pick(now)) >= 0) {
+                    Entry entry = pollClass(index);
+                    if (entry == null) {
+                        continue; // raced with another worker: pick again
+                    }
+                    if (entry.expired(now)) {
+                        if (entry.task instanceof PriorityTask) {
+                            ((PriorityTask<?>) entry.task).cancel(false);
+                        }
+                        expired.increment();
+                        return null; // it used our permit
+                    }
+                    return entry.task;
+                }
+                Thread.onSpinWait(); // an offer between its permit and our read of its class
+            }
+            return null;
+        }
+        
+        @Override
+        public Runnable take() throws InterruptedException {
+            while (true) {
+                available.acquire();
+                Runnable task = dequeue();
+                if (task != null) {
+                    return task;
+                }
+            }
+        }
+        
+        @Override
+        public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (available.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                Runnable task = dequeue();
+                if (task != null) {
+                    return task;
+                }
+            }
+            return null;
+        }
+        
+        @Override
+        public Runnable poll() {
+            while (available.tryAcquire()) {
+                Runnable task = dequeue();
+                if (task != null) {
+                    return task;
+                }
+            }
+            return null;
+        }
+        
+        @Override
+        public void put(Runnable task) {
+            offer(task);
+        }
+        
+        @Override
+        public boolean offer(Runnable task, long timeout, TimeUnit unit) {
+            return offer(task);
+        }
+        
+        @Override
+        public Runnable peek() {
+            int index = pick(System.nanoTime());
+            if (index < 0) {
+                return null;
+            }
+            SubQueue queue = classes[index];
+            queue.lock.lock();
+            try {
+                Entry head = queue.entries.peek();
+                return head == null ? null : head.task;
+            } finally {
+                queue.lock.unlock();
+            }
+        }
+        
+        /** Used by ThreadPoolExecutor.remove/purge. */
+        @Override
+        public boolean remove(Object task) {
+            for (SubQueue queue : classes) {
+                queue.lock.lock();
+                try {
+                    Entry found = null;
+                    for (Entry entry : queue.entries) {
+                        if (entry.task == task) {
+                            found = entry;
+                            break;
+                        }
+                    }
+                    if (found != null) {
+                        queue.entries.remove(found);
+                        found.taken = true;
+                        updateOldest(queue);
+                        available.tryAcquire(); // if a worker holds it, its dequeue() comes back empty
+                        return true;
+                    }
+                } finally {
+                    queue.lock.unlock();
+                }
+            }
+            return false;
+        }
+        
+        @Override
+        public int size() {
+            int size = 0;
+            for (SubQueue queue : classes) {
+                size += queue.size;
+            }
+            return size;
+        }
+        
+        @Override
+        public int remainingCapacity() {
+            return Integer.MAX_VALUE;
+        }
+        
+        /** Used by shutdownNow(); ignores deadlines and priorities. */
+        @Override
+        public int drainTo(Collection<? super Runnable> target) {
+            return drainTo(target, Integer.MAX_VALUE);
+        }
+        
+        @Override
+        public int drainTo(Collection<? super Runnable> target, int max) {
+            int drained = 0;
+            for (SubQueue queue : classes) {
+                queue.lock.lock();
+                try {
+                    while (drained < max && !queue.entries.isEmpty()) {
+                        Entry entry = queue.entries.poll();
+                        entry.taken = true;
+                        target.add(entry.task);
+                        drained++;
+                    }
+                    updateOldest(queue);
+                } finally {
+                    queue.lock.unlock();
+                }
+            }
+            available.tryAcquire(Math.min(drained, available.availablePermits()));
+            return drained;
+        }
+        
+        /** A snapshot, class by class. */
+        @Override
+        public Iterator<Runnable> iterator() {
+            List<Runnable> snapshot = new ArrayList<>();
+            for (SubQueue queue : classes) {
+                queue.lock.lock();
+                try {
+                    for (Entry entry : queue.entries) {
+                        snapshot.add(entry.task);
+                    }
+                } finally {
+                    queue.lock.unlock();
+                }
+            }
+            return snapshot.iterator();
+        }
+        
+        long expired() {
+            return expired.sum();
+        }
+    }
+    
+    /** A fixed pool whose submit() takes a priority and a deadline. */
+    static class PriorityExecutor extends ThreadPoolExecutor {
+        PriorityExecutor(int threads, BlockingQueue<Runnable> queue) {
+            super(threads, threads, 0, TimeUnit.MILLISECONDS, queue);
+        }
+        
+        <T> PriorityTask<T> submit(Priority priority, long deadlineNanos, Callable<T> task) {
+            PriorityTask<T> future = new PriorityTask<>(task, priority, deadlineNanos);
+            execute(future);
+            return future;
+        }
+        
+        /** Convenience: deadline relative to now. */
+        PriorityTask<Void> submit(Priority priority, long timeout, TimeUnit unit, Runnable task) {
+            long deadline = timeout < 0 ? NO_DEADLINE : System.nanoTime() + unit.toNanos(timeout);
+            return submit(priority, deadline, () -> {
+                task.run();
+                return null;
+            });
+        }
+    }
+    
+    enum QueueType {
+        FIFO, SINGLE_HEAP, PER_CLASS;
+        
+        BlockingQueue<Runnable> create() {
+            switch (this) {
+                case FIFO:
+                    return new LinkedBlockingQueue<>();
+                case SINGLE_HEAP:
+                    return new PriorityBlockingQueue<>(); // one heap, one lock, no aging, no expiry
+                default:
+                    return new DeadlineQueue(100, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+    
+    static void work(long micros) {
+        long end = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(micros);
+        long remaining;
+        while ((remaining = end - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining); // I/O-like: the pool saturates, not the CPU
+        }
+    }
+    
+    static long percentile(long[] sorted, double percentile) {
+        return sorted.length == 0 ? 0 : sorted[(int) Math.ceil(percentile / 100 * sorted.length) - 1];
+    }
+    
+    static class Result {
+        final long[] highWaitNanos; // sorted: submit -> start
+        final long bulkRun;
+        final long bulkExpired;
+        
+        Result(long[] highWaitNanos, long bulkRun, long bulkExpired) {
+            this.highWaitNanos = highWaitNanos;
+            this.bulkRun = bulkRun;
+            this.bulkExpired = bulkExpired;
+        }
+    }
+    
+    /**
+     * A bulk producer keeps {@code backlog} BULK tasks queued (saturation)
+     * while a HIGH task is submitted every {@code highEveryMicros}.
+     */
+    static Result run(QueueType type, int workers, int backlog, long millis, long highEveryMicros)
+            throws InterruptedException {
+        BlockingQueue<Runnable> queue = type.create();
+        PriorityExecutor executor = new PriorityExecutor(workers, queue);
+        executor.prestartAllCoreThreads();
+        LongAdder bulkRun = new LongAdder();
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        Thread bulk = new Thread(() -> {
+            while (System.nanoTime() < end) {
+                while (queue.size() < backlog) {
+                    executor.submit(Priority.BULK, 100, TimeUnit.MILLISECONDS, () -> {
+                        work(2_000);
+                        bulkRun.increment();
+                    });
+                }
+                work(200);
+            }
+        }, "Bulk");
+        bulk.start();
+        List<PriorityTask<Void>> high = new ArrayList<>();
+        while (System.nanoTime() < end) {
+            high.add(executor.submit(Priority.HIGH, -1, TimeUnit.MILLISECONDS, () -> work(1_000)));
+            work(highEveryMicros);
+        }
+        bulk.join();
+        long stopped = System.nanoTime();
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        // A HIGH task that never started waited until shutdown - at least
+        long[] waits = high.stream()
+                .mapToLong(task -> (task.startNanos != 0 ? task.startNanos : stopped) - task.enqueueNanos)
+                .sorted()
+                .toArray();
+        long expired = queue instanceof DeadlineQueue ? ((DeadlineQueue) queue).expired() : 0;
+        return new Result(waits, bulkRun.sum(), expired);
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        int workers = 4;
+        int backlog = 500;
+        System.out.println(workers + " workers, bulk backlog kept at " + backlog
+                + " (2 ms each, 100 ms deadline), HIGH every 2 ms (1 ms each)");
+        System.out.printf("%-12s %10s %10s %10s %11s %13s%n",
+                "queue", "HIGH p50", "HIGH p99", "HIGH max", "bulk run", "bulk expired");
+        for (QueueType type : QueueType.values()) {
+            Result result = run(type, workers, backlog, 3_000, 2_000);
+            long[] waits = result.highWaitNanos;
+            System.out.printf("%-12s %7.1f ms %7.1f ms %7.1f ms %11d %13d%n", type,
+                    percentile(waits, 50) / 1e6, percentile(waits, 99) / 1e6, percentile(waits, 100) / 1e6,
+                    result.bulkRun, result.bulkExpired);
+        }
+        System.out.println("\n1 worker, a stream of HIGH tasks for 300 ms, one BULK task:");
+        System.out.printf("no aging         : BULK started after %6.1f ms%n", bulkWaitMillis(1, TimeUnit.HOURS, 300));
+        System.out.printf("aging step 20 ms : BULK started after %6.1f ms%n", bulkWaitMillis(20, TimeUnit.MILLISECONDS, 300));
+        System.out.println("\n1 worker, a stream of BULK tasks with 50 ms deadlines, one without:");
+        System.out.printf("aging step 20 ms : no-deadline task started after %.1f ms%n",
+                noDeadlineWaitMillis(20, TimeUnit.MILLISECONDS, 300));
+    }
+    
+    /**
+     * One worker kept busy by a stream of fresh HIGH tasks for
+     * {@code millis}; returns how long one BULK task waited to start.
+     */
+    static double bulkWaitMillis(long agingStep, TimeUnit unit, long millis) throws InterruptedException {
+        DeadlineQueue queue = new DeadlineQueue(agingStep, unit);
+        PriorityExecutor executor = new PriorityExecutor(1, queue);
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        PriorityTask<Void> bulk = null;
+        while (System.nanoTime() < end) {
+            while (queue.size() < 2) {
+                executor.submit(Priority.HIGH, -1, TimeUnit.MILLISECONDS, () -> work(1_000));
+            }
+            if (bulk == null) {
+                bulk = executor.submit(Priority.BULK, -1, TimeUnit.MILLISECONDS, () -> { });
+            }
+            work(200);
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        return (bulk.startNanos - bulk.enqueueNanos) / 1e6;
+    }
+    
+    /**
+     * One worker kept busy by deadlined BULK tasks for {@code millis};
+     * returns how long one BULK task without a deadline waited to start.
+     */
+    static double noDeadlineWaitMillis(long agingStep, TimeUnit unit, long millis) throws InterruptedException {
+        DeadlineQueue queue = new DeadlineQueue(agingStep, unit);
+        PriorityExecutor executor = new PriorityExecutor(1, queue);
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        PriorityTask<Void> patient = null;
+        while (System.nanoTime() < end) {
+            while (queue.size() < 2) {
+                executor.submit(Priority.BULK, 50, TimeUnit.MILLISECONDS, () -> work(1_000));
+            }
+            if (patient == null) {
+                patient = executor.submit(Priority.BULK, -1, TimeUnit.MILLISECONDS, () -> { });
+            }
+            work(200);
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        return (patient.startNanos - patient.enqueueNanos) / 1e6;
+    }
+}
+
+/*
+KEY CONCEPT: The queue is the scheduler
+- ThreadPoolExecutor takes whatever its BlockingQueue hands out: swap the
+  queue and FIFO becomes priority + EDF, with no change to the workers
+- One lock per class instead of one heap: HIGH submitters never wait for
+  a BULK submitter's sift-down. Workers pick the class from volatile
+  oldest-entry timestamps, then lock only that class. Sequence numbers
+  are per class, taken under that class's lock - no shared counter
+- A Semaphore counts queued tasks: offer = release, take = acquire. A
+  permit whose task was dropped or removed just sends the worker back
+- Aging: score = class * agingStep - waited by the class's OLDEST task
+  (not its EDF head: a fresh urgent task would reset the age). Strict
+  priority starves lower classes under permanent HIGH load; aging bounds
+  BULK's wait to about 2 * agingStep
+- Inside a class, EDF alone starves tasks without deadline: cap every
+  deadline at enqueue + maxWait so old tasks become due
+- Deadlines: a task nobody waits for anymore is cancelled at dequeue
+  (its Future throws CancellationException) - overload sheds bulk work
+*/
@@ -64,4 +64,5 @@ SOLUTION HINTS:
 
 KEY CONCEPT: CountDownLatch for waiting on multiple threads
 One-time use only (can't be reset)
+Startup with dependencies: one latch per component, see Q07_StartupCoordinator
 */
@@ -65,4 +65,5 @@ SOLUTION HINTS:
 
 KEY CONCEPT: CyclicBarrier synchronizes threads at specific points
 Reusable across multiple phases
+(Q06_PhasedEngine: dynamic parties and load balancing with Phaser)
 */
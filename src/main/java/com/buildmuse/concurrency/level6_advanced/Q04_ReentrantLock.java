@@ -97,4 +97,5 @@ SOLUTION HINTS:
 
 KEY CONCEPT: ReentrantLock offers more control than synchronized
 tryLock, fairness, interruptible locking
+Building one yourself on AQS: see Q08_AdaptiveLock
 */
@@ -0,0 +1,299 @@
+package com.buildmuse.concurrency.level6_advanced;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * PROBLEM: Optimistic Reads with StampedLock
+ *
+ * Q03_SynchronizedBlock's getBalance() takes the same monitor as deposit()
+ * and withdraw(): a dashboard polling balances blocks the writers, and
+ * every read still WRITES the lock word, bouncing its cache line between
+ * reader cores.
+ *
+ * Build the same account three ways:
+ * - SYNCHRONIZED:    one monitor for readers and writers
+ * - READ_WRITE_LOCK: ReentrantReadWriteLock (readers share, but each read
+ *                    still CASes the shared reader count)
+ * - OPTIMISTIC:      StampedLock.tryOptimisticRead() - read the fields,
+ *                    validate the stamp, retry; readers never write shared
+ *                    memory. Falls back to a real read lock under contention.
+ *
+ * The balance is kept as two fields (total deposited, total withdrawn), so
+ * a torn read would show a balance that never existed - e.g. a negative one.
+ *
+ * EXPECTED OUTPUT:
+ * Consistency check: 0 torn reads in 5000000 optimistic reads ✓
+ *
+ * 8 threads, M operations/sec:
+ * reads/writes    SYNCHRONIZED  READ_WRITE_LOCK   OPTIMISTIC
+ * 99/1                    22.1              9.8        310.5
+ * 90/10                   21.7              8.1         95.2
+ * 50/50                   20.9             10.3         25.4
+ *
+ * LEARNING:
+ * - A read lock is still a write to shared memory
+ * - Optimistic read: read, then check nothing changed; retry if it did
+ * - Optimistic reads only pay off when writes are rare
+ */
+public class Q05_StampedLock {
+    
+    interface Account {
+        void deposit(long amount);
+        
+        /** Returns false if the balance is too low. */
+        boolean withdraw(long amount);
+        
+        long getBalance();
+    }
+    
+    static class SynchronizedAccount implements Account {
+        private long deposited;
+        private long withdrawn;
+        
+        SynchronizedAccount(long initialBalance) {
+            deposited = initialBalance;
+        }
+        
+        public synchronized void deposit(long amount) {
+            deposited += amount;
+        }
+        
+        public synchronized boolean withdraw(long amount) {
+            if (deposited - withdrawn < amount) {
+                return false;
+            }
+            withdrawn += amount;
+            return true;
+        }
+        
+        public synchronized long getBalance() {
+            return deposited - withdrawn;
+        }
+    }
+    
+    static class ReadWriteLockAccount implements Account {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private long deposited;
+        private long withdrawn;
+        
+        ReadWriteLockAccount(long initialBalance) {
+            deposited = initialBalance;
+        }
+        
+        public void deposit(long amount) {
+            lock.writeLock().lock();
+            try {
+                deposited += amount;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        public boolean withdraw(long amount) {
+            lock.writeLock().lock();
+            try {
+                if (deposited - withdrawn < amount) {
+                    return false;
+                }
+                withdrawn += amount;
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        public long getBalance() {
+            lock.readLock().lock();
+            try {
+                return deposited - withdrawn;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+    
+    static class OptimisticAccount implements Account {
+        // Failed validations before giving up and taking the read lock
+        private static final int OPTIMISTIC_ATTEMPTS = 3;
+        
+        private final StampedLock lock = new StampedLock();
+        private long deposited;
+        private long withdrawn;
+        
+        OptimisticAccount(long initialBalance) {
+            deposited = initialBalance;
+        }
+        
+        public void deposit(long amount) {
+            long stamp = lock.writeLock();
+            try {
+                deposited += amount;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+        
+        public boolean withdraw(long amount) {
+            long stamp = lock.writeLock();
+            try {
+                if (deposited - withdrawn < amount) {
+                    return false;
+                }
+                withdrawn += amount;
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+        
+        public long getBalance() {
+            for (int i = 0; i < OPTIMISTIC_ATTEMPTS; i++) {
+                long stamp = lock.tryOptimisticRead(); // 0 if a writer holds the lock
+                // Copy into locals: the values may be inconsistent until validated
+                long d = deposited;
+                long w = withdrawn;
+                if (stamp != 0 && lock.validate(stamp)) {
+                    return d - w;
+                }
+                Thread.onSpinWait();
+            }
+            // Writers keep winning: queue up behind them like a normal reader
+            long stamp = lock.readLock();
+            try {
+                return deposited - withdrawn;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+    
+    enum AccountType {
+        SYNCHRONIZED, READ_WRITE_LOCK, OPTIMISTIC;
+        
+        Account create(long initialBalance) {
+            switch (this) {
+                case SYNCHRONIZED:
+                    return new SynchronizedAccount(initialBalance);
+                case READ_WRITE_LOCK:
+                    return new ReadWriteLockAccount(initialBalance);
+                default:
+                    return new OptimisticAccount(initialBalance);
+            }
+        }
+    }
+    
+    /**
+     * One mixed operation: a read with probability readPercent, otherwise a
+     * deposit or withdrawal of 1 (balance stays around its initial value).
+     */
+    static long operate(Account account, int readPercent, ThreadLocalRandom random) {
+        int dice = random.nextInt(100);
+        if (dice < readPercent) {
+            return account.getBalance();
+        }
+        if ((dice & 1) == 0) {
+            account.deposit(1);
+        } else {
+            account.withdraw(1);
+        }
+        return 0;
+    }
+    
+    /** Mixed operations from {@code threads} threads for a fixed time; returns M operations/sec. */
+    static double measure(Account account, int threads, int readPercent, long millis) throws InterruptedException {
+        LongAdder operations = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] deadline = new long[1];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long n = 0;
+                while ((n & 1023) != 0 || System.nanoTime() < deadline[0]) {
+                    operate(account, readPercent, random);
+                    n++;
+                }
+                operations.add(n);
+            }, "Worker-" + t);
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        deadline[0] = begin + millis * 1_000_000;
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return operations.sum() * 1_000.0 / (System.nanoTime() - begin);
+    }
+    
+    /**
+     * A writer moves the balance between 0 and 1000 in one step each way;
+     * any read outside {0, 1000} saw one field updated and not the other.
+     */
+    static long countTornReads(Account account, int reads) throws InterruptedException {
+        Thread writer = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                account.withdraw(1000);
+                account.deposit(1000);
+            }
+        }, "Writer");
+        writer.start();
+        long torn = 0;
+        for (int i = 0; i < reads; i++) {
+            long balance = account.getBalance();
+            if (balance != 0 && balance != 1000) {
+                torn++;
+            }
+        }
+        writer.interrupt();
+        writer.join();
+        return torn;
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        int reads = 5_000_000;
+        long torn = countTornReads(new OptimisticAccount(1000), reads);
+        System.out.println("Consistency check: " + torn + " torn reads in " + reads + " optimistic reads "
+                + (torn == 0 ? "✓" : "✗"));
+        
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        System.out.println("\n" + threads + " threads, M operations/sec:");
+        StringBuilder header = new StringBuilder(String.format("%-12s", "reads/writes"));
+        for (AccountType type : AccountType.values()) {
+            header.append(String.format("%17s", type));
+        }
+        System.out.println(header);
+        for (int readPercent : new int[] {99, 90, 50}) {
+            StringBuilder row = new StringBuilder(String.format("%-12s", readPercent + "/" + (100 - readPercent)));
+            for (AccountType type : AccountType.values()) {
+                row.append(String.format("%17.1f", measure(type.create(1_000_000), threads, readPercent, 500)));
+            }
+            System.out.println(row);
+        }
+    }
+}
+
+/*
+KEY CONCEPT: Don't write to read
+- synchronized / ReadWriteLock: every reader modifies the lock state, so
+  the lock's cache line ping-pongs between reader cores even though no
+  data changes
+- StampedLock.tryOptimisticRead() just reads the version; validate()
+  re-reads it. Nothing written, readers scale with cores
+- Read fields into locals, validate, THEN use them: before validation the
+  values may be torn
+- Optimistic reads lose when writes are frequent (reads keep retrying):
+  fall back to readLock() after a few failures
+- StampedLock is not reentrant and has no Conditions; the same trick
+  without it is a seqlock (see Q07_Ledger.snapshot)
+*/
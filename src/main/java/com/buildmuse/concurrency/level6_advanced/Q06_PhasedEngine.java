@@ -0,0 +1,405 @@
+package com.buildmuse.concurrency.level6_advanced;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PROBLEM: Phased Computation Engine (Phaser)
+ *
+ * Q02's CyclicBarrier has a fixed number of parties, and each thread owns a
+ * fixed share of the work: Thread-3 sleeps 900ms per phase, so every phase
+ * takes 900ms while Thread-1 idles at the barrier for 600ms of it.
+ *
+ * Build an engine for iterative bulk-synchronous jobs on Phaser:
+ * - Each phase splits into partitions; each worker owns a range of them
+ * - Per-phase barrier action (Phaser.onAdvance) that can also stop the job
+ * - Workers can join and leave between phases (register / arriveAndDeregister)
+ * - Tiered phasers: workers register on child phasers of at most 32
+ *   parties, so hundreds of workers don't all CAS one phaser's state
+ * - Optional stealing: a worker that finishes its range claims leftover
+ *   partitions from slower workers' ranges before arriving
+ *
+ * EXPECTED OUTPUT:
+ * phase-worker-0: Phase 1
+ * phase-worker-1: Phase 1
+ * phase-worker-2: Phase 1
+ * [All threads reached barrier]
+ * ...
+ * Skewed job, 64 workers, 10 phases:
+ * no stealing: 1480 ms
+ * stealing:     260 ms (steals: 5400)
+ *
+ * Dynamic workers:
+ * [phase 1 done, 8 workers]
+ * ...
+ * [phase 4 done, 16 workers]
+ * ...
+ * [phase 8 done, 12 workers]
+ *
+ * LEARNING:
+ * - Phaser = CyclicBarrier + dynamic parties + tiering + termination
+ * - onAdvance() is the barrier action and the "stop?" decision in one
+ * - Static partitioning makes the slowest worker set the pace; stealing
+ *   leftovers balances the phase
+ */
+public class Q06_PhasedEngine {
+    
+    interface PhasedJob {
+        /** Number of partitions in this phase (phases count from 0). */
+        int partitions(int phase);
+        
+        void process(int phase, int partition);
+        
+        /** Barrier action, run once after all partitions of a phase. Return true to stop. */
+        boolean onPhaseComplete(int phase, int workers);
+    }
+    
+    static class PhasedEngine {
+        static final int TIER_SIZE = 32;
+        // 16 ints = 64 bytes: each worker's range cursor on its own cache line
+        private static final int PAD = 16;
+        
+        /**
+         * Partition ranges for one phase, built by the barrier action while no
+         * worker is running. Cursors are claimed with getAndIncrement by the
+         * owner and, when stealing, by anyone who ran out of work.
+         */
+        static final class Plan {
+            final int phase;
+            final int[] end;
+            final AtomicIntegerArray next;
+            final Map<Worker, Integer> slots = new IdentityHashMap<>();
+            
+            Plan(int phase, int partitions, List<Worker> owners) {
+                this.phase = phase;
+                int n = Math.max(1, owners.size());
+                this.end = new int[n];
+                this.next = new AtomicIntegerArray(n * PAD);
+                for (int i = 0; i < n; i++) {
+                    next.set(i * PAD, (int) ((long) partitions * i / n));
+                    end[i] = (int) ((long) partitions * (i + 1) / n);
+                }
+                for (int i = 0; i < owners.size(); i++) {
+                    slots.put(owners.get(i), i);
+                }
+            }
+        }
+        
+        final class Worker implements Runnable {
+            final int id;
+            final Phaser leaf;
+            final int firstPhase;
+            volatile boolean retiring;
+            
+            Worker(int id, Phaser leaf, int firstPhase) {
+                this.id = id;
+                this.leaf = leaf;
+                this.firstPhase = firstPhase;
+            }
+            
+            @Override
+            public void run() {
+                int phase = firstPhase;
+                try {
+                    while (true) {
+                        runPhase(this, phase);
+                        if (retiring) {
+                            workers.remove(this); // not in the next plan
+                            leaf.arriveAndDeregister();
+                            return;
+                        }
+                        phase = leaf.arriveAndAwaitAdvance();
+                        if (phase < 0) {
+                            return; // terminated
+                        }
+                    }
+                } catch (Throwable t) {
+                    completion.completeExceptionally(t);
+                    root.forceTermination();
+                }
+            }
+        }
+        
+        private final PhasedJob job;
+        private final int maxPhases;
+        private final boolean stealing;
+        private final Phaser root;
+        private final List<Phaser> leaves = new ArrayList<>(); // guarded by this
+        private final CopyOnWriteArrayList<Worker> workers = new CopyOnWriteArrayList<>();
+        private final AtomicInteger nextWorkerId = new AtomicInteger();
+        private final CompletableFuture<Integer> completion = new CompletableFuture<>();
+        private final LongAdder steals = new LongAdder();
+        private volatile Plan plan;
+        
+        PhasedEngine(PhasedJob job, int maxPhases, boolean stealing) {
+            this.job = job;
+            this.maxPhases = maxPhases;
+            this.stealing = stealing;
+            this.root = new Phaser() {
+                @Override
+                protected boolean onAdvance(int phase, int registeredParties) {
+                    return advance(phase, registeredParties);
+                }
+            };
+        }
+        
+        /** Runs in the last thread to arrive; all workers are waiting. */
+        private boolean advance(int phase, int registeredParties) {
+            boolean stop = completion.isDone() || registeredParties == 0;
+            try {
+                if (!stop) {
+                    stop = job.onPhaseComplete(phase, workers.size()) || phase + 1 >= maxPhases;
+                }
+                if (!stop) {
+                    plan = new Plan(phase + 1, job.partitions(phase + 1), workers);
+                }
+            } catch (Throwable t) {
+                completion.completeExceptionally(t);
+                stop = true;
+            }
+            if (stop) {
+                completion.complete(phase + 1);
+            }
+            return stop;
+        }
+        
+        /** Registers and starts the initial workers. */
+        synchronized void start(int count) {
+            if (plan != null) {
+                throw new IllegalStateException("already started");
+            }
+            List<Worker> initial = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                initial.add(register());
+            }
+            workers.addAll(initial);
+            plan = new Plan(0, job.partitions(0), workers);
+            for (Worker worker : initial) {
+                startThread(worker);
+            }
+        }
+        
+        /**
+         * Adds a worker while the job runs. It joins the current phase (with
+         * no range of its own, so it only steals) and gets a range from the
+         * next phase on. Returns null if the job already finished.
+         */
+        synchronized Worker addWorker() {
+            if (plan == null) {
+                throw new IllegalStateException("not started");
+            }
+            Worker worker = register();
+            if (worker == null) {
+                return null;
+            }
+            workers.add(worker);
+            startThread(worker);
+            return worker;
+        }
+        
+        /** Asks one worker to leave after its current phase. */
+        boolean retireWorker() {
+            for (Worker worker : workers) {
+                if (!worker.retiring) {
+                    worker.retiring = true;
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        // Caller holds the lock on this
+        private Worker register() {
+            Phaser leaf = null;
+            for (Phaser candidate : leaves) {
+                if (candidate.getRegisteredParties() < TIER_SIZE) {
+                    leaf = candidate;
+                    break;
+                }
+            }
+            if (leaf == null) {
+                // A child phaser registers itself with root on its first party
+                leaf = new Phaser(root, 0);
+                leaves.add(leaf);
+            }
+            int phase = leaf.register();
+            return phase < 0 ? null : new Worker(nextWorkerId.getAndIncrement(), leaf, phase);
+        }
+        
+        private void startThread(Worker worker) {
+            Thread thread = new Thread(worker, "phase-worker-" + worker.id);
+            thread.start();
+        }
+        
+        private void runPhase(Worker self, int phase) {
+            Plan current = plan;
+            Integer slot = current.slots.get(self);
+            if (slot != null) {
+                drain(current, slot);
+            }
+            if (stealing) {
+                int n = current.end.length;
+                int start = slot != null ? slot + 1 : self.id;
+                for (int i = 0; i < n; i++) {
+                    steals.add(drain(current, (start + i) % n));
+                }
+            }
+        }
+        
+        /** Claims and processes partitions of one slot until it runs dry. */
+        private int drain(Plan current, int slot) {
+            int processed = 0;
+            int partition;
+            while ((partition = current.next.getAndIncrement(slot * PAD)) < current.end[slot]) {
+                job.process(current.phase, partition);
+                processed++;
+            }
+            return processed;
+        }
+        
+        /** Waits until the job stops; returns the number of phases run. */
+        int awaitCompletion() throws InterruptedException, ExecutionException {
+            return completion.get();
+        }
+        
+        /** Waits until the given phase has started (or the job has ended). */
+        void awaitPhase(int phase) {
+            int current;
+            while ((current = root.getPhase()) >= 0 && current < phase) {
+                root.awaitAdvance(current);
+            }
+        }
+        
+        int workerCount() {
+            return workers.size();
+        }
+        
+        int leafCount() {
+            synchronized (this) {
+                return leaves.size();
+            }
+        }
+        
+        long steals() {
+            return steals.sum();
+        }
+    }
+    
+    /** Busy work standing in for a partition's computation. */
+    static long spin(long iterations) {
+        long x = 0;
+        for (long i = 0; i < iterations; i++) {
+            x += i ^ (x >>> 3);
+        }
+        return x;
+    }
+    
+    /**
+     * Partitions in the first 1/16 of each phase cost 40x more than the rest,
+     * so with static ranges the first few workers set the pace.
+     */
+    static class SkewedJob implements PhasedJob {
+        final int partitions;
+        final long unit;
+        final int phasesToPrint;
+        volatile long sink;
+        
+        SkewedJob(int partitions, long unit, int phasesToPrint) {
+            this.partitions = partitions;
+            this.unit = unit;
+            this.phasesToPrint = phasesToPrint;
+        }
+        
+        public int partitions(int phase) {
+            return partitions;
+        }
+        
+        public void process(int phase, int partition) {
+            sink = spin(partition < partitions / 16 ? unit * 40 : unit);
+        }
+        
+        public boolean onPhaseComplete(int phase, int workers) {
+            if (phase < phasesToPrint) {
+                System.out.println("[phase " + (phase + 1) + " done, " + workers + " workers]");
+            }
+            return false;
+        }
+    }
+    
+    static long runSkewed(int workers, int phases, boolean stealing, PhasedEngine[] engineOut)
+            throws InterruptedException, ExecutionException {
+        PhasedEngine engine = new PhasedEngine(new SkewedJob(1024, 2_000, 0), phases, stealing);
+        long start = System.nanoTime();
+        engine.start(workers);
+        engine.awaitCompletion();
+        engineOut[0] = engine;
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+    
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        // Q02's example: 3 workers, 3 phases, one partition each
+        PhasedEngine q02 = new PhasedEngine(new PhasedJob() {
+            public int partitions(int phase) {
+                return 3;
+            }
+            
+            public void process(int phase, int partition) {
+                System.out.println(Thread.currentThread().getName() + ": Phase " + (phase + 1));
+            }
+            
+            public boolean onPhaseComplete(int phase, int workers) {
+                System.out.println("[All threads reached barrier]");
+                return false;
+            }
+        }, 3, false);
+        q02.start(3);
+        q02.awaitCompletion();
+        
+        int workers = 64;
+        int phases = 10;
+        PhasedEngine[] engine = new PhasedEngine[1];
+        runSkewed(workers, phases, true, engine); // warm-up
+        System.out.println("\nSkewed job, " + workers + " workers, " + phases + " phases:");
+        System.out.println("no stealing: " + runSkewed(workers, phases, false, engine) + " ms");
+        long ms = runSkewed(workers, phases, true, engine);
+        System.out.println("stealing:    " + ms + " ms (steals: " + engine[0].steals() + ", "
+                + engine[0].leafCount() + " child phasers)");
+        
+        // Join at phase 3, leave at phase 6
+        System.out.println("\nDynamic workers:");
+        PhasedEngine dynamic = new PhasedEngine(new SkewedJob(256, 20_000, 8), 8, true);
+        dynamic.start(8);
+        dynamic.awaitPhase(2);
+        for (int i = 0; i < 8; i++) {
+            dynamic.addWorker();
+        }
+        dynamic.awaitPhase(5);
+        for (int i = 0; i < 4; i++) {
+            dynamic.retireWorker();
+        }
+        System.out.println("Ran " + dynamic.awaitCompletion() + " phases");
+    }
+}
+
+/*
+KEY CONCEPT: Phaser = a barrier whose parties and phases you control
+- register() / arriveAndDeregister(): workers join and leave at runtime;
+  CyclicBarrier's party count is fixed forever
+- onAdvance(phase, parties): runs once per phase in the last arriving
+  thread (the barrier action) and returns true to terminate
+- Tiering: new Phaser(parent) - children only touch the parent when their
+  own parties have all arrived, so contention is per 32 workers, not per
+  hundreds
+- A barrier makes every phase as slow as its slowest worker. Let finished
+  workers claim leftover partitions (one getAndIncrement per partition)
+  instead of idling at the barrier
+*/
@@ -0,0 +1,383 @@
+package com.buildmuse.concurrency.level6_advanced;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PROBLEM: Dependency-Aware Startup Coordinator
+ *
+ * Q01 starts workers and waits for ALL of them on one CountDownLatch. Real
+ * services have dependencies: the cache needs config, the repositories need
+ * the database. The usual latch version starts components in "stages" and
+ * waits for the whole stage before starting the next, so one slow component
+ * in a stage delays everything after it, even things that never needed it.
+ *
+ * Build a startup coordinator:
+ * - Components declare initializer + dependencies (a DAG; cycles rejected)
+ * - Each initializer starts the moment ITS dependencies are done - no
+ *   stage-wide gate, no shared countdown
+ * - ready(name) lets code wait for one component (a per-component latch)
+ * - Fails fast: the first failure completes the startup exceptionally and
+ *   no further initializers start
+ * - Per-component timing, and the critical path (the lower bound on wall time)
+ * - The plan is reusable: every start() is a fresh run
+ *
+ * EXPECTED OUTPUT:
+ * Main: Waiting for workers to initialize...
+ * Worker-1: Initializing...
+ * ...
+ * Main: All workers initialized, starting application
+ *
+ * (userService ready at 605 ms)
+ *
+ * 12 components, serial 2150 ms, critical path 800 ms
+ * stages (latch per level): 1200 ms
+ * dependency-driven:        810 ms
+ * component        start     took
+ * config            0 ms   100 ms
+ * messaging       101 ms   400 ms
+ * ...
+ * http            715 ms   100 ms
+ * Fail fast: startup failed: cacheCheck: connection refused (after 260 ms)
+ *
+ * LEARNING:
+ * - Startup is a DAG: schedule by dependency, not by stage
+ * - One latch per component (a future) instead of one for everything
+ * - Wall time >= critical path; stages can be much worse
+ */
+public class Q07_StartupCoordinator {
+    
+    interface Initializer {
+        void initialize() throws Exception;
+    }
+    
+    static final class Component {
+        final String name;
+        final Initializer initializer;
+        final List<String> dependencies;
+        
+        Component(String name, Initializer initializer, List<String> dependencies) {
+            this.name = name;
+            this.initializer = initializer;
+            this.dependencies = dependencies;
+        }
+    }
+    
+    static final class Timing {
+        final String component;
+        final long startNanos; // relative to the start of the run
+        final long durationNanos;
+        
+        Timing(String component, long startNanos, long durationNanos) {
+            this.component = component;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+        }
+    }
+    
+    static final class StartupReport {
+        final long wallNanos;
+        final List<Timing> timings;
+        
+        StartupReport(long wallNanos, List<Timing> timings) {
+            this.wallNanos = wallNanos;
+            this.timings = timings;
+        }
+        
+        void print() {
+            System.out.printf("%-14s %7s %8s%n", "component", "start", "took");
+            for (Timing timing : timings) {
+                System.out.printf("%-14s %4d ms %5d ms%n", timing.component,
+                        TimeUnit.NANOSECONDS.toMillis(timing.startNanos),
+                        TimeUnit.NANOSECONDS.toMillis(timing.durationNanos));
+            }
+        }
+    }
+    
+    static class StartupPlan {
+        private final Map<String, Component> components = new LinkedHashMap<>();
+        private List<Component> order; // topological, built on first start()
+        
+        synchronized StartupPlan component(String name, Initializer initializer, String... dependsOn) {
+            if (components.containsKey(name)) {
+                throw new IllegalArgumentException("duplicate component: " + name);
+            }
+            components.put(name, new Component(name, initializer, List.of(dependsOn)));
+            order = null;
+            return this;
+        }
+        
+        /** Kahn's algorithm: dependencies before dependents, or fail on a cycle. */
+        synchronized List<Component> topologicalOrder() {
+            if (order != null) {
+                return order;
+            }
+            Map<String, Integer> pending = new HashMap<>();
+            Map<String, List<Component>> dependents = new HashMap<>();
+            for (Component component : components.values()) {
+                pending.put(component.name, component.dependencies.size());
+                for (String dependency : component.dependencies) {
+                    if (!components.containsKey(dependency)) {
+                        throw new IllegalArgumentException(component.name + " depends on unknown " + dependency);
+                    }
+                    dependents.computeIfAbsent(dependency, d -> new ArrayList<>()).add(component);
+                }
+            }
+            Deque<Component> ready = new ArrayDeque<>();
+            for (Component component : components.values()) {
+                if (component.dependencies.isEmpty()) {
+                    ready.add(component);
+                }
+            }
+            List<Component> sorted = new ArrayList<>();
+            while (!ready.isEmpty()) {
+                Component component = ready.poll();
+                sorted.add(component);
+                for (Component dependent : dependents.getOrDefault(component.name, List.of())) {
+                    if (pending.merge(dependent.name, -1, Integer::sum) == 0) {
+                        ready.add(dependent);
+                    }
+                }
+            }
+            if (sorted.size() != components.size()) {
+                List<String> cyclic = new ArrayList<>();
+                pending.forEach((name, count) -> {
+                    if (count > 0) {
+                        cyclic.add(name);
+                    }
+                });
+                throw new IllegalStateException("dependency cycle among " + cyclic);
+            }
+            order = Collections.unmodifiableList(sorted);
+            return order;
+        }
+        
+        /** Starts every component as soon as its dependencies are ready. */
+        Startup start(ExecutorService executor) {
+            return new Startup(topologicalOrder(), executor);
+        }
+        
+        /** Baseline: level by level, waiting for the whole level on a latch. */
+        long runInStages(ExecutorService executor) throws InterruptedException {
+            Map<String, Integer> level = new HashMap<>();
+            List<List<Component>> stages = new ArrayList<>();
+            for (Component component : topologicalOrder()) {
+                int depth = 0;
+                for (String dependency : component.dependencies) {
+                    depth = Math.max(depth, level.get(dependency) + 1);
+                }
+                level.put(component.name, depth);
+                while (stages.size() <= depth) {
+                    stages.add(new ArrayList<>());
+                }
+                stages.get(depth).add(component);
+            }
+            long start = System.nanoTime();
+            for (List<Component> stage : stages) {
+                CountDownLatch latch = new CountDownLatch(stage.size());
+                for (Component component : stage) {
+                    executor.execute(() -> {
+                        try {
+                            component.initializer.initialize();
+                        } catch (Exception e) {
+                            throw new IllegalStateException(component.name + " failed", e);
+                        } finally {
+                            latch.countDown();
+                        }
+                    });
+                }
+                latch.await();
+            }
+            return System.nanoTime() - start;
+        }
+        
+        /** Longest chain of measured durations: no schedule can beat it. */
+        long criticalPathNanos(StartupReport report) {
+            Map<String, Long> duration = new HashMap<>();
+            for (Timing timing : report.timings) {
+                duration.put(timing.component, timing.durationNanos);
+            }
+            Map<String, Long> finish = new HashMap<>();
+            long longest = 0;
+            for (Component component : topologicalOrder()) {
+                long ready = 0;
+                for (String dependency : component.dependencies) {
+                    ready = Math.max(ready, finish.get(dependency));
+                }
+                long end = ready + duration.getOrDefault(component.name, 0L);
+                finish.put(component.name, end);
+                longest = Math.max(longest, end);
+            }
+            return longest;
+        }
+    }
+    
+    /**
+     * One run of a plan. Each component is a CompletableFuture that starts
+     * when allOf(its dependencies) completes - the dependency edges ARE the
+     * latches, each with only as many parties as that component has inputs.
+     */
+    static class Startup {
+        private final Map<String, CompletableFuture<Void>> ready = new HashMap<>();
+        private final CompletableFuture<StartupReport> result = new CompletableFuture<>();
+        private final long startNanos = System.nanoTime();
+        
+        Startup(List<Component> order, ExecutorService executor) {
+            Timing[] timings = new Timing[order.size()];
+            CompletableFuture<?>[] all = new CompletableFuture<?>[order.size()];
+            for (int i = 0; i < order.size(); i++) {
+                Component component = order.get(i);
+                CompletableFuture<?>[] inputs = new CompletableFuture<?>[component.dependencies.size()];
+                for (int d = 0; d < inputs.length; d++) {
+                    inputs[d] = ready.get(component.dependencies.get(d)); // created earlier: topological order
+                }
+                int index = i;
+                CompletableFuture<Void> future = CompletableFuture.allOf(inputs)
+                        .thenRunAsync(() -> timings[index] = initialize(component), executor);
+                // Fail fast: first failure ends the startup, even while others still run
+                future.whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        result.completeExceptionally(unwrap(error));
+                    }
+                });
+                ready.put(component.name, future);
+                all[i] = future;
+            }
+            CompletableFuture.allOf(all).thenRun(() -> {
+                List<Timing> sorted = new ArrayList<>(List.of(timings));
+                sorted.sort(Comparator.comparingLong(t -> t.startNanos));
+                result.complete(new StartupReport(System.nanoTime() - startNanos, sorted));
+            });
+        }
+        
+        private Timing initialize(Component component) {
+            if (result.isCompletedExceptionally()) {
+                throw new CancellationException(component.name + " skipped: startup already failed");
+            }
+            long begin = System.nanoTime();
+            try {
+                component.initializer.initialize();
+            } catch (Exception e) {
+                throw new CompletionException(new IllegalStateException(component.name + ": " + e.getMessage(), e));
+            }
+            return new Timing(component.name, begin - startNanos, System.nanoTime() - begin);
+        }
+        
+        private static Throwable unwrap(Throwable error) {
+            return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        }
+        
+        /** Completes when this one component (and so all it depends on) is ready. */
+        CompletableFuture<Void> ready(String component) {
+            CompletableFuture<Void> future = ready.get(component);
+            if (future == null) {
+                throw new IllegalArgumentException("unknown component: " + component);
+            }
+            return future;
+        }
+        
+        StartupReport await() throws InterruptedException, ExecutionException {
+            return result.get();
+        }
+    }
+    
+    static Initializer sleep(long millis) {
+        return () -> Thread.sleep(millis);
+    }
+    
+    static StartupPlan servicePlan() {
+        return new StartupPlan()
+                .component("config", sleep(100))
+                .component("metrics", sleep(50), "config")
+                .component("database", sleep(300), "config")
+                .component("cache", sleep(150), "config")
+                .component("messaging", sleep(400), "config")
+                .component("userRepo", sleep(100), "database")
+                .component("orderRepo", sleep(200), "database")
+                .component("userService", sleep(100), "userRepo", "cache")
+                .component("orderService", sleep(100), "orderRepo", "cache")
+                .component("notifier", sleep(50), "messaging")
+                .component("scheduler", sleep(500), "metrics")
+                .component("http", sleep(100), "userService", "orderService");
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        // Q01's example: three independent workers, main waits for all
+        StartupPlan workers = new StartupPlan();
+        for (int i = 1; i <= 3; i++) {
+            String name = "Worker-" + i;
+            long millis = 1000 + i * 500L;
+            workers.component(name, () -> {
+                System.out.println(name + ": Initializing...");
+                Thread.sleep(millis);
+                System.out.println(name + ": Initialization complete");
+            });
+        }
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            System.out.println("Main: Waiting for workers to initialize...");
+            workers.start(executor).await();
+            System.out.println("Main: All workers initialized, starting application");
+            
+            StartupPlan plan = servicePlan();
+            long stages = plan.runInStages(executor);
+            Startup startup = plan.start(executor);
+            startup.ready("userService").thenRun(() -> System.out.println("(userService ready at "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startup.startNanos) + " ms)"));
+            StartupReport report = startup.await();
+            long serial = report.timings.stream().mapToLong(t -> t.durationNanos).sum();
+            System.out.printf("%n%d components, serial %d ms, critical path %d ms%n", report.timings.size(),
+                    TimeUnit.NANOSECONDS.toMillis(serial),
+                    TimeUnit.NANOSECONDS.toMillis(plan.criticalPathNanos(report)));
+            System.out.println("stages (latch per level): " + TimeUnit.NANOSECONDS.toMillis(stages) + " ms");
+            System.out.println("dependency-driven:        " + TimeUnit.NANOSECONDS.toMillis(report.wallNanos) + " ms");
+            report.print();
+            
+            // The same plan again, with a component that fails
+            StartupPlan failing = servicePlan().component("cacheCheck", () -> {
+                throw new IllegalStateException("connection refused");
+            }, "cache");
+            long begin = System.nanoTime();
+            try {
+                failing.start(executor).await();
+            } catch (ExecutionException e) {
+                System.out.println("Fail fast: startup failed: " + e.getCause().getMessage() + " (after "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + " ms)");
+            }
+        } catch (ExecutionException e) {
+            System.out.println("Startup failed: " + e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
+
+/*
+KEY CONCEPT: A latch per edge, not one latch for everything
+- CountDownLatch(N): one shared counter, one "everyone is done" moment;
+  stage after stage of them makes each stage wait for its slowest member
+- Dependency-driven: component X waits only for X's inputs
+  (CompletableFuture.allOf(deps).thenRunAsync(init)), so the wall time
+  approaches the critical path - the longest chain of dependencies
+- Validate the graph up front (Kahn's topological sort): a cycle would
+  otherwise just hang forever
+- Fail fast: complete the overall result on the FIRST failure and skip
+  initializers that haven't started; don't wait for the rest to time out
+- Blocking initializers + hundreds of components: virtual threads, so the
+  pool size never limits how many run at once
+*/
@@ -0,0 +1,538 @@
+package com.buildmuse.concurrency.level6_advanced;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * PROBLEM: A Custom Lock on AbstractQueuedSynchronizer
+ *
+ * Q04's doWork() tries tryLock(1s), then falls back to an unbounded lock()
+ * that can neither time out nor be interrupted. And a fair ReentrantLock
+ * hands the lock to the next queued thread on EVERY release: park, unpark,
+ * context switch - even when the critical section is 50 ns long.
+ *
+ * Build AdaptiveLock, a java.util.concurrent.locks.Lock on top of AQS:
+ * - Reentrant, with Conditions, lockInterruptibly() and tryLock(timeout)
+ * - Adaptive spin-then-park: spin for about as long as the lock is usually
+ *   held (an average of recent hold times), park if holds are long
+ * - Bounded barging: a newcomer may overtake queued threads at most
+ *   maxBarges times in a row; 0 = strictly fair, UNBOUNDED = unfair
+ * - Statistics: acquisitions, contended / spun / parked, max queue length,
+ *   wait-time and (sampled) hold-time histograms, power-of-two buckets
+ *
+ * EXPECTED OUTPUT:
+ * Thread-1: Attempting to acquire lock
+ * Thread-1: Lock acquired
+ * Thread-2: Attempting to acquire lock
+ * Thread-2: Could not acquire lock, will retry
+ * Thread-1: Released lock
+ * Thread-2: Lock acquired (on retry)
+ * ...
+ * Thread-4: Interrupted while waiting, giving up
+ *
+ * 4 threads, M lock/unlock per second:
+ * hold            REENTRANT  REENTRANT_FAIR  ADAPTIVE  ADAPTIVE_BOUNDED
+ * short                12.4            0.3      15.1              11.8
+ * long                  2.2            0.2       2.3               2.1
+ * ADAPTIVE (short): 6000000 acquisitions, 31% contended (29% spun, 2% parked),
+ *     max queue 3, spin 120 ns, wait p50 256 ns p99 8 us, hold p50 64 ns p99 256 ns
+ *
+ * LEARNING:
+ * - AQS: you write tryAcquire/tryRelease, it writes the queue and parking
+ * - Spinning wins only if the lock frees up before a park/unpark would
+ * - Fairness is a spectrum: bounded barging keeps most of the throughput
+ */
+public class Q08_AdaptiveLock {
+    
+    /** Power-of-two nanosecond buckets: bucket b counts values in [2^(b-1), 2^b). */
+    static final class LogHistogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        
+        static int bucket(long nanos) {
+            return 64 - Long.numberOfLeadingZeros(Math.max(nanos, 0));
+        }
+        
+        /**
+         * Only called by the lock owner, so the lock already orders all writers:
+         * a plain read + lazySet is enough, no CAS.
+         */
+        void recordOwned(long nanos) {
+            int b = bucket(nanos);
+            buckets.lazySet(b, buckets.get(b) + 1);
+        }
+        
+        long[] snapshot() {
+            long[] copy = new long[buckets.length()];
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = buckets.get(i);
+            }
+            return copy;
+        }
+        
+        /** Upper bound of the bucket holding the given percentile, 0 if empty. */
+        static long percentile(long[] buckets, double percentile) {
+            long total = 0;
+            for (long count : buckets) {
+                total += count;
+            }
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                seen += buckets[b];
+                if (seen >= rank && seen > 0) {
+                    return b == 0 ? 0 : 1L << Math.min(b, 62);
+                }
+            }
+            return 0;
+        }
+    }
+    
+    static final class Stats {
+        final long acquisitions;
+        final long contended;
+        final long spun;
+        final int maxQueueLength;
+        final long spinNanos;
+        final long[] waitNanos;
+        final long[] holdNanos;
+        
+        Stats(long acquisitions, long contended, long spun, int maxQueueLength, long spinNanos,
+              long[] waitNanos, long[] holdNanos) {
+            this.acquisitions = acquisitions;
+            this.contended = contended;
+            this.spun = spun;
+            this.maxQueueLength = maxQueueLength;
+            this.spinNanos = spinNanos;
+            this.waitNanos = waitNanos;
+            this.holdNanos = holdNanos;
+        }
+        
+        @Override
+        public String toString() {
+            long total = Math.max(acquisitions, 1);
+            return String.format("%d acquisitions, %d%% contended (%d%% spun, %d%% parked),%n"
+                            + "    max queue %d, spin %d ns, wait p50 %s p99 %s, hold p50 %s p99 %s",
+                    acquisitions, contended * 100 / total, spun * 100 / total, (contended - spun) * 100 / total,
+                    maxQueueLength, spinNanos,
+                    format(LogHistogram.percentile(waitNanos, 50)), format(LogHistogram.percentile(waitNanos, 99)),
+                    format(LogHistogram.percentile(holdNanos, 50)), format(LogHistogram.percentile(holdNanos, 99)));
+        }
+        
+        private static String format(long nanos) {
+            return nanos < 10_000 ? nanos + " ns" : nanos < 10_000_000 ? nanos / 1_000 + " us" : nanos / 1_000_000 + " ms";
+        }
+    }
+    
+    static class AdaptiveLock implements Lock {
+        static final int UNBOUNDED = Integer.MAX_VALUE;
+        // Longest spin ever tried: beyond this, a park/unpark is cheaper
+        static final long MAX_SPIN_NANOS = 20_000;
+        private static final boolean MULTI_CORE = Runtime.getRuntime().availableProcessors() > 1;
+        
+        private final Sync sync;
+        
+        /** Unfair: newcomers may always barge. */
+        AdaptiveLock() {
+            this(UNBOUNDED);
+        }
+        
+        /** maxBarges = 0: strict FIFO; otherwise queued threads are overtaken at most maxBarges times in a row. */
+        AdaptiveLock(int maxBarges) {
+            if (maxBarges < 0) {
+                throw new IllegalArgumentException("maxBarges must be >= 0");
+            }
+            sync = new Sync(maxBarges);
+        }
+        
+        /**
+         * state = hold count. Every path in and out of the lock (lock, tryLock,
+         * Condition.await re-acquire) goes through tryAcquire/tryRelease, so
+         * hold times and barging are tracked there; everything else (queueing,
+         * parking, timeouts, interrupts) is AQS.
+         */
+        static final class Sync extends AbstractQueuedSynchronizer {
+            private final int maxBarges;
+            
+            // Written only by the owner, published by the volatile state write in tryRelease
+            private int barges;
+            private long acquiredAt; // 0 = this hold is not sampled
+            
+            private volatile long averageHoldNanos;
+            private final AtomicLongArray counters = new AtomicLongArray(3);
+            private final AtomicInteger maxQueueLength = new AtomicInteger();
+            private final LogHistogram waitNanos = new LogHistogram();
+            private final LogHistogram holdNanos = new LogHistogram();
+            
+            static final int ACQUIRED = 0;
+            static final int CONTENDED = 1;
+            static final int SPUN = 2;
+            static final int HOLD_SAMPLE = 8;
+            
+            Sync(int maxBarges) {
+                this.maxBarges = maxBarges;
+            }
+            
+            @Override
+            protected boolean tryAcquire(int acquires) {
+                return tryAcquire(acquires, false);
+            }
+            
+            /** alwaysBarge: tryLock() semantics, ignore the queue and the barge budget. */
+            boolean tryAcquire(int acquires, boolean alwaysBarge) {
+                Thread current = Thread.currentThread();
+                int c = getState();
+                if (c == 0) {
+                    // Overtaking queued threads is allowed only while the barge budget lasts
+                    boolean overtakes = !alwaysBarge && maxBarges != UNBOUNDED && hasQueuedPredecessors();
+                    if (overtakes && barges >= maxBarges) {
+                        return false;
+                    }
+                    if (compareAndSetState(0, acquires)) {
+                        setExclusiveOwnerThread(current);
+                        barges = overtakes ? barges + 1 : 0;
+                        // System.nanoTime() costs ~20-40 ns: time only every HOLD_SAMPLE-th hold
+                        long acquired = counters.get(ACQUIRED);
+                        acquiredAt = (acquired & (HOLD_SAMPLE - 1)) == 0 ? System.nanoTime() : 0;
+                        counters.lazySet(ACQUIRED, acquired + 1);
+                        return true;
+                    }
+                    return false;
+                }
+                if (current == getExclusiveOwnerThread()) {
+                    int next = c + acquires;
+                    if (next < 0) {
+                        throw new Error("Maximum lock count exceeded");
+                    }
+                    setState(next);
+                    return true;
+                }
+                return false;
+            }
+            
+            @Override
+            protected boolean tryRelease(int releases) {
+                if (Thread.currentThread() != getExclusiveOwnerThread()) {
+                    throw new IllegalMonitorStateException();
+                }
+                int c = getState() - releases;
+                if (c != 0) {
+                    setState(c);
+                    return false;
+                }
+                if (acquiredAt != 0) {
+                    long held = System.nanoTime() - acquiredAt;
+                    holdNanos.recordOwned(held);
+                    // Exponential moving average over roughly the last 8 sampled holds
+                    averageHoldNanos += (held - averageHoldNanos) >> 3;
+                }
+                setExclusiveOwnerThread(null);
+                setState(0);
+                return true;
+            }
+            
+            @Override
+            protected boolean isHeldExclusively() {
+                return getExclusiveOwnerThread() == Thread.currentThread();
+            }
+            
+            /** Spin about as long as the lock is usually held; never if holds are long or on one core. */
+            long spinNanos() {
+                long average = averageHoldNanos;
+                return MULTI_CORE && average <= MAX_SPIN_NANOS ? Math.max(2 * average, 100) : 0;
+            }
+            
+            /** Spins until deadline, retrying whenever the lock looks free. */
+            boolean spinAcquire(long deadline) {
+                while (System.nanoTime() < deadline) {
+                    if (getState() == 0 && tryAcquire(1)) {
+                        return true;
+                    }
+                    Thread.onSpinWait();
+                }
+                return false;
+            }
+            
+            void incrementOwned(int counter) {
+                counters.lazySet(counter, counters.get(counter) + 1);
+            }
+            
+            void sampleQueue() {
+                int length = getQueueLength() + 1; // + this thread, about to enqueue
+                if (length > maxQueueLength.get()) {
+                    maxQueueLength.accumulateAndGet(length, Math::max);
+                }
+            }
+            
+            /** Called by the new owner after a contended acquisition. */
+            void recordWait(long startNanos, boolean spun) {
+                incrementOwned(CONTENDED);
+                if (spun) {
+                    incrementOwned(SPUN);
+                }
+                waitNanos.recordOwned(System.nanoTime() - startNanos);
+            }
+            
+            Condition newCondition() {
+                return new ConditionObject();
+            }
+            
+            int holdCount() {
+                return isHeldExclusively() ? getState() : 0;
+            }
+            
+            Stats stats() {
+                return new Stats(counters.get(ACQUIRED), counters.get(CONTENDED), counters.get(SPUN),
+                        maxQueueLength.get(), spinNanos(), waitNanos.snapshot(), holdNanos.snapshot());
+            }
+        }
+        
+        @Override
+        public void lock() {
+            if (sync.tryAcquire(1)) {
+                return;
+            }
+            long start = System.nanoTime();
+            if (sync.spinAcquire(start + sync.spinNanos())) {
+                sync.recordWait(start, true);
+                return;
+            }
+            sync.sampleQueue();
+            sync.acquire(1);
+            sync.recordWait(start, false);
+        }
+        
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (sync.tryAcquire(1)) {
+                return;
+            }
+            long start = System.nanoTime();
+            if (sync.spinAcquire(start + sync.spinNanos())) {
+                sync.recordWait(start, true);
+                return;
+            }
+            sync.sampleQueue();
+            sync.acquireInterruptibly(1);
+            sync.recordWait(start, false);
+        }
+        
+        /** Like ReentrantLock.tryLock(): barges even when fair, no spinning. */
+        @Override
+        public boolean tryLock() {
+            return sync.tryAcquire(1, true);
+        }
+        
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (sync.tryAcquire(1)) {
+                return true;
+            }
+            long start = System.nanoTime();
+            long timeout = unit.toNanos(time);
+            if (sync.spinAcquire(start + Math.min(sync.spinNanos(), timeout))) {
+                sync.recordWait(start, true);
+                return true;
+            }
+            long remaining = timeout - (System.nanoTime() - start);
+            if (remaining <= 0) {
+                return false;
+            }
+            sync.sampleQueue();
+            if (sync.tryAcquireNanos(1, remaining)) {
+                sync.recordWait(start, false);
+                return true;
+            }
+            return false;
+        }
+        
+        @Override
+        public void unlock() {
+            sync.release(1);
+        }
+        
+        @Override
+        public Condition newCondition() {
+            return sync.newCondition();
+        }
+        
+        boolean isHeldByCurrentThread() {
+            return sync.isHeldExclusively();
+        }
+        
+        int getHoldCount() {
+            return sync.holdCount();
+        }
+        
+        int getQueueLength() {
+            return sync.getQueueLength();
+        }
+        
+        Stats stats() {
+            return sync.stats();
+        }
+    }
+    
+    enum LockType {
+        REENTRANT, REENTRANT_FAIR, ADAPTIVE, ADAPTIVE_BOUNDED;
+        
+        // Barge budget for ADAPTIVE_BOUNDED: a queued thread waits for at most this many newcomers
+        static final int MAX_BARGES = 16;
+        
+        Lock create() {
+            switch (this) {
+                case REENTRANT:
+                    return new ReentrantLock();
+                case REENTRANT_FAIR:
+                    return new ReentrantLock(true);
+                case ADAPTIVE:
+                    return new AdaptiveLock();
+                default:
+                    return new AdaptiveLock(MAX_BARGES);
+            }
+        }
+    }
+    
+    static volatile long sink;
+    
+    /** Simulated critical section of roughly {@code work} cheap operations. */
+    static void criticalSection(long work) {
+        long x = sink;
+        for (long i = 0; i < work; i++) {
+            x = x * 31 + i;
+        }
+        sink = x;
+    }
+    
+    /** lock/criticalSection/unlock from {@code threads} threads for a fixed time; returns M acquisitions/sec. */
+    static double measure(Lock lock, int threads, long work, long millis) throws InterruptedException {
+        LongAdder operations = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] deadline = new long[1];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                long n = 0;
+                while ((n & 255) != 0 || System.nanoTime() < deadline[0]) {
+                    lock.lock();
+                    try {
+                        criticalSection(work);
+                    } finally {
+                        lock.unlock();
+                    }
+                    n++;
+                }
+                operations.add(n);
+            }, "Worker-" + t);
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        deadline[0] = begin + millis * 1_000_000;
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return operations.sum() * 1_000.0 / (System.nanoTime() - begin);
+    }
+    
+    /** Q04's doWork(), but the retry is interruptible instead of an unbounded lock(). */
+    static void doWork(Lock lock, int threadId) {
+        System.out.println("Thread-" + threadId + ": Attempting to acquire lock");
+        try {
+            if (lock.tryLock(1, TimeUnit.SECONDS)) {
+                try {
+                    System.out.println("Thread-" + threadId + ": Lock acquired");
+                    Thread.sleep(2000);
+                } finally {
+                    lock.unlock();
+                    System.out.println("Thread-" + threadId + ": Released lock");
+                }
+                return;
+            }
+            System.out.println("Thread-" + threadId + ": Could not acquire lock, will retry");
+            lock.lockInterruptibly();
+            try {
+                System.out.println("Thread-" + threadId + ": Lock acquired (on retry)");
+                Thread.sleep(1000);
+            } finally {
+                lock.unlock();
+                System.out.println("Thread-" + threadId + ": Released lock (retry)");
+            }
+        } catch (InterruptedException e) {
+            System.out.println("Thread-" + threadId + ": Interrupted while waiting, giving up");
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        AdaptiveLock fairLock = new AdaptiveLock(0);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            int id = i + 1;
+            threads[i] = new Thread(() -> doWork(fairLock, id));
+            threads[i].start();
+            Thread.sleep(100); // Stagger starts
+        }
+        Thread.sleep(1500);
+        threads[3].interrupt(); // still queued behind Thread-2 and Thread-3
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        int workers = Math.max(4, Runtime.getRuntime().availableProcessors());
+        System.out.println("\n" + workers + " threads, M lock/unlock per second:");
+        StringBuilder header = new StringBuilder(String.format("%-6s", "hold"));
+        for (LockType type : LockType.values()) {
+            header.append(String.format("%18s", type));
+        }
+        System.out.println(header);
+        Stats adaptiveShort = null;
+        for (long work : new long[] {10, 2_000}) {
+            StringBuilder row = new StringBuilder(String.format("%-6s", work == 10 ? "short" : "long"));
+            for (LockType type : LockType.values()) {
+                Lock lock = type.create();
+                row.append(String.format("%18.1f", measure(lock, workers, work, 500)));
+                if (type == LockType.ADAPTIVE && adaptiveShort == null) {
+                    adaptiveShort = ((AdaptiveLock) lock).stats();
+                }
+            }
+            System.out.println(row);
+        }
+        System.out.println("ADAPTIVE (short): " + adaptiveShort);
+    }
+}
+
+/*
+KEY CONCEPT: AQS does the hard part, you choose the policy
+- AbstractQueuedSynchronizer owns the wait queue, parking, timeouts,
+  interrupts and Conditions; a lock only defines tryAcquire/tryRelease
+  over an int state (here: the hold count)
+- Park/unpark costs microseconds. If the owner will release sooner than
+  that, spinning is cheaper - but only if it releases on ANOTHER core
+  (no spinning on one CPU) and only for about one typical hold time
+- Fair = no barging: every release is a thread handoff, so throughput
+  drops to the context-switch rate. Unfair = a queued thread can starve.
+  Bounded barging: newcomers overtake at most N times, then the queue wins
+- Stats written only by the lock owner need no CAS: the lock already
+  serializes the writers (lazySet after a plain read)
+- Retries should be lockInterruptibly() or tryLock(timeout), not lock():
+  a thread stuck in lock() cannot be cancelled
+*/
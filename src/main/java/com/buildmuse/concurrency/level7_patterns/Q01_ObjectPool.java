@@ -0,0 +1,419 @@
+package com.buildmuse.concurrency.level7_patterns;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * PROBLEM: Object Pool (real connection pool)
+ *
+ * Level 6 Q03's ConnectionPool only counts permits - it never hands out an
+ * object, so every "connection" is recreated by the caller.
+ *
+ * Build a genuine pool of reusable objects:
+ * - borrow(timeout) / release via try-with-resources
+ * - Thread-local fast path: a thread first tries the object it returned last
+ * - Lock-free idle stack (Treiber stack) for everything else
+ * - Validation on borrow: broken objects are destroyed and replaced
+ * - min/max size: grows on demand, a housekeeper shrinks idle objects back
+ *   to min after idleTimeout
+ * - Metrics: wait time, utilization, timeouts, created/destroyed
+ *
+ * EXPECTED OUTPUT:
+ * Thread-1: Borrowed Connection-1
+ * Thread-2: Borrowed Connection-2
+ * Thread-3: Borrowed Connection-3
+ * Thread-1: Released Connection-1
+ * Thread-4: Borrowed Connection-1     <- reused, not recreated
+ * ...
+ * PoolStats{total=3, idle=3, inUse=0, created=3, ...}
+ *
+ * LEARNING:
+ * - Semaphore bounds borrowers, the pool owns the objects
+ * - Per-object state + CAS decides ownership, no pool-wide lock
+ * - Thread affinity (ThreadLocal) makes the common case contention-free
+ */
+public class Q01_ObjectPool {
+    
+    static class ObjectPool<T> {
+        
+        private static final int IDLE = 0;
+        private static final int IN_USE = 1;
+        private static final int REMOVED = 2;
+        
+        /** Pool bookkeeping around one object. */
+        final class Entry implements AutoCloseable {
+            final T object;
+            final AtomicInteger state = new AtomicInteger(IN_USE);
+            // True while a node for this entry sits in the idle stack (prevents duplicates)
+            final AtomicBoolean stacked = new AtomicBoolean();
+            volatile long lastReleasedNanos = System.nanoTime();
+            
+            Entry(T object) {
+                this.object = object;
+            }
+            
+            public T get() {
+                return object;
+            }
+            
+            /** Returns the object to the pool. */
+            @Override
+            public void close() {
+                release(this);
+            }
+        }
+        
+        private static final class Node<E> {
+            final E item;
+            Node<E> next;
+            
+            Node(E item) {
+                this.item = item;
+            }
+        }
+        
+        private final Supplier<T> factory;
+        private final Predicate<T> validator;
+        private final Consumer<T> destroyer;
+        private final int minSize;
+        private final int maxSize;
+        private final long idleTimeoutNanos;
+        
+        private final Semaphore borrowers;
+        private final AtomicReference<Node<Entry>> idleStack = new AtomicReference<>();
+        private final CopyOnWriteArrayList<Entry> all = new CopyOnWriteArrayList<>();
+        private final AtomicInteger total = new AtomicInteger();
+        private final ThreadLocal<Entry> lastReleased = new ThreadLocal<>();
+        private final ScheduledExecutorService housekeeper;
+        
+        private final LongAdder borrows = new LongAdder();
+        private final LongAdder threadLocalHits = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder created = new LongAdder();
+        private final LongAdder destroyed = new LongAdder();
+        private final LongAdder totalWaitNanos = new LongAdder();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        
+        ObjectPool(Supplier<T> factory, Predicate<T> validator, Consumer<T> destroyer,
+                   int minSize, int maxSize, long idleTimeout, TimeUnit unit) {
+            if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+                throw new IllegalArgumentException("min=" + minSize + ", max=" + maxSize);
+            }
+            this.factory = factory;
+            this.validator = validator;
+            this.destroyer = destroyer;
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+            this.borrowers = new Semaphore(maxSize, true);
+            
+            for (int i = 0; i < minSize; i++) {
+                Entry entry = tryCreate();
+                entry.state.set(IDLE);
+                pushIdle(entry);
+            }
+            this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "pool-housekeeper");
+                t.setDaemon(true);
+                return t;
+            });
+            long period = Math.max(1, unit.toMillis(idleTimeout) / 2);
+            housekeeper.scheduleWithFixedDelay(this::shrink, period, period, TimeUnit.MILLISECONDS);
+        }
+        
+        /**
+         * Borrows an object, waiting at most timeout for one to become free.
+         * Use with try-with-resources so it is always returned.
+         */
+        public Entry borrow(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+            long start = System.nanoTime();
+            if (!borrowers.tryAcquire(timeout, unit)) {
+                timeouts.increment();
+                throw new TimeoutException("no object available within " + timeout + " " + unit);
+            }
+            recordWait(System.nanoTime() - start);
+            try {
+                Entry entry = acquireEntry();
+                borrows.increment();
+                return entry;
+            } catch (RuntimeException | Error e) {
+                borrowers.release();
+                throw e;
+            }
+        }
+        
+        /** Holding a permit guarantees an idle entry exists or there is room to create one. */
+        private Entry acquireEntry() {
+            // 1. Fast path: what this thread returned last time
+            Entry local = lastReleased.get();
+            if (local != null && local.state.compareAndSet(IDLE, IN_USE)) {
+                if (validate(local)) {
+                    threadLocalHits.increment();
+                    return local;
+                }
+            }
+            while (true) {
+                // 2. Shared idle stack
+                Entry entry;
+                while ((entry = popIdle()) != null) {
+                    if (entry.state.compareAndSet(IDLE, IN_USE) && validate(entry)) {
+                        return entry;
+                    }
+                }
+                // 3. Grow
+                Entry fresh = tryCreate();
+                if (fresh != null) {
+                    return fresh;
+                }
+                // An idle entry is being pushed by a concurrent release
+                Thread.onSpinWait();
+            }
+        }
+        
+        /** Destroys the entry and returns false if the object is broken. */
+        private boolean validate(Entry entry) {
+            if (validator.test(entry.object)) {
+                return true;
+            }
+            destroy(entry);
+            return false;
+        }
+        
+        private Entry tryCreate() {
+            int n;
+            do {
+                n = total.get();
+                if (n >= maxSize) {
+                    return null;
+                }
+            } while (!total.compareAndSet(n, n + 1));
+            try {
+                Entry entry = new Entry(factory.get());
+                all.add(entry);
+                created.increment();
+                return entry;
+            } catch (RuntimeException | Error e) {
+                total.decrementAndGet();
+                throw e;
+            }
+        }
+        
+        private void destroy(Entry entry) {
+            entry.state.set(REMOVED);
+            if (all.remove(entry)) {
+                total.decrementAndGet();
+                destroyed.increment();
+                destroyer.accept(entry.object);
+            }
+        }
+        
+        void release(Entry entry) {
+            if (!entry.state.compareAndSet(IN_USE, IDLE)) {
+                throw new IllegalStateException("object released twice");
+            }
+            entry.lastReleasedNanos = System.nanoTime();
+            lastReleased.set(entry);
+            pushIdle(entry);
+            borrowers.release(); // after the entry is findable
+        }
+        
+        private void pushIdle(Entry entry) {
+            if (!entry.stacked.compareAndSet(false, true)) {
+                return; // its old node is still in the stack
+            }
+            Node<Entry> node = new Node<>(entry);
+            Node<Entry> head;
+            do {
+                head = idleStack.get();
+                node.next = head;
+            } while (!idleStack.compareAndSet(head, node));
+        }
+        
+        private Entry popIdle() {
+            Node<Entry> head;
+            do {
+                head = idleStack.get();
+                if (head == null) {
+                    return null;
+                }
+            } while (!idleStack.compareAndSet(head, head.next));
+            // Clear the flag BEFORE the caller CASes the state, so a release
+            // racing with a failed CAS pushes the entry again
+            head.item.stacked.set(false);
+            return head.item;
+        }
+        
+        /** Housekeeper: destroy entries idle longer than idleTimeout, down to minSize. */
+        private void shrink() {
+            long now = System.nanoTime();
+            for (Entry entry : all) {
+                if (total.get() <= minSize) {
+                    return;
+                }
+                if (now - entry.lastReleasedNanos > idleTimeoutNanos
+                        && entry.state.compareAndSet(IDLE, REMOVED)) {
+                    destroy(entry); // its stale stack node is skipped by popIdle's caller
+                }
+            }
+        }
+        
+        private void recordWait(long nanos) {
+            totalWaitNanos.add(nanos);
+            long max;
+            while (nanos > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, nanos)) {
+                // retry
+            }
+        }
+        
+        public void shutdown() {
+            housekeeper.shutdownNow();
+            for (Entry entry : all) {
+                if (entry.state.compareAndSet(IDLE, REMOVED)) {
+                    destroy(entry);
+                }
+            }
+        }
+        
+        public PoolStats stats() {
+            int totalNow = total.get();
+            int inUse = maxSize - borrowers.availablePermits();
+            return new PoolStats(totalNow, Math.max(0, totalNow - inUse), inUse, borrows.sum(),
+                    threadLocalHits.sum(), timeouts.sum(), created.sum(), destroyed.sum(),
+                    totalWaitNanos.sum(), maxWaitNanos.get(), maxSize);
+        }
+    }
+    
+    static class PoolStats {
+        final int total;
+        final int idle;
+        final int inUse;
+        final long borrows;
+        final long threadLocalHits;
+        final long timeouts;
+        final long created;
+        final long destroyed;
+        final long totalWaitNanos;
+        final long maxWaitNanos;
+        final int maxSize;
+        
+        PoolStats(int total, int idle, int inUse, long borrows, long threadLocalHits, long timeouts,
+                  long created, long destroyed, long totalWaitNanos, long maxWaitNanos, int maxSize) {
+            this.total = total;
+            this.idle = idle;
+            this.inUse = inUse;
+            this.borrows = borrows;
+            this.threadLocalHits = threadLocalHits;
+            this.timeouts = timeouts;
+            this.created = created;
+            this.destroyed = destroyed;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.maxSize = maxSize;
+        }
+        
+        /** Borrowed objects as a fraction of the maximum pool size. */
+        double utilization() {
+            return (double) inUse / maxSize;
+        }
+        
+        double averageWaitMillis() {
+            return borrows == 0 ? 0.0 : totalWaitNanos / 1e6 / borrows;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("PoolStats{total=%d, idle=%d, inUse=%d, utilization=%.0f%%, borrows=%d, "
+                    + "threadLocalHits=%d, timeouts=%d, created=%d, destroyed=%d, avgWait=%.1fms, maxWait=%.1fms}",
+                    total, idle, inUse, utilization() * 100, borrows, threadLocalHits, timeouts,
+                    created, destroyed, averageWaitMillis(), maxWaitNanos / 1e6);
+        }
+    }
+    
+    static class Connection {
+        private static final AtomicInteger IDS = new AtomicInteger();
+        final String name = "Connection-" + IDS.incrementAndGet();
+        volatile boolean open = true;
+        
+        boolean isValid() {
+            return open;
+        }
+        
+        void close() {
+            open = false;
+        }
+        
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        ObjectPool<Connection> pool = new ObjectPool<>(Connection::new, Connection::isValid,
+                Connection::close, 0, 3, 1, TimeUnit.SECONDS);
+        
+        // Same scenario as Level 6 Q03: 5 threads, 3 connections
+        Thread[] threads = new Thread[5];
+        for (int i = 1; i <= 5; i++) {
+            final int threadId = i;
+            threads[i - 1] = new Thread(() -> {
+                try (ObjectPool<Connection>.Entry connection = pool.borrow(5, TimeUnit.SECONDS)) {
+                    System.out.println("Thread-" + threadId + ": Borrowed " + connection.get());
+                    Thread.sleep(500);
+                    System.out.println("Thread-" + threadId + ": Released " + connection.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (TimeoutException e) {
+                    System.out.println("Thread-" + threadId + ": " + e.getMessage());
+                }
+            });
+            threads[i - 1].start();
+            Thread.sleep(10);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        System.out.println(pool.stats());
+        
+        System.out.println("\nBreaking one connection, borrow validates and replaces it...");
+        try (ObjectPool<Connection>.Entry connection = pool.borrow(1, TimeUnit.SECONDS)) {
+            connection.get().close();
+            System.out.println("main: Broke " + connection.get());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException(e);
+        }
+        try (ObjectPool<Connection>.Entry connection = pool.borrow(1, TimeUnit.SECONDS)) {
+            System.out.println("main: Borrowed " + connection.get());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException(e);
+        }
+        
+        System.out.println("\nIdle for 2s, pool shrinks to minSize=0...");
+        Thread.sleep(2_000);
+        System.out.println(pool.stats());
+        pool.shutdown();
+    }
+}
+
+/*
+KEY CONCEPT: Permits bound borrowers, CAS decides ownership
+- Semaphore(max) limits concurrent borrowers; holding a permit guarantees an
+  idle object exists or there is room to create one
+- Each entry has a state (IDLE / IN_USE / REMOVED); whoever wins
+  IDLE -> IN_USE owns it, whether it came from the ThreadLocal or the stack
+- The idle stack may hold stale nodes (already taken, or removed); they are
+  skipped when the CAS fails. The 'stacked' flag keeps it from growing.
+- Release order matters: mark IDLE, make it findable, THEN release the permit
+*/
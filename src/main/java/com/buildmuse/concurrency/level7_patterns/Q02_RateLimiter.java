@@ -0,0 +1,548 @@
+package com.buildmuse.concurrency.level7_patterns;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * PROBLEM: Rate Limiter
+ *
+ * Level 6 Q03 says semaphores are "perfect for rate limiting" - but a
+ * semaphore limits CONCURRENCY, not RATE. Build real rate limiters:
+ *
+ * - TokenBucket:          rate + burst, implemented as GCRA (one AtomicLong)
+ * - LeakyBucket:          constant output rate, callers queue for a slot
+ * - SlidingWindowLog:     exact "at most N in any window" (ring of timestamps)
+ * - SlidingWindowCounter: approximate, two weighted fixed windows (one CAS)
+ *
+ * All of them: non-blocking tryAcquire(n), blocking acquire(n, timeout),
+ * no locks - every decision is a compare-and-set.
+ * KeyedRateLimiter adds per-key limiters with idle-key eviction.
+ *
+ * EXPECTED OUTPUT:
+ * TokenBucket(5/s, burst 3): burst of 3, then one every 200 ms
+ *   Request  1 at    0 ms: allowed
+ *   ...
+ *   Request  5 at  265 ms: rejected
+ * ...
+ * SlidingWindowLog(16 per hour), 32 racing threads x 200 rounds: 16-16 (1 permit), 16-16 (4 permits) granted ✓
+ * ...
+ * alice: true, true, false | bob: true
+ * Keys after idle eviction: 0 (evicted 2)
+ *
+ * tryAcquire throughput (8 threads, 1 s each):
+ *   TokenBucket          : 40.0 M calls/s
+ *
+ * LEARNING:
+ * - Rate limiting = time arithmetic, not counting permits
+ * - Pack all state into one word -> one CAS per decision, no lock
+ * - Exact (log) vs approximate (counter) windows: memory vs accuracy
+ */
+public class Q02_RateLimiter {
+    
+    interface RateLimiter {
+        /** Takes n permits if available right now. Never blocks. */
+        boolean tryAcquire(int permits);
+        
+        /** Lower bound on how long until n permits could be available. */
+        long estimateWaitNanos(int permits);
+        
+        default boolean tryAcquire() {
+            return tryAcquire(1);
+        }
+        
+        /** Waits up to timeout for n permits. */
+        default boolean acquire(int permits, long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!tryAcquire(permits)) {
+                long remaining = deadline - System.nanoTime();
+                long wait = Math.max(estimateWaitNanos(permits), 1_000);
+                if (wait > remaining) {
+                    return false; // cannot succeed in time, fail now instead of sleeping
+                }
+                LockSupport.parkNanos(this, wait);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            return true;
+        }
+    }
+    
+    /** Monotonic clock, offset so it starts well above zero. */
+    static long now() {
+        return System.nanoTime() - ORIGIN;
+    }
+    
+    private static final long ORIGIN = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+    
+    /**
+     * Token bucket via GCRA (generic cell rate algorithm).
+     *
+     * Instead of (tokens, lastRefill) we keep one number: the "theoretical
+     * arrival time" (tat) at which the bucket would be full again.
+     * Taking n tokens pushes tat forward by n * interval; a request is allowed
+     * while tat stays within burst * interval of now.
+     */
+    static class TokenBucket implements RateLimiter {
+        private final long intervalNanos; // time to refill one token
+        private final long burstNanos;    // bucket capacity, in time
+        private final AtomicLong tat = new AtomicLong(0);
+        
+        TokenBucket(double permitsPerSecond, int burst) {
+            this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+            this.burstNanos = intervalNanos * burst;
+        }
+        
+        public boolean tryAcquire(int permits) {
+            long cost = permits * intervalNanos;
+            while (true) {
+                long now = now();
+                long current = tat.get();
+                long next = Math.max(current, now) + cost;
+                if (next - now > burstNanos) {
+                    return false;
+                }
+                if (tat.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+        
+        public long estimateWaitNanos(int permits) {
+            long now = now();
+            long next = Math.max(tat.get(), now) + permits * intervalNanos;
+            return Math.max(0, next - now - burstNanos);
+        }
+    }
+    
+    /**
+     * Leaky bucket as a queue: requests leave at exactly one per interval,
+     * no bursts. acquire() reserves the next free slot and sleeps until it;
+     * requests that would wait longer than queueCapacity slots are rejected.
+     */
+    static class LeakyBucket implements RateLimiter {
+        private final long intervalNanos;
+        private final long maxQueueNanos;
+        private final AtomicLong nextFree = new AtomicLong(0); // time the next slot leaks out
+        
+        LeakyBucket(double permitsPerSecond, int queueCapacity) {
+            this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+            this.maxQueueNanos = intervalNanos * queueCapacity;
+        }
+        
+        /** Only succeeds if a slot is free right now. */
+        public boolean tryAcquire(int permits) {
+            return reserve(permits, 0) == 0;
+        }
+        
+        /**
+         * Reserves the next slot if it starts within maxWait; returns the delay
+         * until it, or -1 if rejected.
+         */
+        private long reserve(int permits, long maxWaitNanos) {
+            while (true) {
+                long now = now();
+                long current = nextFree.get();
+                long start = Math.max(current, now);
+                long delay = start - now;
+                if (delay > Math.min(maxWaitNanos, maxQueueNanos)) {
+                    return -1;
+                }
+                if (nextFree.compareAndSet(current, start + permits * intervalNanos)) {
+                    return delay;
+                }
+            }
+        }
+        
+        public long estimateWaitNanos(int permits) {
+            return Math.max(0, nextFree.get() - now());
+        }
+        
+        /** Shapes traffic: waits for the reserved slot instead of polling. */
+        @Override
+        public boolean acquire(int permits, long timeout, TimeUnit unit) throws InterruptedException {
+            long delay = reserve(permits, unit.toNanos(timeout));
+            if (delay < 0) {
+                return false;
+            }
+            if (delay > 0) {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            }
+            return true;
+        }
+    }
+    
+    /**
+     * Exact sliding window: at most 'limit' permits in any window.
+     * A ring holds the timestamps of the last 'limit' permits; a permit is
+     * granted by CAS-ing a slot from a timestamp older than the window to
+     * now - the check and the stamp are one atomic step, so two callers can
+     * never both take the same expired slot. A slot only ever moves forward
+     * by at least a window, so each slot grants at most once per window.
+     * Callers claim their slots by CAS-ing the cursor forward first, so
+     * concurrent callers stamp different slots instead of rejecting on a
+     * slot another caller just took.
+     * Memory is O(limit), so use it for small limits.
+     */
+    static class SlidingWindowLog implements RateLimiter {
+        private final long windowNanos;
+        private final int limit;
+        private final AtomicLongArray timestamps;
+        private final AtomicLong sequence = new AtomicLong();
+        
+        SlidingWindowLog(int limit, long window, TimeUnit unit) {
+            this.limit = limit;
+            this.windowNanos = unit.toNanos(window);
+            this.timestamps = new AtomicLongArray(limit);
+            // "Very old" so the first 'limit' permits are free
+            long empty = now() - windowNanos - 1;
+            for (int i = 0; i < limit; i++) {
+                timestamps.set(i, empty);
+            }
+        }
+        
+        public boolean tryAcquire(int permits) {
+            if (permits > limit) {
+                return false;
+            }
+            while (true) {
+                long now = now();
+                long seq = sequence.get();
+                if (!expired(seq, permits, now)) {
+                    if (sequence.get() == seq) {
+                        return false; // rejections never write
+                    }
+                    continue; // stale cursor: those slots were someone else's
+                }
+                if (!sequence.compareAndSet(seq, seq + permits)) {
+                    continue; // another caller took these slots
+                }
+                // Only a caller a full ring ahead can still race us for a slot
+                int claimed = 0;
+                while (claimed < permits) {
+                    int slot = (int) ((seq + claimed) % limit);
+                    long old = timestamps.get(slot);
+                    if (now - old < windowNanos || !timestamps.compareAndSet(slot, old, now)) {
+                        break; // lapped
+                    }
+                    claimed++;
+                }
+                if (claimed == permits) {
+                    return true;
+                }
+                // Give back what we took: just expired, so never earlier than its last grant
+                for (int i = 0; i < claimed; i++) {
+                    timestamps.compareAndSet((int) ((seq + i) % limit), now, now - windowNanos);
+                }
+            }
+        }
+        
+        /** Whether all of the slots [seq, seq + permits) are outside the window. */
+        private boolean expired(long seq, int permits, long now) {
+            for (int i = permits - 1; i >= 0; i--) {
+                if (now - timestamps.get((int) ((seq + i) % limit)) < windowNanos) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        public long estimateWaitNanos(int permits) {
+            long seq = sequence.get();
+            long newest = timestamps.get((int) ((seq + permits - 1) % limit));
+            return Math.max(0, newest + windowNanos - now());
+        }
+    }
+    
+    /**
+     * Approximate sliding window: count in the current fixed window plus the
+     * previous window's count weighted by how much of it still overlaps.
+     * Each of the two buckets packs (windowId << 32 | count) into one long.
+     * Window ids count from construction and only their low 32 bits are
+     * kept and compared; windows of at least 1 ms keep a wrap-around
+     * (a bucket idle for exactly 2^32 windows, ~49 days) out of reach.
+     */
+    static class SlidingWindowCounter implements RateLimiter {
+        private final long windowNanos;
+        private final int limit;
+        private final long epoch = now();
+        private final AtomicLongArray buckets = new AtomicLongArray(2);
+        
+        SlidingWindowCounter(int limit, long window, TimeUnit unit) {
+            if (unit.toNanos(window) < TimeUnit.MILLISECONDS.toNanos(1)) {
+                throw new IllegalArgumentException("window must be at least 1 ms");
+            }
+            this.limit = limit;
+            this.windowNanos = unit.toNanos(window);
+        }
+        
+        private static long pack(long windowId, int count) {
+            return ((long) (int) windowId << 32) | (count & 0xFFFFFFFFL);
+        }
+        
+        private static int id(long packed) {
+            return (int) (packed >>> 32);
+        }
+        
+        private static int count(long packed) {
+            return (int) packed;
+        }
+        
+        private double estimate(long windowId, long now, long current) {
+            long prev = buckets.get((int) ((windowId - 1) & 1));
+            int prevCount = id(prev) == (int) (windowId - 1) ? count(prev) : 0;
+            int curCount = id(current) == (int) windowId ? count(current) : 0;
+            double overlap = 1.0 - (double) ((now - epoch) % windowNanos) / windowNanos;
+            return prevCount * overlap + curCount;
+        }
+        
+        public boolean tryAcquire(int permits) {
+            while (true) {
+                long now = now();
+                long windowId = (now - epoch) / windowNanos;
+                int index = (int) (windowId & 1);
+                long current = buckets.get(index);
+                if (estimate(windowId, now, current) + permits > limit) {
+                    return false;
+                }
+                int curCount = id(current) == (int) windowId ? count(current) : 0; // stale bucket restarts at 0
+                long next = pack(windowId, curCount + permits);
+                if (buckets.compareAndSet(index, current, next)) {
+                    return true;
+                }
+            }
+        }
+        
+        public long estimateWaitNanos(int permits) {
+            // Capacity frees up gradually as the previous window slides out
+            return windowNanos / Math.max(1, limit);
+        }
+    }
+    
+    /**
+     * One limiter per key (user, IP, API key...). Keys idle for longer than
+     * idleTimeout are evicted by a background sweep so the map does not grow
+     * forever.
+     */
+    static class KeyedRateLimiter<K> {
+        private static final class Holder {
+            final RateLimiter limiter;
+            volatile long lastAccess;
+            
+            Holder(RateLimiter limiter, long now) {
+                this.limiter = limiter;
+                this.lastAccess = now;
+            }
+        }
+        
+        // lastAccess is only rewritten when it is this stale, so hot keys don't
+        // turn every tryAcquire into an extra shared write
+        private static final long ACCESS_GRANULARITY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+        
+        private final ConcurrentHashMap<K, Holder> limiters = new ConcurrentHashMap<>();
+        private final Function<K, RateLimiter> factory;
+        private final long idleTimeoutNanos;
+        private final ScheduledExecutorService sweeper;
+        private final LongAdder evictions = new LongAdder();
+        
+        KeyedRateLimiter(Function<K, RateLimiter> factory, long idleTimeout, TimeUnit unit) {
+            this.factory = factory;
+            this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+            this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "rate-limiter-sweeper");
+                t.setDaemon(true);
+                return t;
+            });
+            long period = Math.max(1, unit.toMillis(idleTimeout) / 2);
+            sweeper.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        }
+        
+        private RateLimiter limiter(K key) {
+            long now = now();
+            Holder holder = limiters.get(key);
+            if (holder == null) {
+                holder = limiters.computeIfAbsent(key, k -> new Holder(factory.apply(k), now));
+            } else if (now - holder.lastAccess > ACCESS_GRANULARITY_NANOS) {
+                holder.lastAccess = now;
+            }
+            return holder.limiter;
+        }
+        
+        public boolean tryAcquire(K key, int permits) {
+            return limiter(key).tryAcquire(permits);
+        }
+        
+        public boolean acquire(K key, int permits, long timeout, TimeUnit unit) throws InterruptedException {
+            return limiter(key).acquire(permits, timeout, unit);
+        }
+        
+        void evictIdle() {
+            long now = now();
+            limiters.forEach((key, holder) -> {
+                // remove(key, holder): don't drop a holder that was just replaced
+                if (now - holder.lastAccess > idleTimeoutNanos && limiters.remove(key, holder)) {
+                    evictions.increment();
+                }
+            });
+        }
+        
+        public int size() {
+            return limiters.size();
+        }
+        
+        public long evictions() {
+            return evictions.sum();
+        }
+        
+        public void shutdown() {
+            sweeper.shutdownNow();
+        }
+    }
+    
+    static void demo(String title, RateLimiter limiter) throws InterruptedException {
+        System.out.println(title);
+        long start = System.nanoTime();
+        for (int i = 1; i <= 10; i++) {
+            boolean allowed = limiter.tryAcquire();
+            System.out.printf("  Request %2d at %4d ms: %s%n", i,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), allowed ? "allowed" : "rejected");
+            Thread.sleep(50);
+        }
+    }
+    
+    /**
+     * limit + extra threads race for permits inside one window, round after
+     * round; returns the fewest and the most permits any round granted. With
+     * permits dividing limit, both must be exactly limit.
+     */
+    static int[] grantedInOneWindow(int limit, int extra, int permits, int rounds) throws InterruptedException {
+        int fewest = Integer.MAX_VALUE;
+        int most = 0;
+        for (int round = 0; round < rounds; round++) {
+            SlidingWindowLog limiter = new SlidingWindowLog(limit, 1, TimeUnit.HOURS);
+            AtomicLong granted = new AtomicLong();
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] callers = new Thread[limit + extra];
+            for (int t = 0; t < callers.length; t++) {
+                callers[t] = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    while (limiter.tryAcquire(permits)) {
+                        granted.addAndGet(permits);
+                    }
+                });
+                callers[t].start();
+            }
+            start.countDown();
+            for (Thread caller : callers) {
+                caller.join();
+            }
+            fewest = Math.min(fewest, (int) granted.get());
+            most = Math.max(most, (int) granted.get());
+        }
+        return new int[] {fewest, most};
+    }
+    
+    /** Calls tryAcquire from several threads for a fixed time; returns calls per second. */
+    static double throughput(RateLimiter limiter, int threads, long millis) throws InterruptedException {
+        LongAdder calls = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] deadline = new long[1];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                long n = 0;
+                while ((n & 1023) != 0 || System.nanoTime() < deadline[0]) {
+                    limiter.tryAcquire();
+                    n++;
+                }
+                calls.add(n);
+            });
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        deadline[0] = begin + TimeUnit.MILLISECONDS.toNanos(millis);
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return calls.sum() * 1e9 / (System.nanoTime() - begin);
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        demo("TokenBucket(5/s, burst 3): burst of 3, then one every 200 ms",
+                new TokenBucket(5, 3));
+        demo("LeakyBucket(5/s): one every 200 ms, no burst",
+                new LeakyBucket(5, 10));
+        demo("SlidingWindowLog(4 per second): exactly 4 in any 1 s window",
+                new SlidingWindowLog(4, 1, TimeUnit.SECONDS));
+        demo("SlidingWindowCounter(4 per second): approximately 4 per window",
+                new SlidingWindowCounter(4, 1, TimeUnit.SECONDS));
+        
+        int[] single = grantedInOneWindow(16, 16, 1, 200);
+        int[] batch = grantedInOneWindow(16, 16, 4, 200);
+        boolean exact = single[0] == 16 && single[1] == 16 && batch[0] == 16 && batch[1] == 16;
+        System.out.printf("SlidingWindowLog(16 per hour), 32 racing threads x 200 rounds: %d-%d (1 permit), "
+                + "%d-%d (4 permits) granted %s%n", single[0], single[1], batch[0], batch[1],
+                exact ? "✓" : single[1] > 16 || batch[1] > 16 ? "✗ OVER LIMIT" : "✗ UNDER LIMIT");
+        
+        LeakyBucket shaper = new LeakyBucket(10, 100);
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            shaper.acquire(1, 1, TimeUnit.SECONDS);
+        }
+        System.out.println("LeakyBucket(10/s) acquire x5 took "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms (shaped, ~400)");
+        
+        KeyedRateLimiter<String> perUser = new KeyedRateLimiter<>(k -> new TokenBucket(2, 2), 200,
+                TimeUnit.MILLISECONDS);
+        System.out.println("alice: " + perUser.tryAcquire("alice", 1) + ", " + perUser.tryAcquire("alice", 1)
+                + ", " + perUser.tryAcquire("alice", 1) + " | bob: " + perUser.tryAcquire("bob", 1));
+        Thread.sleep(600);
+        System.out.println("Keys after idle eviction: " + perUser.size() + " (evicted " + perUser.evictions() + ")");
+        perUser.shutdown();
+        
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%ntryAcquire throughput (%d threads, 1 s each):%n", threads);
+        System.out.printf("  TokenBucket          : %.1f M calls/s%n",
+                throughput(new TokenBucket(1e9, 1000), threads, 1000) / 1e6);
+        System.out.printf("  SlidingWindowCounter : %.1f M calls/s%n",
+                throughput(new SlidingWindowCounter(Integer.MAX_VALUE / 2, 1, TimeUnit.SECONDS), threads, 1000) / 1e6);
+    }
+}
+
+/*
+KEY CONCEPT: Rate = time arithmetic in one atomic word
+- Semaphore: "at most N at the same time". Rate limiter: "at most N per second".
+- GCRA stores a single timestamp; allow = CAS it forward by cost * interval
+  if it stays within the burst. No refill thread, no lock.
+- Leaky bucket reserves future slots: acquire() sleeps until its slot, so
+  output is perfectly smooth.
+- Window log is exact but O(limit) memory; window counter is O(1) and
+  assumes requests in the previous window were evenly spread.
+- The log checks AND stamps a slot in one CAS (expired -> now): checking
+  the slot and then stamping it in a second write lets two callers both
+  grab the same expired slot and over-grant.
+- Rejections never write shared memory, so an over-limit flood (the common
+  attack case) scales across cores.
+- Per-key: ConcurrentHashMap + background idle sweep; remove(key, holder)
+  never drops a holder that was replaced concurrently.
+*/
@@ -0,0 +1,683 @@
+package com.buildmuse.concurrency.level7_patterns;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * PROBLEM: Hot-Path Metrics for Executors, Locks, Semaphores and Queues
+ *
+ * Level 5 Q01's executor, Level 6 Q03's ConnectionPool, Level 3 Q02's
+ * SharedQueue and Level 6 Q04's lock report nothing but println. "How long
+ * do tasks wait in the queue? How long is the lock held? p99?" - no answer.
+ *
+ * Build a small metrics layer:
+ * - Counters: LongAdder (the JDK's striped counter, see Level 2 Q06)
+ * - Histogram: HDR-style log-linear buckets (16 per power of two, < 7%
+ *   error), a FIXED set of recorder arrays picked by thread id (striped
+ *   like LongAdder), merged only on snapshot()
+ * - Recording allocates nothing - not even for a brand new thread, which
+ *   is every task with virtual-thread-per-task or a cached pool
+ * - Instrumented wrappers:
+ *   InstrumentedExecutor  - queue depth, queue wait, run time
+ *   InstrumentedLock      - acquire wait, hold time
+ *   InstrumentedSemaphore - permit wait, timeouts, permits in use
+ *   InstrumentedQueue     - occupancy, put/take blocking time
+ *
+ * EXPECTED OUTPUT:
+ * executor: submitted=2000 completed=2000 failed=0 depth=0
+ *   queue wait  n=2000 p50=671.1ms p99=1254.2ms max=1254.2ms
+ *   run time    n=2000 p50=2.5ms p99=6.8ms max=18.4ms
+ * lock: timeouts=0
+ *   acquire     n=2000 p50=159ns p99=1us max=2.7ms
+ *   hold        n=2000 p50=51us p99=63us max=6.0ms
+ * semaphore: permits=3 inUse=0 timeouts=0
+ *   permit wait n=2000 p50=367ns p99=172us max=1.4ms
+ * queue: size=0 remaining=10
+ *   occupancy   n=2000 p50=10 p99=10 max=10
+ *   put wait    n=2000 p50=1.3ms p99=5.2ms max=17.3ms
+ *   take wait   n=2000 p50=4us p99=196us max=23.1ms
+ * virtual-thread-per-task: 100000 tasks recorded into 16 of 16 stripes
+ *
+ * LEARNING:
+ * - Shared counters and histograms become the contention you measure
+ * - Striped recording: write locally, pay for merging only when reading
+ * - Percentiles need a histogram; averages hide the tail
+ */
+public class Q03_Metrics {
+    
+    /**
+     * Log-linear histogram of non-negative longs (typically nanos). Threads
+     * record into one of a fixed number of stripes (AtomicLongArrays),
+     * chosen by hashing the thread id, and snapshot() sums the stripes.
+     * Memory is bounded by the stripe count, not by how many threads ever
+     * recorded, and a new thread costs nothing. Limits: two threads hashed
+     * to the same stripe share its cache lines (atomic adds, so no counts
+     * are lost, but they contend), and a stripe is ~7.7 KB, created on
+     * first use.
+     */
+    static final class Histogram {
+        static final int SUB_BITS = 4;
+        static final int SUB_COUNT = 1 << SUB_BITS;
+        static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+        // Extra slots after the buckets in each stripe
+        private static final int SUM = BUCKETS;
+        private static final int MAX = BUCKETS + 1;
+        // ~2 stripes per CPU keeps collisions rare; capped to bound memory
+        static final int STRIPES = Math.min(64,
+                Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 4 - 1));
+        
+        private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<>(STRIPES);
+        
+        private AtomicLongArray stripe() {
+            long id = Thread.currentThread().threadId();
+            int i = (int) ((id * 0x9E3779B97F4A7C15L) >>> 40) & (STRIPES - 1);
+            AtomicLongArray counts = stripes.get(i);
+            if (counts == null) {
+                stripes.compareAndSet(i, null, new AtomicLongArray(BUCKETS + 2)); // once per stripe
+                counts = stripes.get(i);
+            }
+            return counts;
+        }
+        
+        /** Exact below SUB_COUNT, then SUB_COUNT buckets per power of two. */
+        static int index(long value) {
+            if (value < SUB_COUNT) {
+                return (int) Math.max(value, 0);
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) & (SUB_COUNT - 1));
+        }
+        
+        /** Largest value that falls into bucket index. */
+        static long highestValue(int index) {
+            if (index < SUB_COUNT) {
+                return index;
+            }
+            int shift = (index >> SUB_BITS) - 1;
+            long lowest = (long) (SUB_COUNT + (index & (SUB_COUNT - 1))) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+        
+        void record(long value) {
+            AtomicLongArray counts = stripe();
+            counts.getAndIncrement(index(value));
+            counts.getAndAdd(SUM, value);
+            long max;
+            while (value > (max = counts.get(MAX)) && !counts.compareAndSet(MAX, max, value)) {
+                // another thread on this stripe raised the max; re-check
+            }
+        }
+        
+        int stripesInUse() {
+            int used = 0;
+            for (int s = 0; s < STRIPES; s++) {
+                if (stripes.get(s) != null) {
+                    used++;
+                }
+            }
+            return used;
+        }
+        
+        Snapshot snapshot() {
+            long[] merged = new long[BUCKETS];
+            long sum = 0;
+            long max = 0;
+            for (int s = 0; s < STRIPES; s++) {
+                AtomicLongArray counts = stripes.get(s);
+                if (counts == null) {
+                    continue;
+                }
+                for (int i = 0; i < BUCKETS; i++) {
+                    merged[i] += counts.get(i);
+                }
+                sum += counts.get(SUM);
+                max = Math.max(max, counts.get(MAX));
+            }
+            return new Snapshot(merged, sum, max);
+        }
+        
+        static final class Snapshot {
+            final long[] counts;
+            final long count;
+            final long sum;
+            final long max;
+            
+            Snapshot(long[] counts, long sum, long max) {
+                long total = 0;
+                for (long c : counts) {
+                    total += c;
+                }
+                this.counts = counts;
+                this.count = total;
+                this.sum = sum;
+                this.max = max;
+            }
+            
+            double mean() {
+                return count == 0 ? 0.0 : (double) sum / count;
+            }
+            
+            /** Upper bound of the bucket holding the percentile (never above max). */
+            long percentile(double percentile) {
+                long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+                long seen = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    seen += counts[i];
+                    if (seen >= rank) {
+                        return Math.min(highestValue(i), max);
+                    }
+                }
+                return max;
+            }
+            
+            String format(boolean nanos) {
+                if (count == 0) {
+                    return "n=0";
+                }
+                return String.format("n=%d p50=%s p99=%s max=%s", count, value(percentile(50), nanos),
+                        value(percentile(99), nanos), value(max, nanos));
+            }
+            
+            private static String value(long value, boolean nanos) {
+                if (!nanos || value < 1_000) {
+                    return value + (nanos ? "ns" : "");
+                }
+                if (value < 1_000_000) {
+                    return value / 1_000 + "us";
+                }
+                return String.format("%.1fms", value / 1e6);
+            }
+            
+            @Override
+            public String toString() {
+                return format(true);
+            }
+        }
+    }
+    
+    /**
+     * Wraps any ExecutorService. One small wrapper object per task carries
+     * the enqueue time; recording itself allocates nothing. Exceptions
+     * thrown by submit()ted tasks are caught inside their FutureTask, so
+     * only execute()d tasks can show up as failed.
+     */
+    static class InstrumentedExecutor extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        final LongAdder submitted = new LongAdder();
+        final LongAdder started = new LongAdder();
+        final LongAdder completed = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final Histogram queueWait = new Histogram();
+        final Histogram runTime = new Histogram();
+        
+        InstrumentedExecutor(ExecutorService delegate) {
+            this.delegate = delegate;
+        }
+        
+        private final class TimedTask implements Runnable {
+            final Runnable command;
+            final long enqueuedAt;
+            
+            TimedTask(Runnable command, long enqueuedAt) {
+                this.command = command;
+                this.enqueuedAt = enqueuedAt;
+            }
+            
+            public void run() {
+                long start = System.nanoTime();
+                started.increment();
+                queueWait.record(start - enqueuedAt);
+                try {
+                    command.run();
+                } catch (RuntimeException | Error e) {
+                    failed.increment();
+                    throw e;
+                } finally {
+                    runTime.record(System.nanoTime() - start);
+                    completed.increment();
+                }
+            }
+        }
+        
+        @Override
+        public void execute(Runnable command) {
+            submitted.increment();
+            try {
+                delegate.execute(new TimedTask(command, System.nanoTime()));
+            } catch (RejectedExecutionException e) {
+                submitted.decrement();
+                throw e;
+            }
+        }
+        
+        /** Tasks waiting in the delegate's queue. */
+        long queueDepth() {
+            return submitted.sum() - started.sum();
+        }
+        
+        long active() {
+            return started.sum() - completed.sum();
+        }
+        
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+        
+        @Override
+        public List<Runnable> shutdownNow() {
+            List<Runnable> pending = new ArrayList<>();
+            for (Runnable task : delegate.shutdownNow()) {
+                pending.add(task instanceof TimedTask ? ((TimedTask) task).command : task);
+            }
+            return pending;
+        }
+        
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+        
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+        
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("executor: submitted=%d completed=%d failed=%d depth=%d%n  queue wait  %s%n"
+                    + "  run time    %s", submitted.sum(), completed.sum(), failed.sum(), queueDepth(),
+                    queueWait.snapshot(), runTime.snapshot());
+        }
+    }
+    
+    /**
+     * Wraps an EXCLUSIVE lock (not a ReadWriteLock's read lock): the hold
+     * start and depth are written only by the owner, the lock protects them.
+     * Condition.await() releases the lock behind the wrapper's back, so
+     * time spent awaiting counts as held.
+     */
+    static class InstrumentedLock implements Lock {
+        private final Lock delegate;
+        // tryLock() barges, so only an unfair ReentrantLock may take it as a shortcut
+        private final boolean bargingAllowed;
+        final Histogram acquireWait = new Histogram();
+        final Histogram holdTime = new Histogram();
+        final LongAdder timeouts = new LongAdder();
+        
+        // Owner-only
+        private int depth;
+        private long acquiredAt;
+        
+        InstrumentedLock(Lock delegate) {
+            this.delegate = delegate;
+            this.bargingAllowed = delegate instanceof ReentrantLock && !((ReentrantLock) delegate).isFair();
+        }
+        
+        private void acquired(long startNanos, long now) {
+            acquireWait.record(now - startNanos);
+            if (depth++ == 0) {
+                acquiredAt = now;
+            }
+        }
+        
+        @Override
+        public void lock() {
+            if (bargingAllowed && delegate.tryLock()) {
+                long now = System.nanoTime(); // uncontended: one clock read instead of two
+                acquired(now, now);
+                return;
+            }
+            long start = System.nanoTime();
+            delegate.lock();
+            acquired(start, System.nanoTime());
+        }
+        
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            long start = System.nanoTime();
+            delegate.lockInterruptibly();
+            acquired(start, System.nanoTime());
+        }
+        
+        @Override
+        public boolean tryLock() {
+            if (delegate.tryLock()) {
+                long now = System.nanoTime();
+                acquired(now, now);
+                return true;
+            }
+            return false;
+        }
+        
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            long start = System.nanoTime();
+            if (delegate.tryLock(time, unit)) {
+                acquired(start, System.nanoTime());
+                return true;
+            }
+            timeouts.increment();
+            return false;
+        }
+        
+        @Override
+        public void unlock() {
+            // Record BEFORE releasing: afterwards the fields belong to the next owner
+            if (--depth == 0) {
+                holdTime.record(System.nanoTime() - acquiredAt);
+            }
+            delegate.unlock();
+        }
+        
+        @Override
+        public Condition newCondition() {
+            return delegate.newCondition();
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("lock: timeouts=%d%n  acquire     %s%n  hold        %s", timeouts.sum(),
+                    acquireWait.snapshot(), holdTime.snapshot());
+        }
+    }
+    
+    static class InstrumentedSemaphore extends Semaphore {
+        private final int permits;
+        final Histogram permitWait = new Histogram();
+        final LongAdder timeouts = new LongAdder();
+        
+        InstrumentedSemaphore(int permits, boolean fair) {
+            super(permits, fair);
+            this.permits = permits;
+        }
+        
+        @Override
+        public void acquire() throws InterruptedException {
+            long start = System.nanoTime();
+            super.acquire();
+            permitWait.record(System.nanoTime() - start);
+        }
+        
+        @Override
+        public void acquire(int permits) throws InterruptedException {
+            long start = System.nanoTime();
+            super.acquire(permits);
+            permitWait.record(System.nanoTime() - start);
+        }
+        
+        @Override
+        public void acquireUninterruptibly() {
+            long start = System.nanoTime();
+            super.acquireUninterruptibly();
+            permitWait.record(System.nanoTime() - start);
+        }
+        
+        @Override
+        public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+            long start = System.nanoTime();
+            if (super.tryAcquire(timeout, unit)) {
+                permitWait.record(System.nanoTime() - start);
+                return true;
+            }
+            timeouts.increment();
+            return false;
+        }
+        
+        int inUse() {
+            return permits - availablePermits();
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("semaphore: permits=%d inUse=%d timeouts=%d%n  permit wait %s", permits, inUse(),
+                    timeouts.sum(), permitWait.snapshot());
+        }
+    }
+    
+    /**
+     * Wraps a BlockingQueue. Occupancy is tracked with our own counter,
+     * sampled on every insert: delegate.size() takes the lock in
+     * ArrayBlockingQueue. The counter is updated straight after the
+     * delegate call, before any recording, but can still lag a removal in
+     * flight; a sample above the capacity can only be such a lag, so it is
+     * clamped to the capacity. Removal through the iterator is not counted.
+     */
+    static class InstrumentedQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+        private final BlockingQueue<E> delegate;
+        private final long capacity;
+        private final AtomicLong occupancy = new AtomicLong();
+        final Histogram occupancyOnInsert = new Histogram();
+        final Histogram putWait = new Histogram();
+        final Histogram takeWait = new Histogram();
+        
+        InstrumentedQueue(BlockingQueue<E> delegate) {
+            this.delegate = delegate;
+            this.capacity = (long) delegate.remainingCapacity() + delegate.size();
+        }
+        
+        private void inserted() {
+            occupancyOnInsert.record(Math.min(occupancy.incrementAndGet(), capacity));
+        }
+        
+        private E removed(E element) {
+            if (element != null) {
+                occupancy.decrementAndGet();
+            }
+            return element;
+        }
+        
+        @Override
+        public boolean offer(E e) {
+            if (delegate.offer(e)) {
+                inserted();
+                return true;
+            }
+            return false;
+        }
+        
+        @Override
+        public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+            long start = System.nanoTime();
+            if (delegate.offer(e, timeout, unit)) {
+                long waited = System.nanoTime() - start;
+                inserted();
+                putWait.record(waited);
+                return true;
+            }
+            return false;
+        }
+        
+        @Override
+        public void put(E e) throws InterruptedException {
+            long start = System.nanoTime();
+            delegate.put(e);
+            long waited = System.nanoTime() - start;
+            inserted();
+            putWait.record(waited);
+        }
+        
+        @Override
+        public E take() throws InterruptedException {
+            long start = System.nanoTime();
+            // Count the freed slot before recording, or a producer counts it as still taken
+            E element = removed(delegate.take());
+            takeWait.record(System.nanoTime() - start);
+            return element;
+        }
+        
+        @Override
+        public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+            long start = System.nanoTime();
+            E element = removed(delegate.poll(timeout, unit));
+            if (element != null) {
+                takeWait.record(System.nanoTime() - start);
+            }
+            return element;
+        }
+        
+        @Override
+        public E poll() {
+            return removed(delegate.poll());
+        }
+        
+        @Override
+        public E peek() {
+            return delegate.peek();
+        }
+        
+        @Override
+        public boolean remove(Object o) {
+            if (delegate.remove(o)) {
+                occupancy.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+        
+        @Override
+        public int drainTo(Collection<? super E> c) {
+            int n = delegate.drainTo(c);
+            occupancy.addAndGet(-n);
+            return n;
+        }
+        
+        @Override
+        public int drainTo(Collection<? super E> c, int maxElements) {
+            int n = delegate.drainTo(c, maxElements);
+            occupancy.addAndGet(-n);
+            return n;
+        }
+        
+        @Override
+        public int remainingCapacity() {
+            return delegate.remainingCapacity();
+        }
+        
+        @Override
+        public int size() {
+            return delegate.size();
+        }
+        
+        @Override
+        public Iterator<E> iterator() {
+            return delegate.iterator();
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("queue: size=%d remaining=%d%n  occupancy   %s%n  put wait    %s%n"
+                    + "  take wait   %s", size(), remainingCapacity(), occupancyOnInsert.snapshot().format(false),
+                    putWait.snapshot(), takeWait.snapshot());
+        }
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        int tasks = 2000;
+        InstrumentedExecutor executor = new InstrumentedExecutor(Executors.newFixedThreadPool(4));
+        InstrumentedLock lock = new InstrumentedLock(new ReentrantLock());
+        InstrumentedSemaphore connections = new InstrumentedSemaphore(3, true);
+        InstrumentedQueue<Integer> queue = new InstrumentedQueue<>(new LinkedBlockingQueue<>(10));
+        
+        // Consumer: the Q02 SharedQueue pattern, one slow consumer
+        Thread consumer = new Thread(() -> {
+            try {
+                for (int i = 0; i < tasks; i++) {
+                    queue.take();
+                    Thread.sleep(0, 500_000);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Consumer");
+        consumer.start();
+        
+        CountDownLatch done = new CountDownLatch(tasks);
+        for (int i = 0; i < tasks; i++) {
+            int item = i;
+            executor.execute(() -> {
+                try {
+                    connections.acquire(); // Q03's ConnectionPool: 3 permits
+                    try {
+                        lock.lock();
+                        try {
+                            long until = System.nanoTime() + 50_000; // short critical section
+                            while (System.nanoTime() < until) {
+                                Thread.onSpinWait();
+                            }
+                        } finally {
+                            lock.unlock();
+                        }
+                        Thread.sleep(1);
+                    } finally {
+                        connections.release();
+                    }
+                    queue.put(item);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        consumer.join();
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        
+        System.out.println(executor);
+        System.out.println(lock);
+        System.out.println(connections);
+        System.out.println(queue);
+        
+        // Q03_ExecutorModes' virtual-thread-per-task: a new thread for every task
+        InstrumentedExecutor perTask = new InstrumentedExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        for (int i = 0; i < 100_000; i++) {
+            perTask.execute(() -> { });
+        }
+        perTask.shutdown();
+        perTask.awaitTermination(1, TimeUnit.MINUTES);
+        System.out.printf("virtual-thread-per-task: %d tasks recorded into %d of %d stripes%n",
+                perTask.runTime.snapshot().count, perTask.runTime.stripesInUse(), Histogram.STRIPES);
+    }
+}
+
+/*
+KEY CONCEPT: Measure without becoming the bottleneck
+- A metric updated by every thread is shared mutable state: one AtomicLong
+  counter or one histogram array under contention serializes its callers
+  and distorts what you are measuring
+- Counters: LongAdder stripes the count, sum() adds the stripes
+- Histograms: stripe them like LongAdder - a fixed set of arrays picked
+  by thread id, merged when someone reads the snapshot. One array PER
+  THREAD looks cheaper (single writer, no atomics) but grows with every
+  thread ever seen: one array per task under virtual-thread-per-task
+- Log-linear buckets (HdrHistogram's idea): fixed relative error over
+  nanoseconds to minutes, a fixed-size array, no allocation per record
+- System.nanoTime() is ~20-40 ns: two per operation is fine for locks and
+  queues, too much for a 5 ns counter increment
+*/
@@ -0,0 +1,519 @@
+package com.buildmuse.concurrency.level7_patterns;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * PROBLEM: Logging Without Serializing the Threads You Study
+ *
+ * SharedQueue.produce/consume, DataExchanger.sendData and
+ * BankAccount.deposit print with System.out.println - inside or next to
+ * the critical section. PrintStream is synchronized, formats Strings
+ * (allocation) and writes to the terminal (a syscall) while holding its
+ * lock: every logging thread now queues on one more lock, and the
+ * interleaving you wanted to observe is gone.
+ *
+ * Build an asynchronous logger:
+ * - Messages are templates registered once: register("Produced {}")
+ * - log(template, a, b) writes 4 longs (time, template, a, b) into a
+ *   PER-THREAD single-producer ring - no lock, no CAS, no allocation
+ * - One flusher thread drains all rings, formats into a direct
+ *   ByteBuffer and writes it to a FileChannel
+ * - Full ring: DROP (count it) or BLOCK (wait for the flusher)
+ *
+ * EXPECTED OUTPUT:
+ * Log file: /tmp/async-logger....log
+ *       0.000412 [Producer] Produced 0, queue size 1
+ *       0.000431 [Consumer] Consumed 0, queue size 0
+ * ...
+ *
+ * 4 threads, synchronized counter, one log call inside the critical section:
+ * no logging:           52 ns/op
+ * println to a file:    990 ns/op
+ * AsyncLogger DROP:      95 ns/op (12000 dropped)
+ * AsyncLogger BLOCK:    110 ns/op (0 dropped)
+ * (on a single core the flusher shares the CPU, so both async rows grow)
+ *
+ * Flusher failed (ClosedChannelException): 1000 BLOCK calls returned after 0.4 ms
+ * close() reports it: ClosedChannelException
+ *
+ * LEARNING:
+ * - I/O and formatting belong on a background thread, not in the hot path
+ * - One ring per thread = single producer: a plain write + ordered publish
+ * - A bounded buffer needs a policy for "full": lose events or slow down
+ */
+public class Q04_AsyncLogger {
+    
+    enum OverflowPolicy {
+        DROP, BLOCK
+    }
+    
+    /** Pre-split message: parts[0] {} parts[1] {} parts[2]... */
+    private static final class Template {
+        final byte[][] parts;
+        final int length;
+        
+        Template(String pattern) {
+            String[] split = pattern.split("\\{}", -1);
+            if (split.length > 3) {
+                throw new IllegalArgumentException("at most 2 arguments: " + pattern);
+            }
+            parts = new byte[split.length][];
+            int total = 0;
+            for (int i = 0; i < split.length; i++) {
+                parts[i] = split[i].getBytes(StandardCharsets.UTF_8);
+                total += parts[i].length;
+            }
+            length = total;
+        }
+    }
+    
+    /**
+     * Single-producer single-consumer ring of fixed-size events. Only the
+     * owning thread writes tail and the slots; only the flusher writes head.
+     * lazySet publishes the slots before the new tail is visible.
+     */
+    private static final class Ring {
+        static final int EVENT_LONGS = 4;
+        
+        final Thread owner;
+        final byte[] threadName;
+        final long[] slots;
+        final int mask;
+        final AtomicLong tail = new AtomicLong();
+        final AtomicLong head = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        long cachedHead; // producer's last view of head, re-read only when the ring looks full
+        
+        Ring(Thread owner, int capacity) {
+            this.owner = owner;
+            this.threadName = owner.getName().getBytes(StandardCharsets.UTF_8);
+            this.slots = new long[capacity * EVENT_LONGS];
+            this.mask = capacity - 1;
+        }
+        
+        int capacity() {
+            return mask + 1;
+        }
+    }
+    
+    static class AsyncLogger implements AutoCloseable {
+        // Longest number written: "-9223372036854775808"
+        private static final int MAX_NUMBER = 20;
+        
+        private final OverflowPolicy policy;
+        private final int ringCapacity;
+        private final long flushIntervalNanos;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        private byte[] line = new byte[256]; // flusher only
+        private final List<Template> templates = new CopyOnWriteArrayList<>();
+        private final CopyOnWriteArrayList<Ring> rings = new CopyOnWriteArrayList<>();
+        private final ThreadLocal<Ring> ring;
+        private final long startNanos = System.nanoTime();
+        private final Thread flusher;
+        private volatile boolean closed;
+        private volatile Throwable failure; // why the flusher died, if it did
+        private final LongAdder droppedFromDeadThreads = new LongAdder(); // written by the flusher, read by anyone
+        
+        /** ringCapacity: events per thread, a power of two. */
+        AsyncLogger(Path file, OverflowPolicy policy, int ringCapacity, long flushIntervalMicros) throws IOException {
+            if (Integer.bitCount(ringCapacity) != 1) {
+                throw new IllegalArgumentException("ringCapacity must be a power of two");
+            }
+            this.policy = policy;
+            this.ringCapacity = ringCapacity;
+            this.flushIntervalNanos = flushIntervalMicros * 1_000;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.ring = ThreadLocal.withInitial(() -> {
+                Ring r = new Ring(Thread.currentThread(), this.ringCapacity);
+                rings.add(r);
+                return r;
+            });
+            this.flusher = new Thread(this::flushLoop, "AsyncLogger-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+        
+        /** Call once per message, at startup; the id is what log() takes. */
+        int register(String pattern) {
+            synchronized (templates) {
+                templates.add(new Template(pattern));
+                return templates.size() - 1;
+            }
+        }
+        
+        void log(int template) {
+            log(template, 0, 0);
+        }
+        
+        void log(int template, long a) {
+            log(template, a, 0);
+        }
+        
+        /** The hot path: a clock read and four array stores. */
+        void log(int template, long a, long b) {
+            if (closed) {
+                return; // closed, or the flusher failed: nobody would drain the ring
+            }
+            Ring r = ring.get();
+            long t = r.tail.get();
+            if (t - r.cachedHead >= r.capacity()) {
+                r.cachedHead = r.head.get();
+                if (t - r.cachedHead >= r.capacity() && !waitForSpace(r, t)) {
+                    return;
+                }
+            }
+            int i = (int) (t & r.mask) * Ring.EVENT_LONGS;
+            r.slots[i] = System.nanoTime();
+            r.slots[i + 1] = template;
+            r.slots[i + 2] = a;
+            r.slots[i + 3] = b;
+            r.tail.lazySet(t + 1);
+        }
+        
+        private boolean waitForSpace(Ring r, long t) {
+            if (policy == OverflowPolicy.DROP) {
+                r.dropped.lazySet(r.dropped.get() + 1);
+                return false;
+            }
+            while (t - r.cachedHead >= r.capacity()) {
+                if (closed) {
+                    return false;
+                }
+                LockSupport.unpark(flusher);
+                Thread.yield();
+                r.cachedHead = r.head.get();
+            }
+            return true;
+        }
+        
+        long dropped() {
+            long total = droppedFromDeadThreads.sum();
+            for (Ring r : rings) {
+                total += r.dropped.get();
+            }
+            return total;
+        }
+        
+        private void flushLoop() {
+            try {
+                while (!closed) {
+                    if (drainAll() == 0) {
+                        LockSupport.parkNanos(this, flushIntervalNanos);
+                    }
+                }
+                drainAll(); // events logged before close()
+                writeBuffer();
+                channel.force(false);
+            } catch (IOException | RuntimeException | Error e) {
+                // Without a flusher no ring ever drains: stop log() and release BLOCK callers
+                failure = e;
+                closed = true;
+            }
+        }
+        
+        /** The error that stopped the flusher, or null. */
+        Throwable failure() {
+            return failure;
+        }
+        
+        /** One pass over all rings; returns the number of events written. */
+        private int drainAll() throws IOException {
+            int total = 0;
+            for (Ring r : rings) {
+                total += drain(r);
+                if (!r.owner.isAlive() && r.head.get() == r.tail.get()) {
+                    droppedFromDeadThreads.add(r.dropped.get());
+                    rings.remove(r);
+                }
+            }
+            writeBuffer();
+            return total;
+        }
+        
+        private int drain(Ring r) throws IOException {
+            long h = r.head.get();
+            long t = r.tail.get();
+            for (long n = h; n < t; n++) {
+                int i = (int) (n & r.mask) * Ring.EVENT_LONGS;
+                Template template = templates.get((int) r.slots[i + 1]);
+                if (buffer.remaining() < template.length + r.threadName.length + 3 * MAX_NUMBER + 8) {
+                    writeBuffer();
+                }
+                format(r, template, r.slots[i], r.slots[i + 2], r.slots[i + 3]);
+            }
+            // Free the slots once they have been copied out: one head write per pass, not per event
+            r.head.lazySet(t);
+            return (int) (t - h);
+        }
+        
+        /**
+         * "   12.345678 [thread] message\n", formatted into a reusable byte[]
+         * (no Strings, no per-byte ByteBuffer bounds checks), then copied into
+         * the direct buffer with one bulk put.
+         */
+        private void format(Ring r, Template template, long nanos, long a, long b) {
+            int needed = template.length + r.threadName.length + 3 * MAX_NUMBER + 8;
+            if (line.length < needed) {
+                line = new byte[needed];
+            }
+            byte[] out = line;
+            long micros = (nanos - startNanos) / 1_000;
+            int p = putLong(out, putPadding(out, 0, micros / 1_000_000, 6), micros / 1_000_000);
+            out[p++] = '.';
+            long fraction = micros % 1_000_000;
+            for (int d = 5; d >= 0; d--) {
+                out[p + d] = (byte) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            p += 6;
+            out[p++] = ' ';
+            out[p++] = '[';
+            System.arraycopy(r.threadName, 0, out, p, r.threadName.length);
+            p += r.threadName.length;
+            out[p++] = ']';
+            out[p++] = ' ';
+            byte[][] parts = template.parts;
+            for (int i = 0; i < parts.length; i++) {
+                if (i > 0) {
+                    p = putLong(out, p, i == 1 ? a : b);
+                }
+                System.arraycopy(parts[i], 0, out, p, parts[i].length);
+                p += parts[i].length;
+            }
+            out[p++] = '\n';
+            buffer.put(out, 0, p);
+        }
+        
+        private static int putPadding(byte[] out, int p, long value, int width) {
+            for (int digits = digits(value); digits < width; digits++) {
+                out[p++] = ' ';
+            }
+            return p;
+        }
+        
+        private static int digits(long value) {
+            int digits = 1;
+            for (long v = value; v >= 10; v /= 10) {
+                digits++;
+            }
+            return digits;
+        }
+        
+        /** Writes value's decimal digits at out[p], returns the position after them. */
+        private static int putLong(byte[] out, int p, long value) {
+            if (value == Long.MIN_VALUE) {
+                byte[] min = "-9223372036854775808".getBytes(StandardCharsets.US_ASCII);
+                System.arraycopy(min, 0, out, p, min.length);
+                return p + min.length;
+            }
+            if (value < 0) {
+                out[p++] = '-';
+                value = -value;
+            }
+            int end = p + digits(value);
+            for (int i = end - 1; i >= p; i--) {
+                out[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            return end;
+        }
+        
+        private void writeBuffer() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+        
+        /**
+         * Flushes everything logged so far and closes the file. Throws if
+         * the flusher failed: events logged after the failure were lost.
+         */
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            LockSupport.unpark(flusher);
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            channel.close();
+            Throwable e = failure;
+            if (e instanceof IOException io) {
+                throw io;
+            }
+            if (e != null) {
+                throw new IOException("flusher failed", e);
+            }
+        }
+    }
+    
+    /** Q02's SharedQueue hand-off, logging through the async logger. */
+    static void producerConsumer(AsyncLogger logger, int items) throws InterruptedException {
+        int produced = logger.register("Produced {}, queue size {}");
+        int consumed = logger.register("Consumed {}, queue size {}");
+        java.util.ArrayDeque<Integer> queue = new java.util.ArrayDeque<>();
+        Object lock = new Object();
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < items; i++) {
+                synchronized (lock) {
+                    while (queue.size() == 5) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    queue.add(i);
+                    logger.log(produced, i, queue.size());
+                    lock.notifyAll();
+                }
+            }
+        }, "Producer");
+        Thread consumer = new Thread(() -> {
+            for (int i = 0; i < items; i++) {
+                synchronized (lock) {
+                    while (queue.isEmpty()) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    int item = queue.poll();
+                    logger.log(consumed, item, queue.size());
+                    lock.notifyAll();
+                }
+            }
+        }, "Consumer");
+        producer.start();
+        consumer.start();
+        producer.join();
+        consumer.join();
+    }
+    
+    interface LogCall {
+        void log(long value);
+    }
+    
+    /** Threads increment a synchronized counter and log inside the lock; returns ns per operation. */
+    static double measure(int threads, int operations, LogCall logCall) throws InterruptedException {
+        Object lock = new Object();
+        long[] counter = new long[1];
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < operations; i++) {
+                    synchronized (lock) {
+                        counter[0]++;
+                        logCall.log(counter[0]);
+                    }
+                }
+            }, "Worker-" + t);
+            worker.start();
+            workers.add(worker);
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return (double) (System.nanoTime() - begin) / ((long) threads * operations);
+    }
+    
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path file = Files.createTempFile("async-logger", ".log");
+        try (AsyncLogger logger = new AsyncLogger(file, OverflowPolicy.BLOCK, 1024, 200)) {
+            producerConsumer(logger, 10);
+        }
+        System.out.println("Log file: " + file);
+        Files.readAllLines(file).stream().limit(6).forEach(System.out::println);
+        System.out.println("...");
+        
+        int threads = 4;
+        int operations = 200_000;
+        System.out.println("\n" + threads + " threads, synchronized counter, one log call inside the critical section:");
+        System.out.printf("no logging:          %4.0f ns/op%n", measure(threads, operations, value -> { }));
+        Path printFile = Files.createTempFile("println", ".log");
+        try (PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(printFile.toFile())))) {
+            double nanos = measure(threads, operations,
+                    value -> out.println(Thread.currentThread().getName() + ": Counter is now " + value));
+            System.out.printf("println to a file:   %4.0f ns/op%n", nanos);
+        }
+        for (OverflowPolicy policy : OverflowPolicy.values()) {
+            Path asyncFile = Files.createTempFile("async", ".log");
+            double nanos;
+            long dropped;
+            try (AsyncLogger logger = new AsyncLogger(asyncFile, policy, 4096, 200)) {
+                int template = logger.register("Counter is now {}");
+                nanos = measure(threads, operations, value -> logger.log(template, value));
+                dropped = logger.dropped();
+            }
+            System.out.printf("AsyncLogger %-6s %4.0f ns/op (%d dropped)%n", policy + ":", nanos, dropped);
+            Files.delete(asyncFile);
+        }
+        Files.delete(printFile);
+        
+        // The disk goes away under the flusher: BLOCK callers must not wait forever
+        AsyncLogger broken = new AsyncLogger(file, OverflowPolicy.BLOCK, 16, 200);
+        int template = broken.register("Event {}");
+        broken.channel.close();
+        long start = System.nanoTime();
+        for (int i = 0; i < 1_000; i++) {
+            broken.log(template, i); // more than the ring holds
+        }
+        System.out.printf("%nFlusher failed (%s): 1000 BLOCK calls returned after %.1f ms%n",
+                broken.failure().getClass().getSimpleName(), (System.nanoTime() - start) / 1e6);
+        try {
+            broken.close();
+        } catch (IOException e) {
+            System.out.println("close() reports it: " + e.getClass().getSimpleName());
+        }
+        Files.delete(file);
+    }
+}
+
+/*
+KEY CONCEPT: Get the I/O out of the critical section
+- println = lock PrintStream + build a String + write syscall. Called
+  while holding YOUR lock, the lock's hold time grows by microseconds and
+  every thread now also contends on System.out
+- Asynchronous logging: the caller only records the event; a background
+  thread formats and writes. Record primitives + a template id, not a
+  formatted String: no allocation, formatting happens off the hot path
+- One ring per thread: single producer, single consumer. The producer
+  writes the slots, then lazySet(tail) - ordered publish, no CAS, and
+  the consumer frees slots with lazySet(head)
+- Output from different rings is interleaved per drain pass, not in
+  global order: the timestamp column is the order
+- Full buffer: DROP keeps latency (and loses events), BLOCK keeps every
+  event (and the flusher's speed becomes your speed limit)
+- If the flusher dies, say so: mark the logger closed so BLOCK callers
+  stop waiting (inside their own locks!) and rethrow the error on close()
+*/
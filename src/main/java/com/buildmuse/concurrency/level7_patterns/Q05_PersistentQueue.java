@@ -0,0 +1,475 @@
+package com.buildmuse.concurrency.level7_patterns;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * PROBLEM: A Queue That Survives a Crash
+ *
+ * Q02_ProducerConsumer.SharedQueue and Q01_BlockingQueue live on the heap:
+ * a restart loses every queued item, and the backlog is bounded by -Xmx.
+ *
+ * Build a chronicle-style persistent queue in a directory:
+ * - Append-only segment files (00000000.cq, 00000001.cq, ...), each
+ *   memory-mapped; a full segment rolls over to the next file
+ * - Record = [int length][payload], 4-byte aligned. The length is
+ *   written LAST with release semantics: a reader (in any process) that
+ *   sees it sees the whole payload. length 0 = not written yet,
+ *   -1 = end of segment, go to the next file
+ * - ONE Appender (enforced with a file lock); on open it recovers the
+ *   end of the queue by scanning the last segment
+ * - Any number of Tailers, each with a name and its own persisted offset;
+ *   next() returns a view into the mapped file - zero copy
+ * - An appended record is in the OS page cache: it survives the process
+ *   being killed. sync() forces it to disk for power loss
+ *
+ * EXPECTED OUTPUT:
+ * Directory: /tmp/persistent-queue...
+ * Appended 2000000 records of 32 bytes: 9.8 M/s, 5 segments
+ * tailer-1 read 2000000 records in order: 7.1 M/s
+ * tailer-2 read 2000000 records in order: 7.0 M/s
+ * tailer-1 committed index 4004aa270, next record after restart: none (caught up) ✓
+ *
+ * Killing a child appender after 300000 acknowledged records...
+ * Recovered: 320000 records, all intact, none missing (>= 300000 acknowledged) ✓
+ * Reopened appender continued at record 320000 ✓
+ *
+ * LEARNING:
+ * - The page cache outlives the process; only sync() outlives the machine
+ * - Publish with a release store of the length, read with an acquire load
+ * - Readers own their offsets: no broker, no per-consumer copy
+ */
+public class Q05_PersistentQueue {
+    
+    static final int END_OF_SEGMENT = -1;
+    private static final int HEADER = 4;
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    
+    static Path segmentPath(Path directory, int cycle) {
+        return directory.resolve(String.format("%08d.cq", cycle));
+    }
+    
+    static int align(int bytes) {
+        return (bytes + 3) & ~3;
+    }
+    
+    private static MappedByteBuffer map(Path path, FileChannel.MapMode mode, long size) throws IOException {
+        StandardOpenOption[] options = mode == FileChannel.MapMode.READ_ONLY
+                ? new StandardOpenOption[] {StandardOpenOption.READ}
+                : new StandardOpenOption[] {StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE};
+        try (FileChannel channel = FileChannel.open(path, options)) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(mode, 0, size == 0 ? channel.size() : size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+    
+    /** Index of a record or read position: segment in the high 32 bits, byte offset in the low. */
+    static long index(int cycle, int position) {
+        return ((long) cycle << 32) | position;
+    }
+    
+    /**
+     * The single writer. Not thread-safe: one thread appends (wrap it in a
+     * lock or put a queue in front of it for several producers).
+     */
+    static class Appender implements AutoCloseable {
+        private final Path directory;
+        private final int segmentSize;
+        private final FileChannel lockChannel;
+        private final FileLock lock;
+        private MappedByteBuffer segment;
+        /** Segments rolled off since the last sync(), still to be forced. */
+        private final List<MappedByteBuffer> unsynced = new ArrayList<>();
+        private int cycle;
+        private int position;
+        
+        Appender(Path directory, int segmentSize) throws IOException {
+            if (segmentSize < 64 || segmentSize % 4 != 0) {
+                throw new IllegalArgumentException("segmentSize must be a multiple of 4, >= 64");
+            }
+            this.directory = Files.createDirectories(directory);
+            this.segmentSize = segmentSize;
+            this.lockChannel = FileChannel.open(directory.resolve("appender.lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            this.lock = lockChannel.tryLock();
+            if (lock == null) {
+                lockChannel.close();
+                throw new IllegalStateException("another process is appending to " + directory);
+            }
+            try {
+                recover();
+            } catch (Throwable e) {
+                try {
+                    lockChannel.close(); // releases the lock: a failed open must not block the next one
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+        }
+        
+        /**
+         * Finds the end of the queue after a clean close or a crash: the
+         * first unwritten header in the newest segment. A crash can leave a
+         * partial payload after it (its header never written): that
+         * garbage is zeroed, or a shorter record written over it would be
+         * followed by a bogus header.
+         */
+        private void recover() throws IOException {
+            int newest = lastCycle(directory);
+            cycle = Math.max(newest, 0);
+            segment = map(segmentPath(directory, cycle), FileChannel.MapMode.READ_WRITE, segmentSize);
+            position = scan(segment);
+            for (int i = position; i + 8 <= segment.capacity(); i += 8) {
+                if (segment.getLong(i) != 0) {
+                    segment.putLong(i, 0);
+                }
+            }
+            if (cycle > 0) {
+                // Crashed between creating this segment and terminating the previous one?
+                MappedByteBuffer previous = map(segmentPath(directory, cycle - 1), FileChannel.MapMode.READ_WRITE, 0);
+                int end = scan(previous);
+                if ((int) INT.getAcquire(previous, end) == 0) {
+                    INT.setRelease(previous, end, END_OF_SEGMENT);
+                }
+            }
+        }
+        
+        /** Position of the first header that is not a record (0 or END_OF_SEGMENT). */
+        private static int scan(ByteBuffer segment) {
+            int position = 0;
+            int length;
+            while ((length = (int) INT.getAcquire(segment, position)) > 0) {
+                position += align(HEADER + length);
+            }
+            return position;
+        }
+        
+        long append(byte[] record) {
+            return append(ByteBuffer.wrap(record));
+        }
+        
+        /** Appends the remaining bytes of {@code record}; returns the record's index. */
+        long append(ByteBuffer record) {
+            int length = record.remaining();
+            if (length == 0 || HEADER + length > segmentSize - HEADER) {
+                throw new IllegalArgumentException("record length must be 1.." + (segmentSize - 2 * HEADER));
+            }
+            int size = align(HEADER + length);
+            // Always leave room for an END_OF_SEGMENT marker
+            if (position + size > segmentSize - HEADER) {
+                roll();
+            }
+            int start = position;
+            segment.put(start + HEADER, record, record.position(), length);
+            INT.setRelease(segment, start, length); // publish: the payload is visible first
+            position += size;
+            return index(cycle, start);
+        }
+        
+        /**
+         * The next segment exists (full size) BEFORE the marker that sends
+         * readers to it is written. The outgoing segment is kept for the
+         * next sync(), which forces it: records appended since the last
+         * sync() must not be left behind, but append() never waits for a disk.
+         */
+        private void roll() {
+            try {
+                MappedByteBuffer next = map(segmentPath(directory, cycle + 1), FileChannel.MapMode.READ_WRITE, segmentSize);
+                INT.setRelease(segment, position, END_OF_SEGMENT);
+                unsynced.add(segment);
+                segment = next;
+                cycle++;
+                position = 0;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        /**
+         * Forces every record appended so far to disk, so they survive power
+         * loss: the segments rolled off since the last sync(), then the
+         * current one.
+         */
+        void sync() {
+            for (MappedByteBuffer rolled : unsynced) {
+                rolled.force();
+            }
+            unsynced.clear();
+            segment.force();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            lock.release();
+            lockChannel.close();
+        }
+    }
+    
+    static int lastCycle(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(".cq"))
+                    .mapToInt(name -> Integer.parseInt(name.substring(0, name.length() - 3)))
+                    .max()
+                    .orElse(-1);
+        }
+    }
+    
+    /**
+     * An independent reader. Its position is persisted in "name.tailer"
+     * on commit(); a restarted tailer continues from the last commit, so
+     * delivery is at-least-once. Not thread-safe: one thread per tailer.
+     */
+    static class Tailer {
+        private final Path directory;
+        private final MappedByteBuffer offset;
+        private ByteBuffer segment;
+        private ByteBuffer view;
+        private int cycle;
+        private int position;
+        
+        Tailer(Path directory, String name) throws IOException {
+            this.directory = directory;
+            this.offset = map(directory.resolve(name + ".tailer"), FileChannel.MapMode.READ_WRITE, 8);
+            long committed = (long) LONG.getAcquire(offset, 0);
+            this.cycle = (int) (committed >>> 32);
+            this.position = (int) committed;
+        }
+        
+        /**
+         * Next record, as a read-only view into the mapped segment (position
+         * to limit). The view is reused: it is valid until the next call.
+         * Returns null if the appender has not written anything new yet.
+         */
+        ByteBuffer next() {
+            while (true) {
+                if (segment == null && !open()) {
+                    return null;
+                }
+                int length = (int) INT.getAcquire(segment, position);
+                if (length == 0) {
+                    return null;
+                }
+                if (length == END_OF_SEGMENT) {
+                    cycle++;
+                    position = 0;
+                    segment = null;
+                    continue;
+                }
+                view.clear().position(position + HEADER).limit(position + HEADER + length);
+                position += align(HEADER + length);
+                return view;
+            }
+        }
+        
+        /** Waits for the next record: spins briefly, then parks. */
+        ByteBuffer take() throws InterruptedException {
+            int idle = 0;
+            ByteBuffer record;
+            while ((record = next()) == null) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (++idle < 100) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+                }
+            }
+            return record;
+        }
+        
+        private boolean open() {
+            Path path = segmentPath(directory, cycle);
+            try {
+                if (!Files.exists(path) || Files.size(path) == 0) {
+                    return false; // not created (or not yet sized) by the appender
+                }
+                segment = map(path, FileChannel.MapMode.READ_ONLY, 0);
+                view = segment.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        /** Persists the position after the last record returned by next(). */
+        void commit() {
+            LONG.setRelease(offset, 0, Q05_PersistentQueue.index(cycle, position));
+        }
+        
+        /** Index of the next record to read. */
+        long index() {
+            return Q05_PersistentQueue.index(cycle, position);
+        }
+    }
+    
+    static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+    
+    /** Tails the whole queue with a fresh tailer, checking that record i holds sequence number i. */
+    static long verify(Path directory, String name) throws IOException {
+        Tailer tailer = new Tailer(directory, name);
+        long expected = 0;
+        ByteBuffer record;
+        while ((record = tailer.next()) != null) {
+            long sequence = record.getLong(record.position());
+            if (sequence != expected) {
+                throw new IllegalStateException("record " + expected + " holds " + sequence);
+            }
+            expected++;
+        }
+        return expected;
+    }
+    
+    /** Child process: appends sequence numbers, printing "acked N" every 10000, until killed. */
+    static void appendForever(Path directory) throws IOException {
+        try (Appender appender = new Appender(directory, 1 << 20)) {
+            ByteBuffer record = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+            for (long sequence = 0; ; sequence++) {
+                appender.append(record.clear().putLong(0, sequence));
+                if ((sequence + 1) % 10_000 == 0) {
+                    System.out.println("acked " + (sequence + 1));
+                    System.out.flush();
+                }
+            }
+        }
+    }
+    
+    static long killChildAppender(Path directory, long acknowledged) throws IOException, InterruptedException {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                Q05_PersistentQueue.class.getName(), "child", directory.toString())
+                .redirectErrorStream(true)
+                .start();
+        long acked = 0;
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(child.getInputStream()))) {
+            String line;
+            while (acked < acknowledged && (line = output.readLine()) != null) {
+                if (line.startsWith("acked ")) {
+                    acked = Long.parseLong(line.substring(6));
+                }
+            }
+            child.destroyForcibly(); // SIGKILL: no shutdown hooks, no close()
+            child.waitFor();
+        }
+        return acked;
+    }
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("child")) {
+            appendForever(Path.of(args[1]));
+            return;
+        }
+        Path directory = Files.createTempDirectory("persistent-queue");
+        System.out.println("Directory: " + directory);
+        int records = 2_000_000;
+        try {
+            Thread[] readers = new Thread[2];
+            for (int r = 0; r < readers.length; r++) {
+                String name = "tailer-" + (r + 1);
+                readers[r] = new Thread(() -> {
+                    try {
+                        Tailer tailer = new Tailer(directory, name);
+                        long start = System.nanoTime();
+                        long inOrder = 0;
+                        for (long i = 0; i < records; i++) {
+                            ByteBuffer record = tailer.take();
+                            if (record.getLong(record.position()) == i) {
+                                inOrder++;
+                            }
+                            if ((i & 1023) == 0) {
+                                tailer.commit();
+                            }
+                        }
+                        tailer.commit();
+                        System.out.printf("%s read %d records in order: %.1f M/s%n",
+                                name, inOrder, inOrder * 1_000.0 / (System.nanoTime() - start));
+                    } catch (IOException | InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }, name);
+                readers[r].start();
+            }
+            
+            try (Appender appender = new Appender(directory, 16 << 20)) {
+                ByteBuffer record = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+                long start = System.nanoTime();
+                for (long i = 0; i < records; i++) {
+                    appender.append(record.clear().putLong(0, i));
+                }
+                System.out.printf("Appended %d records of 32 bytes: %.1f M/s, %d segments%n",
+                        records, records * 1_000.0 / (System.nanoTime() - start), lastCycle(directory) + 1);
+                appender.sync();
+            }
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            Tailer resumed = new Tailer(directory, "tailer-1");
+            System.out.println("tailer-1 committed index " + Long.toHexString(resumed.index())
+                    + ", next record after restart: " + (resumed.next() == null ? "none (caught up) ✓" : "unexpected ✗"));
+        } finally {
+            deleteDirectory(directory);
+        }
+        
+        Path crashed = Files.createTempDirectory("persistent-queue-crash");
+        try {
+            System.out.println("\nKilling a child appender after 300000 acknowledged records...");
+            long acked = killChildAppender(crashed, 300_000);
+            long recovered = verify(crashed, "checker");
+            System.out.println("Recovered: " + recovered + " records, all intact, none missing (>= " + acked
+                    + " acknowledged) " + (recovered >= acked ? "✓" : "✗"));
+            try (Appender appender = new Appender(crashed, 1 << 20)) {
+                appender.append(ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN).putLong(0, recovered));
+            }
+            long continued = verify(crashed, "checker-2") - 1;
+            System.out.println("Reopened appender continued at record " + continued + " "
+                    + (continued == recovered ? "✓" : "✗"));
+        } finally {
+            deleteDirectory(crashed);
+        }
+    }
+}
+
+/*
+KEY CONCEPT: The file is the queue
+- mmap makes the file a shared, persistent byte array: appending is a
+  memory copy, no syscall per record, no serialization framework
+- Single writer + release-store of the length = readers need no locks,
+  in this process or any other mapping the same file
+- Crash safety comes from the order of writes: payload, then length.
+  A killed writer leaves at most one record without a length; recovery
+  finds the first zero header and clears what lies after it
+- Process crash vs power loss: the kernel still holds dirty pages after
+  kill -9; only force() (msync) survives losing the machine
+- Each tailer persists its own offset: consumers are independent, can
+  replay from any index, and a restart re-reads at most one batch
+- Segments cap the mapping size and let old data be deleted by file
+*/